@@ -0,0 +1,399 @@
+package java;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * AdmissionControl decides which requests the handler executor runs when
+ * the server is under load
+ * Each user has a token bucket of BURST requests refilling at
+ * RATE_PER_SECOND; a user that runs dry is answered 429 at once instead
+ * of crowding out everyone else. Requests naming no user are not rate
+ * limited, since behind a proxy they would all share one address. At most maxConcurrent handlers run; beyond
+ * that requests wait in one bounded queue per priority, and a free handler
+ * always takes the oldest request of the highest priority, so dashboard
+ * reads overtake bulk imports. A request arriving at a full queue, or still
+ * queued after its priority's maximum wait, is answered 503: a client that
+ * would have timed out anyway gets a fast answer and frees the slot. While
+ * started, a timer sheds expired requests every EXPIRY_SWEEP_MILLIS, so they
+ * are answered on time even when every handler is stuck.
+ */
+final class admission_control {
+    static final double RATE_PER_SECOND = 20;
+    static final double BURST = 60;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long EXPIRY_SWEEP_MILLIS = 250;
+
+    /**
+     * Request classes, most urgent first
+     */
+    enum Priority {
+        /** Reads a user waits on, e.g. GET /api/tasks when a page opens */
+        INTERACTIVE(4096, 2, 1),
+        /** Single writes such as saving an event */
+        STANDARD(1024, 5, 1),
+        /** Writes of many records at once, such as an iCalendar import */
+        BULK(64, 30, 5);
+
+        private final int queueCapacity;
+        private final long maxWaitNanos;
+        private final int cost;
+
+        Priority(int queueCapacity, long maxWaitSeconds, int cost) {
+            this.queueCapacity = queueCapacity;
+            this.maxWaitNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+            this.cost = cost;
+        }
+    }
+
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final Function<http_request, String> userOf;
+    private final Function<http_request, Priority> classify;
+    private final ConcurrentHashMap<String, Bucket> buckets;
+    private final ReentrantLock lock;
+    private final ArrayDeque<Queued>[] queues;
+    private final AtomicLong nextSweep;
+    private final LongAdder admitted;
+    private final LongAdder rateLimited;
+    private final LongAdder rejected;
+    private final LongAdder expired;
+    private ScheduledExecutorService expirySweeper;
+    private int running;
+    private int queued;
+
+    /**
+     * Tokens of one user, refilled lazily when taken
+     */
+    private static final class Bucket {
+        private double tokens = BURST;
+        private long refilledAt;
+
+        Bucket(long now) {
+            this.refilledAt = now;
+        }
+
+        /**
+         * @return long 0 if the tokens were taken, otherwise nanoseconds until they will be there
+         */
+        synchronized long take(int cost, long now) {
+            tokens = Math.min(BURST, tokens + (now - refilledAt) * RATE_PER_SECOND / 1e9);
+            refilledAt = now;
+            if (tokens >= cost) {
+                tokens -= cost;
+                return 0;
+            }
+            return (long) Math.ceil((cost - tokens) / RATE_PER_SECOND * 1e9);
+        }
+
+        /**
+         * A bucket that has refilled completely holds nothing worth keeping
+         */
+        synchronized boolean isFull(long now) {
+            return tokens + (now - refilledAt) * RATE_PER_SECOND / 1e9 >= BURST;
+        }
+    }
+
+    private static final class Queued {
+        private final Runnable task;
+        private final Consumer<http_response> shed;
+        private final long deadline;
+
+        Queued(Runnable task, Consumer<http_response> shed, long deadline) {
+            this.task = task;
+            this.shed = shed;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Admission counters at one point in time
+     */
+    public static class Stats {
+        private final long admitted;
+        private final long rateLimited;
+        private final long rejected;
+        private final long expired;
+        private final int running;
+        private final int queued;
+
+        Stats(long admitted, long rateLimited, long rejected, long expired, int running, int queued) {
+            this.admitted = admitted;
+            this.rateLimited = rateLimited;
+            this.rejected = rejected;
+            this.expired = expired;
+            this.running = running;
+            this.queued = queued;
+        }
+
+        /**
+         * @return long requests handed to a handler, directly or after queueing
+         */
+        public long getAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * @return long requests answered 429 because their user's bucket was empty
+         */
+        public long getRateLimited() {
+            return rateLimited;
+        }
+
+        /**
+         * @return long requests answered 503 because their queue was full
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return long requests answered 503 after waiting longer than their priority allows
+         */
+        public long getExpired() {
+            return expired;
+        }
+
+        /**
+         * @return long all requests shed with a 429 or 503
+         */
+        public long getShed() {
+            return rateLimited + rejected + expired;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * @return int requests waiting for a handler, over all priorities
+         */
+        public int getQueueDepth() {
+            return queued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("admitted=%d rateLimited=%d rejected=%d expired=%d running=%d queued=%d",
+                                 admitted, rateLimited, rejected, expired, running, queued);
+        }
+    }
+
+    /**
+     * @param executor runs admitted requests
+     * @param maxConcurrent most requests run at once, e.g. the size of a thread pool
+     * @param userOf the user a request is made for, null if it names none
+     * @param classify the priority of a request, e.g. by its endpoint
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    admission_control(Executor executor, int maxConcurrent, Function<http_request, String> userOf,
+                      Function<http_request, Priority> classify) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.userOf = userOf;
+        this.classify = classify;
+        this.buckets = new ConcurrentHashMap<>();
+        this.lock = new ReentrantLock();
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+        this.admitted = new LongAdder();
+        this.rateLimited = new LongAdder();
+        this.rejected = new LongAdder();
+        this.expired = new LongAdder();
+    }
+
+    /**
+     * Starts the timer that sheds requests queued for longer than their priority allows
+     * @param name prefix of the timer thread's name, e.g. the server name
+     */
+    synchronized void start(String name) {
+        if (expirySweeper != null) return;
+        expirySweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name + "-admission");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expirySweeper.scheduleAtFixedRate(this::shedExpired, EXPIRY_SWEEP_MILLIS, EXPIRY_SWEEP_MILLIS,
+                                          TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the timer; expired requests are then only shed when a handler frees up
+     */
+    synchronized void stop() {
+        if (expirySweeper == null) return;
+        expirySweeper.shutdown();
+        try {
+            expirySweeper.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        expirySweeper = null;
+    }
+
+    /**
+     * Runs a request's task now or queues it, unless it has to be shed
+     * @param task handles the request; it must not throw
+     * @param shed answers the request if it is dropped from the queue later, on any thread
+     * @return http_response the 429 or 503 to answer with at once, null if the task was run or queued
+     */
+    http_response submit(http_request request, Runnable task, Consumer<http_response> shed) {
+        Priority priority = classify.apply(request);
+        long now = System.nanoTime();
+        String user = userOf.apply(request);
+        long wait = 0;
+        if (user != null) {
+            sweepBuckets(now);
+            wait = buckets.computeIfAbsent(user, key -> new Bucket(now)).take(priority.cost, now);
+        }
+        if (wait > 0) {
+            rateLimited.increment();
+            return http_response.error(429, "Too many requests")
+                                .withRetryAfter(retryAfterSeconds(wait));
+        }
+        boolean runNow = false;
+        boolean enqueued = false;
+        lock.lock();
+        try {
+            if (running < maxConcurrent && queued == 0) {
+                running++;
+                runNow = true;
+            } else if (queues[priority.ordinal()].size() < priority.queueCapacity) {
+                queues[priority.ordinal()].add(new Queued(task, shed, now + priority.maxWaitNanos));
+                queued++;
+                enqueued = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (runNow) {
+            return execute(task) ? null : busy();
+        }
+        if (enqueued) return null;
+        rejected.increment();
+        return busy();
+    }
+
+    Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(admitted.sum(), rateLimited.sum(), rejected.sum(), expired.sum(), running, queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return boolean false if the executor refused the task, whose slot is then released
+     */
+    private boolean execute(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finished();
+                }
+            });
+            admitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            finished();
+            return false;
+        }
+    }
+
+    /**
+     * Frees a handler slot and starts the most urgent queued request, shedding
+     * the ones that waited too long on the way
+     */
+    private void finished() {
+        while (true) {
+            Queued next = null;
+            boolean stale = false;
+            lock.lock();
+            try {
+                running--;
+                for (ArrayDeque<Queued> queue : queues) {
+                    next = queue.poll();
+                    if (next != null) break;
+                }
+                if (next != null) {
+                    queued--;
+                    running++;
+                    stale = next.deadline - System.nanoTime() < 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (next == null) return;
+            if (stale) {
+                expired.increment();
+                next.shed.accept(busy());
+                continue;
+            }
+            if (!execute(next.task)) next.shed.accept(busy());
+            return;
+        }
+    }
+
+    /**
+     * Answers the queued requests whose wait is over
+     * A queue holds one priority in arrival order, so only its head can have expired first
+     */
+    private void shedExpired() {
+        ArrayList<Queued> stale = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            for (ArrayDeque<Queued> queue : queues) {
+                while (!queue.isEmpty() && queue.peek().deadline - now < 0) {
+                    stale.add(queue.poll());
+                }
+            }
+            queued -= stale.size();
+        } finally {
+            lock.unlock();
+        }
+        for (Queued request : stale) {
+            expired.increment();
+            request.shed.accept(busy());
+        }
+    }
+
+    /**
+     * Drops the buckets of users that have been quiet long enough to refill,
+     * at most once per SWEEP_INTERVAL_NANOS
+     */
+    private void sweepBuckets(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) return;
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    private static http_response busy() {
+        return http_response.error(503, "Server is busy").withRetryAfter(1);
+    }
+
+    private static int retryAfterSeconds(long nanos) {
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(nanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+}
@@ -0,0 +1,106 @@
+package java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AdmissionControlPriority checks the admission rules the server relies on,
+ * with the request classification and users of server_api
+ * While the only handler is busy, BULK_REQUESTS imports are queued before
+ * READ_REQUESTS reads; once it frees up every read must run before the
+ * imports still waiting. Then one user saves events faster than the token
+ * bucket refills, which must be answered 429 although the user is only
+ * named in the JSON body.
+ * Run with: java java.admission_control_priority
+ */
+final class admission_control_priority {
+    private static final int BULK_REQUESTS = 10;
+    private static final int READ_REQUESTS = 10;
+    private static final int SAVES = 100;
+
+    private admission_control_priority() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            checkReadsOvertakeImports(executor);
+            checkWritesAreRateLimited(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkReadsOvertakeImports(ExecutorService executor) throws InterruptedException {
+        admission_control admission = new admission_control(executor, 1, server_api::userOf,
+                                                            server_api::priorityOf);
+        List<String> order = new ArrayList<>();
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(BULK_REQUESTS + READ_REQUESTS);
+        admission.submit(request("GET /api/tasks?user=first HTTP/1.1\r\n\r\n"), () -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, response -> { });
+        for (int i = 0; i < BULK_REQUESTS; i++) {
+            String body = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n";
+            submit(admission, request("POST /api/events/import?user=importer" + i + " HTTP/1.1\r\n"
+                                      + "Content-Length: " + body.length() + "\r\n\r\n" + body),
+                   "import", order, done);
+        }
+        for (int i = 0; i < READ_REQUESTS; i++) {
+            submit(admission, request("GET /api/tasks?user=reader" + i + " HTTP/1.1\r\n\r\n"), "read", order, done);
+        }
+        busy.countDown();
+        done.await();
+        int lastRead = order.lastIndexOf("read");
+        int firstImport = order.indexOf("import");
+        System.out.println("Run order after the busy handler: " + order);
+        if (lastRead > firstImport) {
+            throw new IllegalStateException("An import ran before a queued read");
+        }
+    }
+
+    private static void checkWritesAreRateLimited(ExecutorService executor) {
+        admission_control admission = new admission_control(executor, 1, server_api::userOf,
+                                                             server_api::priorityOf);
+        String body = "{\"userId\":\"eager\",\"event\":{}}";
+        int limited = 0;
+        for (int i = 0; i < SAVES; i++) {
+            http_response response = admission.submit(
+                request("POST /api/events/save HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body),
+                () -> { }, shed -> { });
+            if (response != null && response.getStatus() == 429) limited++;
+        }
+        System.out.println(SAVES + " saves by one user: " + limited + " answered 429; " + admission.stats());
+        if (limited == 0) {
+            throw new IllegalStateException("Saves naming their user only in the body were not rate limited");
+        }
+    }
+
+    private static void submit(admission_control admission, http_request request, String kind, List<String> order,
+                               CountDownLatch done) {
+        http_response shed = admission.submit(request, () -> {
+            synchronized (order) {
+                order.add(kind);
+            }
+            done.countDown();
+        }, response -> {
+            throw new IllegalStateException("Queued " + kind + " was shed: " + response.getStatus());
+        });
+        if (shed != null) {
+            throw new IllegalStateException("Queued " + kind + " was refused: " + shed.getStatus());
+        }
+    }
+
+    private static http_request request(String text) {
+        return http_request.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -1,28 +1,59 @@
 package java;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.UUID;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * AllTask class manages all tasks in the system using OOP principles
  * This class operates independently without affecting web functionality
+ * All public methods are safe to call from concurrent request threads: each task
+ * is guarded by its own monitor, categories are updated per key and audit
+ * appends never block
+ * When constructed with a data directory, every mutation is written ahead to
+ * task_journal and the store is rebuilt from its snapshot and log on startup
+ * Tasks are keyed internally by a 64-bit ID from a pluggable id_generator; the
+ * "TSK_..." string form only exists at the public API
+ * Every mutation is also published to a change_stream, which may be shared
+ * with calendar_event so consumers see one ordered feed; mutators first wait
+ * in its awaitCapacity, before taking any lock, while a durable subscriber lags
  */
 public class all_task {
     // Core data structures for task management
-    private ConcurrentHashMap<String, TaskItem> taskDatabase;
-    private HashMap<String, ArrayList<String>> categoryTasks;
-    private ArrayList<TaskAudit> auditTrail;
+    private long_hash_map<TaskItem> taskDatabase;
+    private ConcurrentHashMap<String, CopyOnWriteArrayList<String>> categoryTasks;
+    private ConcurrentHashMap<String, Set<Long>> assigneeTasks;
+    private task_audit_log auditLog;
+    private task_deadline_index deadlineIndex;
+    private task_tag_index tagIndex;
+    private task_priority_index priorityIndex;
+    private task_text_index textIndex;
+    private task_journal journal;
+    private change_stream changes;
+    private id_generator idGenerator;
+    private AtomicLong highestIssuedId;
     private static final int MAX_TASKS_PER_CATEGORY = 50;
+    private static final String TASK_ID_PREFIX = "TSK_";
+    private static final TaskPriority[] PRIORITIES = TaskPriority.values();
     
     /**
      * Inner class representing individual task items
      */
     private static class TaskItem { 
-        private String taskId;
+        private long taskId;
         private String title;
         private String description;
         private TaskPriority priority;
@@ -30,73 +61,175 @@ public class all_task {
         private LocalDateTime creationDate;
         private LocalDateTime dueDate;
         private String assignedTo;
-        private ArrayList<String> tags;
+        private String category;
+        private LinkedHashSet<String> tags;
         private int completionPercentage;
+        private boolean deleted;
         
         
-        public TaskItem(String title, String description, TaskPriority priority, 
-                       LocalDateTime dueDate, String assignedTo) {
-            this.taskId = generateTaskId();
+        public TaskItem(long taskId, String title, String description, TaskPriority priority, 
+                       LocalDateTime dueDate, String assignedTo, String category) {
+            this(taskId, title, description, priority, LocalDateTime.now(), dueDate, assignedTo, category);
+        }
+        
+        /**
+         * Rebuilds a task with a known creation date, used when recovering from the journal
+         */
+        public TaskItem(long taskId, String title, String description, TaskPriority priority,
+                       LocalDateTime creationDate, LocalDateTime dueDate, String assignedTo,
+                       String category) {
+            this.taskId = taskId;
             this.title = title;
             this.description = description;
             this.priority = priority;
             this.status = TaskStatus.PENDING;
-            this.creationDate = LocalDateTime.now();
+            this.creationDate = creationDate;
             this.dueDate = dueDate;
             this.assignedTo = assignedTo;
-            this.tags = new ArrayList<>();
+            this.category = category;
+            this.tags = new LinkedHashSet<>();
             this.completionPercentage = 0;
             
         }
+    }
+    
+    /**
+     * Enum for task priority levels
+     */
+    private enum TaskPriority {
+        LOW(1),
+        MEDIUM(2),
+        HIGH(3),
+        CRITICAL(4);
         
-        private String generateTaskId() {
-            return "TSK_" + UUID.randomUUID().toString().substring(0, 8);
+        private final int weight;
+        
+        TaskPriority(int value) {
+            this.weight = value;
         }
     }
     
     /**
-     * Inner class for audit trail tracking
+     * Input for one task of a batch creation
      */
-    private static class TaskAudit {
-        private LocalDateTime timestamp;
-        private String taskId;
-        private String action;
-        private String performedBy;
-        private String details;
+    public static class NewTask {
+        private final String title;
+        private final String description;
+        private final String priority;
+        private final LocalDateTime dueDate;
+        private final String assignedTo;
+        private final String category;
         
-        public TaskAudit(String taskId, String action, String performedBy, String details) {
-            this.timestamp = LocalDateTime.now();
+        public NewTask(String title, String description, String priority,
+                       LocalDateTime dueDate, String assignedTo, String category) {
+            this.title = title;
+            this.description = description;
+            this.priority = priority;
+            this.dueDate = dueDate;
+            this.assignedTo = assignedTo;
+            this.category = category;
+        }
+    }
+    
+    /**
+     * Outcome for one task of a batch creation
+     */
+    public static class BatchResult {
+        private final String taskId;
+        private final String error;
+        
+        private BatchResult(String taskId, String error) {
             this.taskId = taskId;
-            this.action = action;
-            this.performedBy = performedBy;
-            this.details = details;
+            this.error = error;
         }
         
-        @Override
-        public String toString() {
-            return String.format("[%s] Task: %s - Action: %s - By: %s - Details: %s",
-                timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                taskId, action, performedBy, details);
+        /**
+         * @return boolean indicating if the task was created
+         */
+        public boolean isSuccess() {
+            return taskId != null;
+        }
+        
+        /**
+         * @return String ID of the created task, null if it failed
+         */
+        public String getTaskId() {
+            return taskId;
+        }
+        
+        /**
+         * @return String reason the task was rejected, null if it was created
+         */
+        public String getError() {
+            return error;
         }
     }
     
     /**
-     * Enum for task priority levels
+     * Read-only copy of a task's fields, for queries that combine tasks with other data
      */
-    private enum TaskPriority {
-        LOW(1),
-        MEDIUM(2),
-        HIGH(3),
-        CRITICAL(4);
+    public static class TaskSummary {
+        private final String taskId;
+        private final String title;
+        private final String description;
+        private final String priority;
+        private final String status;
+        private final LocalDateTime creationDate;
+        private final LocalDateTime dueDate;
+        private final String assignedTo;
+        private final int completionPercentage;
         
+        private TaskSummary(TaskItem task) {
+            this.taskId = formatTaskId(task.taskId);
+            this.title = task.title;
+            this.description = task.description;
+            this.priority = task.priority.name();
+            this.status = task.status.name();
+            this.creationDate = task.creationDate;
+            this.dueDate = task.dueDate;
+            this.assignedTo = task.assignedTo;
+            this.completionPercentage = task.completionPercentage;
+        }
         
+        public String getTaskId() {
+            return taskId;
+        }
         
-        TaskPriority(int value) {
-            
+        public String getTitle() {
+            return title;
         }
         
-        {
-            
+        public String getDescription() {
+            return description;
+        }
+        
+        public String getPriority() {
+            return priority;
+        }
+        
+        public String getStatus() {
+            return status;
+        }
+        
+        public LocalDateTime getCreationDate() {
+            return creationDate;
+        }
+        
+        public LocalDateTime getDueDate() {
+            return dueDate;
+        }
+        
+        public String getAssignedTo() {
+            return assignedTo;
+        }
+        
+        public int getCompletionPercentage() {
+            return completionPercentage;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s %s %s %s %d%%", taskId, title, priority, status, completionPercentage);
         }
     }
     
@@ -116,9 +249,68 @@ public class all_task {
      * Constructor initializes task management system
      */
     public all_task() {
-        this.taskDatabase = new ConcurrentHashMap<>();
-        this.categoryTasks = new HashMap<>();
-        this.auditTrail = new ArrayList<>();
+        this(new id_generator.Monotonic());
+    }
+    
+    /**
+     * Constructor initializes task management system with a specific ID scheme
+     * @param idGenerator source of task IDs, e.g. id_generator.Snowflake when several nodes create tasks
+     */
+    public all_task(id_generator idGenerator) {
+        this(idGenerator, new change_stream());
+    }
+    
+    /**
+     * Constructor initializes task management system publishing to a given change stream
+     * @param changes stream receiving every task mutation, e.g. one shared with calendar_event
+     */
+    public all_task(id_generator idGenerator, change_stream changes) {
+        this.idGenerator = idGenerator;
+        this.changes = changes;
+        this.taskDatabase = new long_hash_map<>();
+        this.categoryTasks = new ConcurrentHashMap<>();
+        this.assigneeTasks = new ConcurrentHashMap<>();
+        this.auditLog = new task_audit_log();
+        this.deadlineIndex = new task_deadline_index();
+        this.tagIndex = new task_tag_index();
+        this.priorityIndex = new task_priority_index();
+        this.textIndex = new task_text_index();
+        this.highestIssuedId = new AtomicLong();
+    }
+    
+    /**
+     * Constructor for a durable task store
+     * Loads the latest snapshot and replays the journal tail found in the directory
+     * @param dataDirectory directory holding the snapshot and write-ahead log segments
+     */
+    public all_task(Path dataDirectory) {
+        this(dataDirectory, null);
+    }
+    
+    /**
+     * Constructor for a durable task store with a specific ID scheme
+     * @param dataDirectory directory holding the snapshot and write-ahead log segments
+     * @param idGenerator source of task IDs that must not reissue recovered IDs;
+     *                    null continues a monotonic sequence after the highest ID ever
+     *                    issued, including tasks deleted since
+     */
+    public all_task(Path dataDirectory, id_generator idGenerator) {
+        this(dataDirectory, idGenerator, new change_stream());
+    }
+    
+    /**
+     * Constructor for a durable task store publishing to a given change stream
+     * Recovered state is not republished; subscribers start from the live store
+     * @param dataDirectory directory holding the snapshot and write-ahead log segments
+     * @param idGenerator source of task IDs, null continues after the highest ID ever issued
+     * @param changes stream receiving every task mutation
+     */
+    public all_task(Path dataDirectory, id_generator idGenerator, change_stream changes) {
+        this(idGenerator, changes);
+        this.journal = task_journal.open(dataDirectory, new JournalHandler());
+        if (idGenerator == null) {
+            this.idGenerator = new id_generator.Monotonic(highestIssuedId.get());
+        }
     }
     
     /**
@@ -127,41 +319,206 @@ public class all_task {
      */
     public String createTask(String title, String description, String priority,
                            LocalDateTime dueDate, String assignedTo, String category) {
+        changes.awaitCapacity();
         if (isCategoryFull(category)) {
             logAudit("SYSTEM", "CREATE_FAILED", "SYSTEM", "Category " + category + " is full");
             return null;
         }
         
-        TaskItem newTask = new TaskItem(title, description, 
-                                      TaskPriority.valueOf(priority.toUpperCase()),
-                                      dueDate, assignedTo);
+        TaskPriority taskPriority = parsePriority(priority);
+        if (taskPriority == null) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+        TaskItem newTask = new TaskItem(idGenerator.nextId(), title, description, 
+                                      taskPriority, dueDate, assignedTo, category);
+        String taskId = formatTaskId(newTask.taskId);
         
+        if (!reserveCategorySlot(category, taskId)) {
+            logAudit("SYSTEM", "CREATE_FAILED", "SYSTEM", "Category " + category + " is full");
+            return null;
+        }
+        awaitDurable(insertTask(newTask, taskId, "SYSTEM"));
         
+        logAudit(taskId, "CREATE", "SYSTEM", "Task created: " + title);
+        return taskId;
+    }
+    
+    /**
+     * Creates many tasks at once, e.g. a semester syllabus import
+     * The batch is validated in one pass, category capacity is reserved with a
+     * single atomic step per category, journal records share one group commit
+     * and one grouped audit entry is written for the whole batch.
+     * @return ArrayList<BatchResult> one result per input, in input order
+     */
+    public ArrayList<BatchResult> createTasks(List<NewTask> batch, String createdBy) {
+        changes.awaitCapacity();
+        int size = batch.size();
+        BatchResult[] results = new BatchResult[size];
+        TaskItem[] items = new TaskItem[size];
+        String[] taskIds = new String[size];
+        HashMap<String, ArrayList<Integer>> byCategory = new HashMap<>();
+        
+        for (int i = 0; i < size; i++) {
+            NewTask spec = batch.get(i);
+            String error = validateNewTask(spec);
+            TaskPriority taskPriority = error == null ? parsePriority(spec.priority) : null;
+            if (error == null && taskPriority == null) {
+                error = "Unknown priority: " + spec.priority;
+            }
+            if (error != null) {
+                results[i] = new BatchResult(null, error);
+                continue;
+            }
+            items[i] = new TaskItem(idGenerator.nextId(), spec.title, spec.description, taskPriority,
+                                    spec.dueDate, spec.assignedTo, spec.category);
+            taskIds[i] = formatTaskId(items[i].taskId);
+            byCategory.computeIfAbsent(spec.category, k -> new ArrayList<>()).add(i);
+        }
         
-        logAudit(newTask.taskId, "CREATE", "SYSTEM", "Task created: " + title);
-        return newTask.taskId;
+        for (HashMap.Entry<String, ArrayList<Integer>> entry : byCategory.entrySet()) {
+            ArrayList<Integer> indexes = entry.getValue();
+            int admitted = reserveCategorySlots(entry.getKey(), indexes, taskIds);
+            for (int n = admitted; n < indexes.size(); n++) {
+                int i = indexes.get(n);
+                items[i] = null;
+                results[i] = new BatchResult(null, "Category " + entry.getKey() + " is full");
+            }
+        }
+        
+        ArrayList<CompletableFuture<Long>> durable = new ArrayList<>();
+        int created = 0;
+        for (int i = 0; i < size; i++) {
+            if (items[i] == null) continue;
+            CompletableFuture<Long> record = insertTask(items[i], taskIds[i], createdBy);
+            if (record != null) durable.add(record);
+            results[i] = new BatchResult(taskIds[i], null);
+            created++;
+        }
+        if (!durable.isEmpty()) {
+            CompletableFuture.allOf(durable.toArray(new CompletableFuture<?>[0])).join();
+        }
+        
+        logAudit("SYSTEM", "BATCH_CREATE", createdBy,
+                 "Created " + created + " of " + size + " tasks");
+        return new ArrayList<>(Arrays.asList(results));
+    }
+    
+    /**
+     * Checks the fields of a batch entry that createTask would otherwise fail on
+     * @return String error message, or null if the entry is valid
+     */
+    private String validateNewTask(NewTask spec) {
+        if (spec == null) return "Task is missing";
+        if (spec.category == null) return "Category is required";
+        if (spec.priority == null) return "Priority is required";
+        return null;
+    }
+    
+    /**
+     * Resolves a priority name case-insensitively without allocating
+     * @return TaskPriority the matching priority, or null if there is none
+     */
+    private static TaskPriority parsePriority(String priority) {
+        if (priority == null) return null;
+        for (TaskPriority candidate : PRIORITIES) {
+            if (candidate.name().equalsIgnoreCase(priority)) return candidate;
+        }
+        return null;
+    }
+    
+    /**
+     * Publishes a new task to the database, every index and the change stream
+     * The task monitor is held until the create is published, so no later
+     * change to the task can overtake it in the stream. The task is in the
+     * database before its create record is queued: a checkpoint rotating the
+     * journal in between then finds it in the snapshot, instead of deleting
+     * the only segment that records it
+     * @return CompletableFuture completing once the create record is durable, null without a journal
+     */
+    private CompletableFuture<Long> insertTask(TaskItem task, String taskId, String createdBy) {
+        synchronized (task) {
+            deadlineIndex.put(task.taskId, task.dueDate);
+            priorityIndex.put(task.taskId, task.assignedTo, task.priority.weight, task.dueDate);
+            tagIndex.addTask(task.taskId);
+            textIndex.index(task.taskId, task.title, task.description);
+            addToAssignee(task);
+            highestIssuedId.accumulateAndGet(task.taskId, Math::max);
+            taskDatabase.put(task.taskId, task);
+            CompletableFuture<Long> durable = journal == null ? null
+                : journal.logCreate(taskId, task.title, task.description, task.priority.name(),
+                                    task.creationDate, task.dueDate, task.assignedTo, task.category);
+            publishChange(change_stream.ChangeType.CREATE, taskId, createdBy, task.title);
+            return durable;
+        }
     }
     
     /**
      * Checks if a category has reached its task limit
      */
     private boolean isCategoryFull(String category) {
-        ArrayList<String> tasks = categoryTasks.get(category);
+        CopyOnWriteArrayList<String> tasks = categoryTasks.get(category);
         return tasks != null && tasks.size() >= MAX_TASKS_PER_CATEGORY;
     }
     
+    /**
+     * Atomically checks the category limit and adds the task to the category
+     * Only the category's own map entry is locked, other categories proceed in parallel
+     * @return boolean indicating if the task was admitted
+     */
+    private boolean reserveCategorySlot(String category, String taskId) {
+        boolean[] admitted = new boolean[1];
+        categoryTasks.compute(category, (key, tasks) -> {
+            if (tasks == null) {
+                tasks = new CopyOnWriteArrayList<>();
+            }
+            if (tasks.size() < MAX_TASKS_PER_CATEGORY) {
+                tasks.add(taskId);
+                admitted[0] = true;
+            }
+            return tasks;
+        });
+        return admitted[0];
+    }
+    
+    /**
+     * Atomically admits as many of a category's batch entries as still fit
+     * @return int number of entries admitted, taken from the front of the list
+     */
+    private int reserveCategorySlots(String category, ArrayList<Integer> indexes, String[] taskIds) {
+        int[] admitted = new int[1];
+        categoryTasks.compute(category, (key, tasks) -> {
+            if (tasks == null) {
+                tasks = new CopyOnWriteArrayList<>();
+            }
+            int free = Math.max(0, MAX_TASKS_PER_CATEGORY - tasks.size());
+            int count = Math.min(free, indexes.size());
+            ArrayList<String> reserved = new ArrayList<>(count);
+            for (int n = 0; n < count; n++) {
+                reserved.add(taskIds[indexes.get(n)]);
+            }
+            tasks.addAll(reserved);
+            admitted[0] = count;
+            return tasks;
+        });
+        return admitted[0];
+    }
+    
     /**
      * Updates task progress
      */
     public boolean updateTaskProgress(String taskId, int progress, String updatedBy) {
-        TaskItem task = taskDatabase.get(taskId);
+        changes.awaitCapacity();
+        TaskItem task = findTask(taskId);
         if (task != null && progress >= 0 && progress <= 100) {
-            task.completionPercentage = progress;
-            if (progress == 100) {
-                task.status = TaskStatus.COMPLETED;
-            } else if (progress > 0) {
-                task.status = TaskStatus.IN_PROGRESS;
+            CompletableFuture<Long> durable;
+            synchronized (task) {
+                if (task.deleted) return false;
+                applyProgress(task, progress);
+                durable = journal == null ? null : journal.logProgress(taskId, progress);
+                publishChange(change_stream.ChangeType.PROGRESS, taskId, updatedBy,
+                              String.valueOf(progress));
             }
+            awaitDurable(durable);
             logAudit(taskId, "UPDATE_PROGRESS", updatedBy, 
                     "Progress updated to " + progress + "%");
             return true;
@@ -169,66 +526,513 @@ public class all_task {
         return false;
     }
     
+    /**
+     * Applies a progress value and the status it implies, caller holds the task monitor
+     * Resetting a completed task to 0 reopens it; only open tasks are in the
+     * deadline and priority indexes, the same rule restoreTask follows
+     */
+    private void applyProgress(TaskItem task, int progress) {
+        task.completionPercentage = progress;
+        if (progress == 100) {
+            task.status = TaskStatus.COMPLETED;
+        } else if (progress > 0) {
+            task.status = TaskStatus.IN_PROGRESS;
+        } else if (task.status == TaskStatus.COMPLETED) {
+            task.status = TaskStatus.PENDING;
+        }
+        if (isOpen(task.status)) {
+            deadlineIndex.put(task.taskId, task.dueDate);
+            priorityIndex.put(task.taskId, task.assignedTo, task.priority.weight, task.dueDate);
+        } else {
+            deadlineIndex.remove(task.taskId);
+            priorityIndex.remove(task.taskId);
+        }
+    }
+    
+    /**
+     * @return boolean true for statuses that still count towards deadlines and priorities
+     */
+    private static boolean isOpen(TaskStatus status) {
+        return status != TaskStatus.COMPLETED && status != TaskStatus.CANCELLED;
+    }
+    
+    /**
+     * Edits a task's title and description, null keeps the current value
+     */
+    public boolean updateTaskDetails(String taskId, String newTitle, String newDescription,
+                                     String updatedBy) {
+        changes.awaitCapacity();
+        TaskItem task = findTask(taskId);
+        if (task == null) return false;
+        
+        CompletableFuture<Long> durable;
+        synchronized (task) {
+            if (task.deleted) return false;
+            applyDetails(task, newTitle, newDescription);
+            durable = journal == null ? null
+                : journal.logDetails(taskId, task.title, task.description);
+            publishChange(change_stream.ChangeType.UPDATE, taskId, updatedBy, task.title);
+        }
+        awaitDurable(durable);
+        logAudit(taskId, "UPDATE_DETAILS", updatedBy, "Task details updated: " + task.title);
+        return true;
+    }
+    
+    /**
+     * Applies new text to a task and reindexes it, caller holds the task monitor
+     */
+    private void applyDetails(TaskItem task, String newTitle, String newDescription) {
+        if (newTitle != null) task.title = newTitle;
+        if (newDescription != null) task.description = newDescription;
+        textIndex.index(task.taskId, task.title, task.description);
+    }
+    
     /**
      * Adds a tag to a task
      */
     public boolean addTaskTag(String taskId, String tag) {
-        TaskItem task = taskDatabase.get(taskId);
-        if (task != null && !task.tags.contains(tag)) {
-            task.tags.add(tag);
-            logAudit(taskId, "ADD_TAG", "SYSTEM", "Added tag: " + tag);
-            return true;
+        changes.awaitCapacity();
+        TaskItem task = findTask(taskId);
+        if (task == null) return false;
+        
+        CompletableFuture<Long> durable;
+        synchronized (task) {
+            if (task.deleted || !task.tags.add(tag)) return false;
+            tagIndex.addTag(task.taskId, tag);
+            durable = journal == null ? null : journal.logTag(taskId, tag);
+            publishChange(change_stream.ChangeType.TAG, taskId, "SYSTEM", tag);
         }
-        return false;
+        awaitDurable(durable);
+        logAudit(taskId, "ADD_TAG", "SYSTEM", "Added tag: " + tag);
+        return true;
+    }
+    
+    /**
+     * Deletes a task and removes it from every index
+     */
+    public boolean deleteTask(String taskId, String deletedBy) {
+        changes.awaitCapacity();
+        TaskItem task = findTask(taskId);
+        if (task == null) return false;
+        
+        CompletableFuture<Long> durable;
+        synchronized (task) {
+            if (task.deleted) return false;
+            removeFromIndexes(task);
+            durable = journal == null ? null : journal.logDelete(taskId);
+            publishChange(change_stream.ChangeType.DELETE, taskId, deletedBy, null);
+        }
+        awaitDurable(durable);
+        logAudit(taskId, "DELETE", deletedBy, "Task deleted: " + task.title);
+        return true;
+    }
+    
+    /**
+     * Marks a task deleted and unlinks it everywhere, caller holds the task monitor
+     */
+    private void removeFromIndexes(TaskItem task) {
+        task.deleted = true;
+        taskDatabase.remove(task.taskId, task);
+        deadlineIndex.remove(task.taskId);
+        priorityIndex.remove(task.taskId);
+        tagIndex.removeTask(task.taskId, task.tags);
+        textIndex.remove(task.taskId);
+        String taskId = formatTaskId(task.taskId);
+        categoryTasks.computeIfPresent(task.category, (key, tasks) -> {
+            tasks.remove(taskId);
+            return tasks.isEmpty() ? null : tasks;
+        });
+        if (task.assignedTo != null) {
+            assigneeTasks.computeIfPresent(task.assignedTo, (key, tasks) -> {
+                tasks.remove(task.taskId);
+                return tasks.isEmpty() ? null : tasks;
+            });
+        }
+    }
+    
+    /**
+     * Files a task under its assignee, caller holds the task monitor
+     */
+    private void addToAssignee(TaskItem task) {
+        if (task.assignedTo == null) return;
+        assigneeTasks.compute(task.assignedTo, (key, tasks) -> {
+            if (tasks == null) tasks = ConcurrentHashMap.newKeySet();
+            tasks.add(task.taskId);
+            return tasks;
+        });
+    }
+    
+    /**
+     * Gets tasks matching a tag expression such as "urgent AND exam NOT done"
+     * Terms are evaluated left to right and joined with AND, OR or NOT
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public ArrayList<String> queryTasksByTags(String expression) {
+        return formatTaskIds(tagIndex.query(expression));
+    }
+    
+    /**
+     * Gets tasks carrying all tags in allOf, at least one tag in anyOf (if any
+     * are given) and none of the tags in noneOf
+     */
+    public ArrayList<String> findTasksByTags(Collection<String> allOf, Collection<String> anyOf,
+                                             Collection<String> noneOf) {
+        return formatTaskIds(tagIndex.find(allOf, anyOf, noneOf));
+    }
+    
+    /**
+     * Gets tasks carrying every one of the given tags
+     */
+    public ArrayList<String> findTasksByTags(String... tags) {
+        return formatTaskIds(tagIndex.find(Arrays.asList(tags), null, null));
+    }
+    
+    /**
+     * Searches task titles and descriptions, best match first
+     * The last word also matches as a prefix, so partial input works for type-ahead
+     * @param limit maximum number of task IDs to return
+     */
+    public ArrayList<String> searchTasks(String query, int limit) {
+        return formatTaskIds(textIndex.search(query, limit));
+    }
+    
+    /**
+     * Gets the stream every task mutation is published to
+     */
+    public change_stream getChangeStream() {
+        return changes;
+    }
+    
+    /**
+     * Publishes a task mutation, caller holds the task monitor
+     */
+    private void publishChange(change_stream.ChangeType type, String taskId, String actor,
+                               String detail) {
+        changes.publish(change_stream.Source.TASK, type, taskId, actor, detail);
     }
     
     /**
      * Logs audit trail entries
      */
     private void logAudit(String taskId, String action, String performedBy, String details) {
-        auditTrail.add(new TaskAudit(taskId, action, performedBy, details));
+        auditLog.append(taskId, action, performedBy, details);
     }
     
     /**
      * Gets task details
      */
     public String getTaskDetails(String taskId) {
-        TaskItem task = taskDatabase.get(taskId);
+        TaskItem task = findTask(taskId);
         if (task == null) return "Task not found";
         
         StringBuilder details = new StringBuilder();
-        details.append("Task Details:\n");
-        details.append("ID: ").append(task.taskId).append("\n");
-        details.append("Title: ").append(task.title).append("\n");
-        details.append("Description: ").append(task.description).append("\n");
-        details.append("Priority: ").append(task.priority).append("\n");
-        details.append("Status: ").append(task.status).append("\n");
-        details.append("Created: ").append(task.creationDate).append("\n");
-        details.append("Due: ").append(task.dueDate).append("\n");
-        details.append("Assigned To: ").append(task.assignedTo).append("\n");
-        details.append("Progress: ").append(task.completionPercentage).append("%\n");
-        details.append("Tags: ").append(String.join(", ", task.tags));
+        synchronized (task) {
+            details.append("Task Details:\n");
+            details.append("ID: ").append(formatTaskId(task.taskId)).append("\n");
+            details.append("Title: ").append(task.title).append("\n");
+            details.append("Description: ").append(task.description).append("\n");
+            details.append("Priority: ").append(task.priority).append("\n");
+            details.append("Status: ").append(task.status).append("\n");
+            details.append("Created: ").append(task.creationDate).append("\n");
+            details.append("Due: ").append(task.dueDate).append("\n");
+            details.append("Assigned To: ").append(task.assignedTo).append("\n");
+            details.append("Progress: ").append(task.completionPercentage).append("%\n");
+            details.append("Tags: ").append(String.join(", ", task.tags));
+        }
         
         return details.toString();
     }
     
+    /**
+     * Takes a consistent copy of a task, null if there is no such task
+     */
+    TaskSummary summarizeTask(String taskId) {
+        TaskItem task = findTask(taskId);
+        if (task == null) return null;
+        synchronized (task) {
+            return task.deleted ? null : new TaskSummary(task);
+        }
+    }
+    
+    /**
+     * Gets every task assigned to a user, newest first, e.g. for the task list page
+     */
+    public ArrayList<TaskSummary> getTasksAssignedTo(String assignedTo) {
+        ArrayList<TaskSummary> tasks = new ArrayList<>();
+        Set<Long> ids = assignedTo == null ? null : assigneeTasks.get(assignedTo);
+        if (ids == null) return tasks;
+        for (long id : ids) {
+            TaskItem task = taskDatabase.get(id);
+            if (task == null) continue;
+            synchronized (task) {
+                if (!task.deleted) tasks.add(new TaskSummary(task));
+            }
+        }
+        tasks.sort((a, b) -> b.creationDate.compareTo(a.creationDate));
+        return tasks;
+    }
+    
     /**
      * Gets tasks by category
      */
     public ArrayList<String> getTasksByCategory(String category) {
-        return categoryTasks.getOrDefault(category, new ArrayList<>());
+        CopyOnWriteArrayList<String> tasks = categoryTasks.get(category);
+        return tasks == null ? new ArrayList<>() : new ArrayList<>(tasks);
     }
     
     /**
      * Gets audit trail for a specific task
      */
     public ArrayList<String> getTaskAuditTrail(String taskId) {
-        ArrayList<String> taskAudits = new ArrayList<>();
-        for (TaskAudit audit : auditTrail) {
-            if (audit.taskId.equals(taskId)) {
-                taskAudits.add(audit.toString());
+        return auditLog.history(taskId);
+    }
+    
+    /**
+     * Gets one page of a task's audit trail, oldest first
+     * @param cursor 0 for the first page, otherwise the cursor returned by the previous page
+     * @param limit maximum number of entries to return
+     */
+    public task_audit_log.AuditPage getTaskAuditTrailPage(String taskId, long cursor, int limit) {
+        return auditLog.page(taskId, cursor, limit);
+    }
+    
+    /**
+     * Gets open tasks due within [from, to), earliest first
+     */
+    public ArrayList<String> getTasksDueBetween(LocalDateTime from, LocalDateTime to) {
+        return formatTaskIds(deadlineIndex.dueBetween(from, to));
+    }
+    
+    /**
+     * Gets open tasks due before the given instant, earliest first
+     */
+    public ArrayList<String> getTasksDueBefore(LocalDateTime instant) {
+        return formatTaskIds(deadlineIndex.dueBefore(instant));
+    }
+    
+    /**
+     * Gets open tasks whose due date has already passed
+     */
+    public ArrayList<String> getOverdueTasks() {
+        return formatTaskIds(deadlineIndex.dueBefore(LocalDateTime.now()));
+    }
+    
+    /**
+     * Gets the next open tasks coming due from now
+     * @param limit maximum number of task IDs to return
+     */
+    public ArrayList<String> getNextDueTasks(int limit) {
+        return formatTaskIds(deadlineIndex.nextDue(LocalDateTime.now(), limit));
+    }
+    
+    /**
+     * Gets an assignee's most important open tasks, highest priority first and
+     * earliest due date first within the same priority
+     * @param limit maximum number of task IDs to return
+     */
+    public ArrayList<String> getTopPriorityTasks(String assignedTo, int limit) {
+        return formatTaskIds(priorityIndex.top(assignedTo, limit));
+    }
+    
+    /**
+     * Writes a snapshot of the store and truncates the journal it covers
+     * @throws IllegalStateException if the store was created without a data directory
+     */
+    public void checkpoint() {
+        if (journal == null) {
+            throw new IllegalStateException("Task store is not persistent");
+        }
+        journal.checkpoint();
+    }
+    
+    /**
+     * Flushes pending journal records and stops the journal writer
+     */
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+    
+    /**
+     * Formats an internal task ID into its public "TSK_..." form
+     */
+    private static String formatTaskId(long taskId) {
+        return TASK_ID_PREFIX + Long.toString(taskId, 36);
+    }
+    
+    /**
+     * Parses a public task ID, returning 0 for anything that is not one
+     */
+    private static long parseTaskId(String taskId) {
+        if (taskId == null || !taskId.startsWith(TASK_ID_PREFIX)) return 0;
+        try {
+            return Long.parseLong(taskId.substring(TASK_ID_PREFIX.length()), 36);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static ArrayList<String> formatTaskIds(long[] taskIds) {
+        ArrayList<String> formatted = new ArrayList<>(taskIds.length);
+        for (long taskId : taskIds) {
+            formatted.add(formatTaskId(taskId));
+        }
+        return formatted;
+    }
+    
+    /**
+     * Looks up a task by its public ID
+     */
+    private TaskItem findTask(String taskId) {
+        long id = parseTaskId(taskId);
+        return id > 0 ? taskDatabase.get(id) : null;
+    }
+    
+    /**
+     * Blocks until a journal record is on disk, so a mutation is only
+     * acknowledged once it would survive a crash
+     */
+    private void awaitDurable(CompletableFuture<Long> durable) {
+        if (durable != null) {
+            durable.join();
+        }
+    }
+    
+    /**
+     * Snapshot and replay bridge for the journal
+     */
+    private class JournalHandler implements task_journal.StateHandler {
+        @Override
+        public long highestIssuedId() {
+            return highestIssuedId.get();
+        }
+        
+        @Override
+        public void restoreHighestIssuedId(long id) {
+            highestIssuedId.accumulateAndGet(id, Math::max);
+        }
+        
+        @Override
+        public void writeSnapshot(DataOutputStream out) throws IOException {
+            for (TaskItem task : taskDatabase.values()) {
+                synchronized (task) {
+                    // Deleted after the scan picked it up; its delete record is after the rotation
+                    if (task.deleted) continue;
+                    out.writeBoolean(true);
+                    task_journal.writeString(out, formatTaskId(task.taskId));
+                    task_journal.writeString(out, task.title);
+                    task_journal.writeString(out, task.description);
+                    task_journal.writeString(out, task.priority.name());
+                    task_journal.writeString(out, task.status.name());
+                    task_journal.writeDateTime(out, task.creationDate);
+                    task_journal.writeDateTime(out, task.dueDate);
+                    task_journal.writeString(out, task.assignedTo);
+                    task_journal.writeString(out, task.category);
+                    out.writeInt(task.completionPercentage);
+                    out.writeInt(task.tags.size());
+                    for (String tag : task.tags) {
+                        task_journal.writeString(out, tag);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+        
+        @Override
+        public void readSnapshot(DataInputStream in) throws IOException {
+            while (in.readBoolean()) {
+                TaskItem task = new TaskItem(parseTaskId(task_journal.readString(in)),
+                                             task_journal.readString(in),
+                                             task_journal.readString(in),
+                                             TaskPriority.valueOf(task_journal.readString(in)),
+                                             null, null, null, null);
+                task.status = TaskStatus.valueOf(task_journal.readString(in));
+                task.creationDate = task_journal.readDateTime(in);
+                task.dueDate = task_journal.readDateTime(in);
+                task.assignedTo = task_journal.readString(in);
+                task.category = task_journal.readString(in);
+                task.completionPercentage = in.readInt();
+                int tagCount = in.readInt();
+                for (int i = 0; i < tagCount; i++) {
+                    task.tags.add(task_journal.readString(in));
+                }
+                restoreTask(task);
+            }
+        }
+        
+        @Override
+        public void replayCreate(String taskId, String title, String description, String priority,
+                                 LocalDateTime creationDate, LocalDateTime dueDate,
+                                 String assignedTo, String category) {
+            long id = parseTaskId(taskId);
+            restoreHighestIssuedId(id);
+            if (id <= 0 || taskDatabase.containsKey(id)) return;
+            restoreTask(new TaskItem(id, title, description, TaskPriority.valueOf(priority),
+                                     creationDate, dueDate, assignedTo, category));
+        }
+        
+        @Override
+        public void replayProgress(String taskId, int progress) {
+            TaskItem task = findTask(taskId);
+            if (task != null) {
+                synchronized (task) {
+                    applyProgress(task, progress);
+                }
+            }
+        }
+        
+        @Override
+        public void replayDetails(String taskId, String title, String description) {
+            TaskItem task = findTask(taskId);
+            if (task != null) {
+                synchronized (task) {
+                    applyDetails(task, title, description);
+                }
+            }
+        }
+        
+        @Override
+        public void replayTag(String taskId, String tag) {
+            TaskItem task = findTask(taskId);
+            if (task != null) {
+                synchronized (task) {
+                    if (task.tags.add(tag)) {
+                        tagIndex.addTag(task.taskId, tag);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void replayDelete(String taskId) {
+            restoreHighestIssuedId(parseTaskId(taskId));
+            TaskItem task = findTask(taskId);
+            if (task != null) {
+                synchronized (task) {
+                    removeFromIndexes(task);
+                }
+            }
+        }
+        
+        /**
+         * Re-inserts a recovered task, bypassing the category limit it already passed once
+         */
+        private void restoreTask(TaskItem task) {
+            categoryTasks.computeIfAbsent(task.category, k -> new CopyOnWriteArrayList<>())
+                         .addIfAbsent(formatTaskId(task.taskId));
+            if (isOpen(task.status)) {
+                deadlineIndex.put(task.taskId, task.dueDate);
+                priorityIndex.put(task.taskId, task.assignedTo, task.priority.weight, task.dueDate);
+            }
+            tagIndex.addTask(task.taskId);
+            for (String tag : task.tags) {
+                tagIndex.addTag(task.taskId, tag);
             }
+            textIndex.index(task.taskId, task.title, task.description);
+            addToAssignee(task);
+            taskDatabase.put(task.taskId, task);
+            restoreHighestIssuedId(task.taskId);
         }
-        return taskAudits;
     }
 }
@@ -0,0 +1,146 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AllTaskStress measures how all_task writes scale with request threads
+ * For each thread count from 1 up to the maximum, doubling, a fresh store
+ * gets SHARED_TASKS tasks every thread competes for. Each thread then
+ * cycles through createTask in its own categories, updateTaskProgress on its
+ * own and on shared tasks, and addTaskTag on shared tasks, for the given
+ * seconds; every one of these also appends to the audit log. It prints the
+ * operations per second per thread count and the speedup over one thread.
+ * A first run of one thread warms up the JIT and is not printed. After
+ * every run the audit log must hold exactly one entry per successful
+ * operation, and every category exactly the tasks created in it.
+ * Run with: java java.all_task_stress [maxThreads] [seconds]
+ */
+final class all_task_stress {
+    private static final int SHARED_TASKS = 64;
+    private static final int CATEGORY_SIZE = 50;
+
+    private all_task_stress() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, cores * 2);
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        System.out.println(cores + " cores, " + seconds + "s per thread count");
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        run(1, seconds);
+        double single = 0;
+        for (int threads : counts) {
+            double perSecond = run(threads, seconds);
+            if (threads == 1) single = perSecond;
+            System.out.printf("%3d threads: %,10.0f ops/s, %,9.0f ops/s per thread, speedup %.2f%n",
+                              threads, perSecond, perSecond / threads, perSecond / single);
+        }
+    }
+
+    /**
+     * @return double successful operations per second over all threads
+     */
+    private static double run(int threads, double seconds) throws Exception {
+        all_task tasks = new all_task();
+        LocalDateTime due = LocalDateTime.now().plusDays(30);
+        String[] shared = new String[SHARED_TASKS];
+        for (int i = 0; i < SHARED_TASKS; i++) {
+            shared[i] = tasks.createTask("Shared " + i, "Task every thread updates", "MEDIUM", due, "stress",
+                                         "shared" + i / CATEGORY_SIZE);
+        }
+        LongAdder operations = new LongAdder();
+        List<List<String>> created = new ArrayList<>();
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            List<String> own = new ArrayList<>();
+            created.add(own);
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                long done = 0;
+                for (int i = 0; System.nanoTime() < deadline[0]; i++) {
+                    boolean ok;
+                    switch (i & 3) {
+                        case 0:
+                            String category = "t" + thread + "_" + own.size() / CATEGORY_SIZE;
+                            String taskId = tasks.createTask("Task " + i, "Stress task of thread " + thread, "HIGH",
+                                                             due, "stress", category);
+                            ok = taskId != null;
+                            if (ok) own.add(taskId);
+                            break;
+                        case 1:
+                            ok = tasks.updateTaskProgress(own.get(random.nextInt(own.size())), random.nextInt(100),
+                                                          "stress");
+                            break;
+                        case 2:
+                            ok = tasks.addTaskTag(shared[random.nextInt(SHARED_TASKS)], "t" + thread + "_" + i);
+                            break;
+                        default:
+                            ok = tasks.updateTaskProgress(shared[random.nextInt(SHARED_TASKS)], random.nextInt(100),
+                                                          "stress");
+                    }
+                    if (!ok) throw new IllegalStateException("Operation " + (i & 3) + " failed on thread " + thread);
+                    done++;
+                }
+                operations.add(done);
+            }, "all-task-stress-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        deadline[0] = System.nanoTime() + (long) (seconds * 1e9);
+        start.await();
+        long started = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        check(tasks, shared, created, operations.sum());
+        return operations.sum() / elapsed;
+    }
+
+    /**
+     * Fails unless every successful operation left exactly one audit entry
+     * and every category holds exactly the tasks created in it
+     */
+    private static void check(all_task tasks, String[] shared, List<List<String>> created, long operations) {
+        long entries = 0;
+        for (String taskId : shared) {
+            entries += tasks.getTaskAuditTrail(taskId).size();
+        }
+        for (int thread = 0; thread < created.size(); thread++) {
+            List<String> own = created.get(thread);
+            for (String taskId : own) {
+                entries += tasks.getTaskAuditTrail(taskId).size();
+            }
+            for (int category = 0; category * CATEGORY_SIZE < own.size(); category++) {
+                int expected = Math.min(CATEGORY_SIZE, own.size() - category * CATEGORY_SIZE);
+                int found = tasks.getTasksByCategory("t" + thread + "_" + category).size();
+                if (found != expected) {
+                    throw new IllegalStateException("Category t" + thread + "_" + category + " holds " + found
+                                                    + " tasks, expected " + expected);
+                }
+            }
+        }
+        if (entries != operations + shared.length) {
+            throw new IllegalStateException("Expected " + (operations + shared.length) + " audit entries, found "
+                                            + entries);
+        }
+    }
+}
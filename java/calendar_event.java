@@ -1,26 +1,66 @@
 package java;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.UUID;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * CalendarEvent class manages scheduling and event details
  * This class handles calendar events independently without affecting other system components
+ * Events are keyed internally by a 64-bit ID from a pluggable id_generator; the
+ * "EVT_..." string form only exists at the public API
+ * Every mutation is also published to a change_stream, which may be shared
+ * with all_task so consumers see one ordered feed; mutators first wait in
+ * its awaitCapacity, before taking any lock, while a durable subscriber lags
+ * Conflicts are checked per participant: an event only blocks the calendars
+ * of its organizer and attendees, and MAX_EVENTS_PER_DAY applies to each user
+ * Recurring events are stored once with their event_recurrence rule and are
+ * checked and queried by expanding only the occurrences in the window at hand
+ * The class is safe for concurrent use. A booking checks and claims its slot
+ * while holding the event_day_locks stripes of the days it touches, so two
+ * bookings racing for the same slot are serialized: exactly one succeeds and
+ * the other fails as an ordinary conflict. Changes to an existing event also
+ * hold that event's lock, which is always taken before any stripe.
  */
 public class calendar_event {
-    private HashMap<String, EventDetails> events;
-    private ArrayList<EventLog> eventHistory;
+    private long_hash_map<EventDetails> events;
+    private id_generator idGenerator;
+    private change_stream changes;
+    private ConcurrentHashMap<String, event_day_index> userCalendars;
+    private ConcurrentHashMap<String, CopyOnWriteArrayList<EventDetails>> userSeries;
+    private event_history eventHistory;
+    private event_day_locks dayLocks;
     private static final int MAX_EVENTS_PER_DAY = 10;
-    private boolean isCalendarLocked;
+    private static final String EVENT_ID_PREFIX = "EVT_";
+    private static final int RECURRENCE_CHECK_DAYS = 366;
+    private static final int IMPORT_BATCH_SIZE = 512;
+    private static final int HISTORY_CAPACITY = 1 << 16;
+    private static final int HISTORY_RETENTION_DAYS = 90;
+    private static final DateTimeFormatter VIEW_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+    private volatile boolean frozen;
     
     /**
      * Inner class to store event details
      */
     private static class EventDetails {
-        private String eventId;
+        private long eventId;
         private String eventName;
         private String description;
         private LocalDateTime startTime;
@@ -30,10 +70,16 @@ public class calendar_event {
         private ArrayList<String> attendees;
         private String location;
         private String organizer;
+        private event_recurrence recurrence;
+        /**
+         * Guards the fields above; a lock rather than the object's monitor, so a
+         * virtual thread waiting for the day locks while holding it is not pinned
+         */
+        private final ReentrantLock lock = new ReentrantLock();
         
-        public EventDetails(String eventName, String description, LocalDateTime startTime, 
+        public EventDetails(long eventId, String eventName, String description, LocalDateTime startTime, 
                           LocalDateTime endTime, EventPriority priority, String organizer) {
-            this.eventId = generateEventId();
+            this.eventId = eventId;
             this.eventName = eventName;
             this.description = description;
             this.startTime = startTime;
@@ -44,33 +90,134 @@ public class calendar_event {
             this.location = "TBD";
             this.organizer = organizer;
         }
+    }
+    
+    /**
+     * A [start, end) interval of a user's time, returned by free/busy queries
+     */
+    public static class TimeSlot {
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        
+        private TimeSlot(long startMillis, long endMillis) {
+            this.start = event_day_index.fromMillis(startMillis);
+            this.end = event_day_index.fromMillis(endMillis);
+        }
+        
+        public LocalDateTime getStart() {
+            return start;
+        }
         
-        private String generateEventId() {
-            return "EVT_" + UUID.randomUUID().toString().substring(0, 8);
+        public LocalDateTime getEnd() {
+            return end;
+        }
+        
+        @Override
+        public String toString() {
+            return start.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "/"
+                 + end.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         }
     }
     
     /**
-     * Inner class for event logging
+     * One event, or one occurrence of a recurring event, as shown in a calendar view
      */
-    private static class EventLog {
-        private LocalDateTime timestamp;
-        private String eventId;
-        private String action;
-        private String details;
+    public static class CalendarEntry {
+        private final String eventId;
+        private final String name;
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final EventPriority priority;
+        private final String location;
+        private final String organizer;
+        private final boolean recurring;
         
-        public EventLog(String eventId, String action, String details) {
-            this.timestamp = LocalDateTime.now();
-            this.eventId = eventId;
-            this.action = action;
-            this.details = details;
+        private CalendarEntry(EventDetails event, long startMillis, long endMillis) {
+            this.eventId = formatEventId(event.eventId);
+            this.name = event.eventName;
+            this.start = event_day_index.fromMillis(startMillis);
+            this.end = event_day_index.fromMillis(endMillis);
+            this.priority = event.priority;
+            this.location = event.location;
+            this.organizer = event.organizer;
+            this.recurring = event.recurrence != null;
+        }
+        
+        public String getEventId() {
+            return eventId;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return LocalDateTime start of this occurrence
+         */
+        public LocalDateTime getStart() {
+            return start;
+        }
+        
+        public LocalDateTime getEnd() {
+            return end;
+        }
+        
+        public EventPriority getPriority() {
+            return priority;
+        }
+        
+        public String getLocation() {
+            return location;
+        }
+        
+        public String getOrganizer() {
+            return organizer;
+        }
+        
+        public boolean isRecurring() {
+            return recurring;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s %s %s/%s", eventId, name,
+                start.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                end.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        }
+    }
+    
+    /**
+     * Outcome of an iCalendar import
+     */
+    public static class ImportResult {
+        private int imported;
+        private int conflicts;
+        private int skipped;
+        
+        /**
+         * @return int number of events added to the calendar
+         */
+        public int getImported() {
+            return imported;
+        }
+        
+        /**
+         * @return int number of events rejected because their time slot was taken
+         */
+        public int getConflicts() {
+            return conflicts;
+        }
+        
+        /**
+         * @return int number of events that were malformed, cancelled or not representable
+         */
+        public int getSkipped() {
+            return skipped;
         }
         
         @Override
         public String toString() {
-            return String.format("[%s] Event: %s - Action: %s - Details: %s",
-                timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
-                eventId, action, details);
+            return "Imported " + imported + " events, " + conflicts + " conflicts, " + skipped + " skipped";
         }
     }
     
@@ -99,9 +246,30 @@ public class calendar_event {
      * Constructor initializes calendar event management
      */
     public calendar_event() {
-        this.events = new HashMap<>();
-        this.eventHistory = new ArrayList<>();
-        this.isCalendarLocked = false;
+        this(new id_generator.Monotonic());
+    }
+    
+    /**
+     * Constructor initializes calendar event management with a specific ID scheme
+     * @param idGenerator source of event IDs, e.g. id_generator.Snowflake when several nodes create events
+     */
+    public calendar_event(id_generator idGenerator) {
+        this(idGenerator, new change_stream());
+    }
+    
+    /**
+     * Constructor initializes calendar event management publishing to a given change stream
+     * @param changes stream receiving every event mutation, e.g. one shared with all_task
+     */
+    public calendar_event(id_generator idGenerator, change_stream changes) {
+        this.idGenerator = idGenerator;
+        this.changes = changes;
+        this.events = new long_hash_map<>();
+        this.userCalendars = new ConcurrentHashMap<>();
+        this.userSeries = new ConcurrentHashMap<>();
+        this.eventHistory = new event_history(HISTORY_CAPACITY, HISTORY_RETENTION_DAYS, TimeUnit.DAYS);
+        this.dayLocks = new event_day_locks();
+        this.frozen = false;
     }
     
     /**
@@ -110,35 +278,282 @@ public class calendar_event {
      */
     public String createEvent(String eventName, String description, LocalDateTime startTime,
                             LocalDateTime endTime, EventPriority priority, String organizer) {
-        if (isCalendarLocked) {
-            logEventActivity("SYSTEM", "CREATE_FAILED", "Calendar is locked");
-            return null;
+        return createEvent(eventName, description, startTime, endTime, priority, organizer, null, null);
+    }
+    
+    /**
+     * Creates a new event at a location, published as a single change
+     * @return String event ID if successful, null if failed
+     */
+    public String createEvent(String eventName, String description, LocalDateTime startTime,
+                              LocalDateTime endTime, EventPriority priority, String organizer,
+                              String location) {
+        return createEvent(eventName, description, startTime, endTime, priority, organizer, null, location);
+    }
+    
+    /**
+     * Creates an event that repeats, e.g. a weekly lecture
+     * startTime and endTime describe the first occurrence
+     * @return String event ID if successful, null if failed
+     */
+    public String createRecurringEvent(String eventName, String description, LocalDateTime startTime,
+                                       LocalDateTime endTime, EventPriority priority, String organizer,
+                                       event_recurrence recurrence) {
+        if (recurrence == null) {
+            throw new IllegalArgumentException("Recurrence rule is required");
         }
-        
-        if (!isTimeSlotAvailable(startTime, endTime)) {
-            logEventActivity("SYSTEM", "CREATE_FAILED", "Time slot unavailable");
-            return null;
+        return createEvent(eventName, description, startTime, endTime, priority, organizer, recurrence, null);
+    }
+    
+    private String createEvent(String eventName, String description, LocalDateTime startTime,
+                               LocalDateTime endTime, EventPriority priority, String organizer,
+                               event_recurrence recurrence, String location) {
+        changes.awaitCapacity();
+        EventDetails newEvent;
+        event_day_locks.Held held = lockSlots(Collections.singletonList(normalizeUser(organizer)),
+                                              recurrence, true, startTime, endTime);
+        try {
+            if (frozen) {
+                logEventActivity("SYSTEM", "CREATE_FAILED", "Calendar is frozen");
+                return null;
+            }
+            
+            if (!isAvailable(organizer, startTime, endTime, recurrence, null)) {
+                logEventActivity("SYSTEM", "CREATE_FAILED", "Time slot unavailable");
+                return null;
+            }
+            
+            newEvent = insertEvent(eventName, description, startTime, endTime, priority,
+                                   organizer, recurrence, location);
+        } finally {
+            held.unlock();
         }
-        
-        EventDetails newEvent = new EventDetails(eventName, description, startTime, 
+        String eventId = formatEventId(newEvent.eventId);
+        logEventActivity(eventId, "CREATE", "Event created: " + eventName);
+        return eventId;
+    }
+    
+    /**
+     * Stores an event that already passed the conflict check and publishes it
+     */
+    private EventDetails insertEvent(String eventName, String description, LocalDateTime startTime,
+                                     LocalDateTime endTime, EventPriority priority, String organizer,
+                                     event_recurrence recurrence, String location) {
+        EventDetails newEvent = new EventDetails(idGenerator.nextId(), eventName, description, startTime, 
                                                endTime, priority, organizer);
+        newEvent.recurrence = recurrence;
+        if (location != null) {
+            newEvent.location = location;
+        }
         events.put(newEvent.eventId, newEvent);
-        logEventActivity(newEvent.eventId, "CREATE", "Event created: " + eventName);
-        return newEvent.eventId;
+        place(newEvent, organizer);
+        publishChange(change_stream.ChangeType.CREATE, formatEventId(newEvent.eventId), organizer, eventName);
+        return newEvent;
     }
     
     /**
-     * Checks if time slot is available
+     * Imports the events of an iCalendar feed, e.g. a university timetable
+     * The feed is parsed as a stream and inserted in batches: each batch is
+     * checked against the organizer's calendar with one busy-interval query
+     * and a single sweep, and events that clash are counted, not imported.
+     * @param organizer user whose calendar receives the events
+     * A freeze during the import stops it before the next batch.
+     * @return ImportResult counts of imported and rejected events, null if the calendar is frozen
+     * @throws UncheckedIOException if the channel cannot be read
      */
-    private boolean isTimeSlotAvailable(LocalDateTime startTime, LocalDateTime endTime) {
-        int eventsInDay = 0;
-        for (EventDetails event : events.values()) {
-            if (event.startTime.toLocalDate().equals(startTime.toLocalDate())) {
-                eventsInDay++;
-                if (eventsInDay >= MAX_EVENTS_PER_DAY) return false;
-                
-                // Check for time overlap
-                if ((startTime.isBefore(event.endTime) && endTime.isAfter(event.startTime))) {
+    public ImportResult importICalendar(ReadableByteChannel in, String organizer) {
+        if (frozen) {
+            logEventActivity("SYSTEM", "IMPORT_FAILED", "Calendar is frozen");
+            return null;
+        }
+        ImportResult result = new ImportResult();
+        event_ical.Reader reader = new event_ical.Reader(in);
+        ArrayList<event_ical.ParsedEvent> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        try {
+            event_ical.ParsedEvent parsed;
+            boolean open = true;
+            while (open && (parsed = reader.next()) != null) {
+                batch.add(parsed);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    open = importBatch(batch, organizer, result);
+                    batch.clear();
+                }
+            }
+            if (open) open = importBatch(batch, organizer, result);
+            if (!open) logEventActivity("SYSTEM", "IMPORT_FAILED", "Calendar frozen during import");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read iCalendar data", e);
+        }
+        result.skipped += reader.getSkipped();
+        logEventActivity("SYSTEM", "IMPORT", result + " for " + organizer);
+        return result;
+    }
+    
+    /**
+     * Validates and inserts one batch of imported events
+     * Recurring events go first, as they usually carry the timetable. Single
+     * events are then sorted by start and swept against the organizer's merged
+     * busy intervals for the batch's time span, so conflicts with the calendar
+     * and within the batch are found in one pass
+     * @return boolean false if the calendar is frozen and the batch was not imported
+     */
+    private boolean importBatch(ArrayList<event_ical.ParsedEvent> batch, String organizer,
+                                ImportResult result) {
+        changes.awaitCapacity();
+        List<String> users = Collections.singletonList(normalizeUser(organizer));
+        ArrayList<event_ical.ParsedEvent> singles = new ArrayList<>(batch.size());
+        ArrayList<event_ical.ParsedEvent> recurring = new ArrayList<>();
+        for (event_ical.ParsedEvent parsed : batch) {
+            (parsed.recurrence == null ? singles : recurring).add(parsed);
+        }
+        for (event_ical.ParsedEvent parsed : recurring) {
+            event_day_locks.Held held = dayLocks.lockAll(true);
+            try {
+                if (frozen) return false;
+                if (isAvailable(organizer, parsed.start, parsed.end, parsed.recurrence, null)) {
+                    insertImported(parsed, organizer);
+                    result.imported++;
+                } else {
+                    result.conflicts++;
+                }
+            } finally {
+                held.unlock();
+            }
+        }
+        if (singles.isEmpty()) return true;
+        singles.sort((a, b) -> a.start.compareTo(b.start));
+        LocalDateTime from = singles.get(0).start;
+        LocalDateTime to = from.plusNanos(1);
+        for (event_ical.ParsedEvent parsed : singles) {
+            if (parsed.end.isAfter(to)) to = parsed.end;
+        }
+        event_day_locks.Held held = dayLocks.lockDays(users, true, from, to);
+        try {
+            if (frozen) return false;
+            event_day_index.IntervalBuffer busy = busyIntervals(organizer, from, to);
+            HashMap<LocalDate, Integer> perDay = new HashMap<>();
+            int next = 0;
+            long acceptedEnd = Long.MIN_VALUE;
+            for (event_ical.ParsedEvent parsed : singles) {
+                long start = event_day_index.toMillis(parsed.start);
+                long end = event_day_index.toMillis(parsed.end);
+                while (next < busy.size() && busy.end(next) <= start) next++;
+                LocalDate day = parsed.start.toLocalDate();
+                int eventsInDay = perDay.computeIfAbsent(day, d -> eventsStartingOn(organizer, d, 0));
+                boolean clash = (next < busy.size() && busy.start(next) < end)
+                             || start < acceptedEnd || eventsInDay >= MAX_EVENTS_PER_DAY;
+                if (clash) {
+                    result.conflicts++;
+                    continue;
+                }
+                perDay.put(day, eventsInDay + 1);
+                if (end > start) acceptedEnd = Math.max(acceptedEnd, end);
+                insertImported(parsed, organizer);
+                result.imported++;
+            }
+        } finally {
+            held.unlock();
+        }
+        return true;
+    }
+    
+    private void insertImported(event_ical.ParsedEvent parsed, String organizer) {
+        insertEvent(parsed.summary, parsed.description, parsed.start, parsed.end,
+                    parsed.priority, organizer, parsed.recurrence, parsed.location);
+    }
+    
+    /**
+     * Writes a user's scheduled events as an iCalendar feed, or every
+     * scheduled event when userId is null
+     * @return int number of events written
+     * @throws UncheckedIOException if the channel cannot be written
+     */
+    public int exportICalendar(String userId, WritableByteChannel out) {
+        ArrayList<EventDetails> selected = new ArrayList<>();
+        if (userId == null) {
+            events.forEachValue(event -> {
+                if (isIndexed(event)) selected.add(event);
+            });
+        } else {
+            event_day_locks.Held held = dayLocks.lockAll(false);
+            try {
+                event_day_index calendar = userCalendars.get(userId);
+                if (calendar != null) {
+                    for (long id : calendar.eventIds()) {
+                        EventDetails event = events.get(id);
+                        if (event != null) selected.add(event);
+                    }
+                }
+                CopyOnWriteArrayList<EventDetails> series = userSeries.get(userId);
+                if (series != null) selected.addAll(series);
+            } finally {
+                held.unlock();
+            }
+        }
+        event_ical.Writer writer = new event_ical.Writer(out);
+        try {
+            writer.begin();
+            for (EventDetails event : selected) {
+                writer.writeEvent(formatEventId(event.eventId) + "@taskmatrix", event.eventName,
+                                  event.description, event.location, event.startTime, event.endTime,
+                                  event.priority, event.recurrence);
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write iCalendar data", e);
+        }
+        return selected.size();
+    }
+    
+    /**
+     * Checks if a single or recurring event fits in one user's calendar
+     * A rule is checked occurrence by occurrence over the RECURRENCE_CHECK_DAYS
+     * days from now, or from its start if that is later, so open-ended series
+     * are validated without expanding them forever and a series that started
+     * long ago is still checked against the bookings ahead
+     */
+    private boolean isAvailable(String userId, LocalDateTime startTime, LocalDateTime endTime,
+                                event_recurrence recurrence, EventDetails moving) {
+        if (recurrence == null) {
+            return isTimeSlotAvailable(userId, startTime, endTime, moving);
+        }
+        Duration length = Duration.between(startTime, endTime);
+        // Include the occurrence in progress now, which overlaps what is booked next
+        LocalDateTime now = LocalDateTime.now().minus(length);
+        LocalDateTime from = startTime.isAfter(now) ? startTime : now;
+        Iterator<LocalDateTime> occurrences = recurrence.occurrences(startTime, from,
+                                                                     from.plusDays(RECURRENCE_CHECK_DAYS));
+        while (occurrences.hasNext()) {
+            LocalDateTime start = occurrences.next();
+            if (!isTimeSlotAvailable(userId, start, start.plus(length), moving)) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Checks if time slot is available in one user's calendar, ignoring the
+     * slot an event being moved currently occupies
+     * Only the days the slot touches are consulted, in logarithmic time, plus
+     * the occurrences of the user's recurring events that fall in the slot
+     */
+    private boolean isTimeSlotAvailable(String userId, LocalDateTime startTime, LocalDateTime endTime,
+                                        EventDetails moving) {
+        event_day_index calendar = userCalendars.get(normalizeUser(userId));
+        CopyOnWriteArrayList<EventDetails> series = userSeries.get(normalizeUser(userId));
+        long excludeId = moving == null ? 0 : moving.eventId;
+        int eventsInDay = eventsStartingOn(userId, startTime.toLocalDate(), excludeId);
+        if (moving != null && moving.recurrence == null && isIndexed(moving)
+                && moving.startTime.toLocalDate().equals(startTime.toLocalDate())) {
+            eventsInDay--;
+        }
+        if (eventsInDay >= MAX_EVENTS_PER_DAY) return false;
+        
+        // Check for time overlap
+        if (calendar != null && calendar.overlaps(startTime, endTime, excludeId)) return false;
+        if (series != null) {
+            for (EventDetails recurring : series) {
+                if (recurring.eventId != excludeId
+                        && occurrencesOverlapping(recurring, startTime, endTime).hasNext()) {
                     return false;
                 }
             }
@@ -146,107 +561,644 @@ public class calendar_event {
         return true;
     }
     
+    /**
+     * Number of a user's events starting on a day, counting recurring
+     * occurrences but not those of the series {@code excludeId}
+     */
+    private int eventsStartingOn(String userId, LocalDate date, long excludeId) {
+        event_day_index calendar = userCalendars.get(normalizeUser(userId));
+        CopyOnWriteArrayList<EventDetails> series = userSeries.get(normalizeUser(userId));
+        int eventsInDay = calendar == null ? 0 : calendar.countStartingOn(date);
+        if (series != null) {
+            LocalDateTime day = date.atStartOfDay();
+            for (EventDetails recurring : series) {
+                if (recurring.eventId == excludeId) continue;
+                Iterator<LocalDateTime> onDay = recurring.recurrence.occurrences(recurring.startTime,
+                                                                                 day, day.plusDays(1));
+                while (onDay.hasNext()) {
+                    onDay.next();
+                    eventsInDay++;
+                }
+            }
+        }
+        return eventsInDay;
+    }
+    
+    /**
+     * Starts of a recurring event's occurrences that overlap [from, to)
+     */
+    private static Iterator<LocalDateTime> occurrencesOverlapping(EventDetails event, LocalDateTime from,
+                                                                  LocalDateTime to) {
+        Duration length = Duration.between(event.startTime, event.endTime);
+        return event.recurrence.occurrences(event.startTime, from.minus(length).plusNanos(1), to);
+    }
+    
+    /**
+     * Files an event in a user's calendar, recurring events as their rule only
+     */
+    private void place(EventDetails event, String userId) {
+        if (event.recurrence == null) {
+            calendarOf(userId).add(event.eventId, event.startTime, event.endTime);
+        } else {
+            userSeries.computeIfAbsent(normalizeUser(userId), k -> new CopyOnWriteArrayList<>()).add(event);
+        }
+    }
+    
+    private void unplace(EventDetails event, String userId) {
+        if (event.recurrence == null) {
+            calendarOf(userId).remove(event.eventId, event.startTime, event.endTime);
+        } else {
+            userSeries.computeIfPresent(normalizeUser(userId), (key, series) -> {
+                series.remove(event);
+                return series.isEmpty() ? null : series;
+            });
+        }
+    }
+    
+    /**
+     * Organizer and attendees of an event, each listed once
+     */
+    private static LinkedHashSet<String> participants(EventDetails event) {
+        LinkedHashSet<String> users = new LinkedHashSet<>();
+        users.add(normalizeUser(event.organizer));
+        users.addAll(event.attendees);
+        return users;
+    }
+    
+    private event_day_index calendarOf(String userId) {
+        return userCalendars.computeIfAbsent(normalizeUser(userId), k -> new event_day_index());
+    }
+    
+    private static String normalizeUser(String userId) {
+        return userId == null ? "" : userId;
+    }
+    
+    /**
+     * Cancelled events give up their slot and are not part of the day index
+     */
+    private static boolean isIndexed(EventDetails event) {
+        return event.status != EventStatus.CANCELLED;
+    }
+    
+    /**
+     * Locks the days a single event occupies in the users' calendars, or
+     * every day for a recurring event, whose occurrences are unbounded
+     */
+    private event_day_locks.Held lockSlots(Collection<String> users, event_recurrence recurrence,
+                                           boolean exclusive, LocalDateTime... bounds) {
+        return recurrence == null ? dayLocks.lockDays(users, exclusive, bounds) : dayLocks.lockAll(exclusive);
+    }
+    
+    /**
+     * Locks one user's days in [from, to) for reading
+     */
+    private event_day_locks.Held lockUserDays(String userId, LocalDateTime from, LocalDateTime to) {
+        return dayLocks.lockDays(Collections.singletonList(normalizeUser(userId)), false, from, to);
+    }
+    
+    /**
+     * Freezes the calendar for administration
+     * Waits for changes in progress to finish, then rejects every change until
+     * unfreeze is called; queries keep working
+     */
+    public void freeze() {
+        event_day_locks.Held held = dayLocks.lockAll(true);
+        try {
+            frozen = true;
+        } finally {
+            held.unlock();
+        }
+        logEventActivity("SYSTEM", "FREEZE", "Calendar frozen");
+    }
+    
+    /**
+     * Lifts a freeze
+     */
+    public void unfreeze() {
+        frozen = false;
+        logEventActivity("SYSTEM", "UNFREEZE", "Calendar unfrozen");
+    }
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
     /**
      * Updates event details
+     * A move to a slot that is not free fails without applying any of the update
      */
     public boolean updateEvent(String eventId, String newName, String newDescription, 
                              LocalDateTime newStartTime, LocalDateTime newEndTime) {
-        EventDetails event = events.get(eventId);
-        if (event != null) {
-            event.eventName = newName != null ? newName : event.eventName;
-            event.description = newDescription != null ? newDescription : event.description;
-            
-            if (newStartTime != null && newEndTime != null) {
-                if (isTimeSlotAvailable(newStartTime, newEndTime)) {
+        changes.awaitCapacity();
+        EventDetails event = findEvent(eventId);
+        if (event == null) return false;
+        boolean moving = newStartTime != null && newEndTime != null;
+        event.lock.lock();
+        try {
+            LinkedHashSet<String> users = participants(event);
+            LocalDateTime[] bounds = moving
+                ? new LocalDateTime[] {event.startTime, event.endTime, newStartTime, newEndTime}
+                : new LocalDateTime[] {event.startTime, event.endTime};
+            event_day_locks.Held held = lockSlots(users, event.recurrence, moving, bounds);
+            try {
+                if (frozen) return false;
+                // Check the new slot before touching anything, so a rejected move changes nothing
+                if (moving) {
+                    for (String user : users) {
+                        if (!isAvailable(user, newStartTime, newEndTime, event.recurrence, event)) return false;
+                    }
+                }
+                event.eventName = newName != null ? newName : event.eventName;
+                event.description = newDescription != null ? newDescription : event.description;
+                
+                if (moving) {
+                    boolean indexed = isIndexed(event);
+                    if (indexed) {
+                        for (String user : users) unplace(event, user);
+                    }
                     event.startTime = newStartTime;
                     event.endTime = newEndTime;
-                } else {
-                    return false;
+                    if (indexed) {
+                        for (String user : users) place(event, user);
+                    }
                 }
+                
+                logEventActivity(eventId, "UPDATE", "Event details updated");
+                publishChange(change_stream.ChangeType.UPDATE, eventId, null, event.eventName);
+                return true;
+            } finally {
+                held.unlock();
             }
-            
-            logEventActivity(eventId, "UPDATE", "Event details updated");
-            return true;
+        } finally {
+            event.lock.unlock();
         }
-        return false;
     }
     
     /**
      * Adds attendee to event
+     * Fails if the attendee already has another event at that time
      */
     public boolean addAttendee(String eventId, String attendeeId) {
-        EventDetails event = events.get(eventId);
-        if (event != null && !event.attendees.contains(attendeeId)) {
-            event.attendees.add(attendeeId);
-            logEventActivity(eventId, "ADD_ATTENDEE", "Added attendee: " + attendeeId);
-            return true;
+        changes.awaitCapacity();
+        EventDetails event = findEvent(eventId);
+        if (event == null || attendeeId == null) return false;
+        event.lock.lock();
+        try {
+            if (participants(event).contains(attendeeId)) return false;
+            event_day_locks.Held held = lockSlots(Collections.singletonList(attendeeId),
+                                                  event.recurrence, true, event.startTime, event.endTime);
+            try {
+                if (frozen) return false;
+                if (isIndexed(event)) {
+                    if (!isAvailable(attendeeId, event.startTime, event.endTime, event.recurrence, null)) {
+                        logEventActivity(eventId, "ADD_ATTENDEE_FAILED", attendeeId + " is busy");
+                        return false;
+                    }
+                    place(event, attendeeId);
+                }
+                event.attendees.add(attendeeId);
+                logEventActivity(eventId, "ADD_ATTENDEE", "Added attendee: " + attendeeId);
+                publishChange(change_stream.ChangeType.ATTENDEE, eventId, null, attendeeId);
+                return true;
+            } finally {
+                held.unlock();
+            }
+        } finally {
+            event.lock.unlock();
         }
-        return false;
     }
     
     /**
      * Updates event location
      */
     public boolean updateLocation(String eventId, String newLocation) {
-        EventDetails event = events.get(eventId);
-        if (event != null) {
-            event.location = newLocation;
-            logEventActivity(eventId, "UPDATE_LOCATION", "Location updated to: " + newLocation);
-            return true;
+        changes.awaitCapacity();
+        EventDetails event = findEvent(eventId);
+        if (event == null) return false;
+        event.lock.lock();
+        try {
+            event_day_locks.Held held = lockSlots(participants(event), event.recurrence, false,
+                                                  event.startTime, event.endTime);
+            try {
+                if (frozen) return false;
+                event.location = newLocation;
+                logEventActivity(eventId, "UPDATE_LOCATION", "Location updated to: " + newLocation);
+                publishChange(change_stream.ChangeType.UPDATE, eventId, null, event.eventName);
+                return true;
+            } finally {
+                held.unlock();
+            }
+        } finally {
+            event.lock.unlock();
         }
-        return false;
+    }
+    
+    /**
+     * Gets the stream every event mutation is published to
+     */
+    public change_stream getChangeStream() {
+        return changes;
+    }
+    
+    private void publishChange(change_stream.ChangeType type, String eventId, String actor,
+                               String detail) {
+        changes.publish(change_stream.Source.EVENT, type, eventId, actor, detail);
     }
     
     /**
      * Logs event activities
      */
     private void logEventActivity(String eventId, String action, String details) {
-        eventHistory.add(new EventLog(eventId, action, details));
+        eventHistory.append(parseEventId(eventId), action, details);
     }
     
     /**
      * Gets event details
      */
     public String getEventDetails(String eventId) {
-        EventDetails event = events.get(eventId);
-        if (event == null) return "Event not found";
+        String details = renderEventDetails(eventId);
+        return details == null ? "Event not found" : details;
+    }
+    
+    /**
+     * Renders the details of an event, null if there is no such event
+     */
+    String renderEventDetails(String eventId) {
+        EventDetails event = findEvent(eventId);
+        if (event == null) return null;
         
         StringBuilder details = new StringBuilder();
-        details.append("Event Details:\n");
-        details.append("Name: ").append(event.eventName).append("\n");
-        details.append("Description: ").append(event.description).append("\n");
-        details.append("Start Time: ").append(event.startTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\n");
-        details.append("End Time: ").append(event.endTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\n");
-        details.append("Priority: ").append(event.priority).append("\n");
-        details.append("Status: ").append(event.status).append("\n");
-        details.append("Location: ").append(event.location).append("\n");
-        details.append("Organizer: ").append(event.organizer).append("\n");
-        details.append("Attendees: ").append(String.join(", ", event.attendees));
+        event.lock.lock();
+        try {
+            details.append("Event Details:\n");
+            details.append("Name: ").append(event.eventName).append("\n");
+            details.append("Description: ").append(event.description).append("\n");
+            details.append("Start Time: ").append(event.startTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\n");
+            details.append("End Time: ").append(event.endTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\n");
+            details.append("Priority: ").append(event.priority).append("\n");
+            details.append("Status: ").append(event.status).append("\n");
+            details.append("Location: ").append(event.location).append("\n");
+            details.append("Organizer: ").append(event.organizer).append("\n");
+            if (event.recurrence != null) {
+                details.append("Repeats: ").append(event.recurrence).append("\n");
+            }
+            details.append("Attendees: ").append(String.join(", ", event.attendees));
+        } finally {
+            event.lock.unlock();
+        }
         
         return details.toString();
     }
     
     /**
      * Gets event history
+     * Only the most recent HISTORY_CAPACITY entries of the last
+     * HISTORY_RETENTION_DAYS days are kept
      */
     public ArrayList<String> getEventHistory() {
-        ArrayList<String> history = new ArrayList<>();
-        for (EventLog log : eventHistory) {
-            history.add(log.toString());
+        return eventHistory.history();
+    }
+    
+    /**
+     * Gets one page of event history, oldest first
+     * @param cursor 0 for the first page, otherwise the cursor of the previous page
+     */
+    public event_history.HistoryPage getEventHistoryPage(long cursor, int limit) {
+        return eventHistory.page(-1, cursor, limit);
+    }
+    
+    /**
+     * Gets one page of the history of a single event, oldest first
+     * @param cursor 0 for the first page, otherwise the cursor of the previous page
+     */
+    public event_history.HistoryPage getEventHistoryPage(String eventId, long cursor, int limit) {
+        long id = parseEventId(eventId);
+        if (id == 0) {
+            return new event_history.HistoryPage(new ArrayList<>(), cursor, false);
+        }
+        return eventHistory.page(id, cursor, limit);
+    }
+    
+    /**
+     * Gets the times within [from, to) a user is busy, merged and in order
+     */
+    public ArrayList<TimeSlot> getBusySlots(String userId, LocalDateTime from, LocalDateTime to) {
+        ArrayList<TimeSlot> slots = new ArrayList<>();
+        if (!from.isBefore(to)) return slots;
+        event_day_index.IntervalBuffer busy;
+        event_day_locks.Held held = lockUserDays(userId, from, to);
+        try {
+            busy = busyIntervals(userId, from, to);
+        } finally {
+            held.unlock();
+        }
+        for (int i = 0; i < busy.size(); i++) {
+            slots.add(new TimeSlot(busy.start(i), busy.end(i)));
+        }
+        return slots;
+    }
+    
+    /**
+     * Gets the times within [from, to) at least minLength long when every one
+     * of the given users is free, e.g. to schedule a study group
+     * Each user's busy intervals are already sorted, so they are combined
+     * with a k-way merge instead of sorting them all together
+     */
+    public ArrayList<TimeSlot> findFreeSlots(Collection<String> userIds, LocalDateTime from,
+                                             LocalDateTime to, Duration minLength) {
+        ArrayList<TimeSlot> slots = new ArrayList<>();
+        if (!from.isBefore(to)) return slots;
+        ArrayList<event_day_index.IntervalBuffer> busy = new ArrayList<>();
+        for (String userId : userIds) {
+            event_day_locks.Held held = lockUserDays(userId, from, to);
+            try {
+                busy.add(busyIntervals(userId, from, to));
+            } finally {
+                held.unlock();
+            }
+        }
+        
+        // Heap entries are {list, position}, ordered by the start of that interval
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, busy.size()),
+            (a, b) -> Long.compare(busy.get(a[0]).start(a[1]), busy.get(b[0]).start(b[1])));
+        for (int i = 0; i < busy.size(); i++) {
+            if (busy.get(i).size() > 0) heads.add(new int[] {i, 0});
         }
-        return history;
+        long minMillis = minLength == null ? 0 : minLength.toMillis();
+        long freeFrom = event_day_index.toMillis(from);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            event_day_index.IntervalBuffer list = busy.get(head[0]);
+            long start = list.start(head[1]);
+            if (start > freeFrom && start - freeFrom >= Math.max(1, minMillis)) {
+                slots.add(new TimeSlot(freeFrom, start));
+            }
+            freeFrom = Math.max(freeFrom, list.end(head[1]));
+            if (++head[1] < list.size()) heads.add(head);
+        }
+        long end = event_day_index.toMillis(to);
+        if (end > freeFrom && end - freeFrom >= Math.max(1, minMillis)) {
+            slots.add(new TimeSlot(freeFrom, end));
+        }
+        return slots;
+    }
+    
+    /**
+     * One user's busy time within [from, to), sorted and merged, including the
+     * occurrences of recurring events expanded for this window only
+     */
+    private event_day_index.IntervalBuffer busyIntervals(String userId, LocalDateTime from,
+                                                         LocalDateTime to) {
+        event_day_index calendar = userCalendars.get(normalizeUser(userId));
+        CopyOnWriteArrayList<EventDetails> series = userSeries.get(normalizeUser(userId));
+        event_day_index.IntervalBuffer busy = calendar == null
+            ? new event_day_index.IntervalBuffer() : calendar.busy(from, to);
+        if (series == null) return busy;
+        for (EventDetails recurring : series) {
+            long length = Duration.between(recurring.startTime, recurring.endTime).toMillis();
+            Iterator<LocalDateTime> occurrences = occurrencesOverlapping(recurring, from, to);
+            while (occurrences.hasNext()) {
+                long start = event_day_index.toMillis(occurrences.next());
+                busy.add(start, start + length);
+            }
+        }
+        return busy.sortedAndMerged(event_day_index.toMillis(from), event_day_index.toMillis(to));
+    }
+    
+    /**
+     * Gets the times within [from, to) a single user is free
+     */
+    public ArrayList<TimeSlot> getFreeSlots(String userId, LocalDateTime from, LocalDateTime to) {
+        return findFreeSlots(Collections.singletonList(userId), from, to, Duration.ZERO);
+    }
+    
+    /**
+     * Gets the occurrences of an event overlapping [from, to), expanded lazily
+     * for that window; a single event yields at most one slot
+     */
+    public ArrayList<TimeSlot> getOccurrences(String eventId, LocalDateTime from, LocalDateTime to) {
+        ArrayList<TimeSlot> slots = new ArrayList<>();
+        EventDetails event = findEvent(eventId);
+        if (event == null || !from.isBefore(to)) return slots;
+        event.lock.lock();
+        try {
+            long length = Duration.between(event.startTime, event.endTime).toMillis();
+            if (event.recurrence == null) {
+                if (event.startTime.isBefore(to) && event.endTime.isAfter(from)) {
+                    long start = event_day_index.toMillis(event.startTime);
+                    slots.add(new TimeSlot(start, start + length));
+                }
+                return slots;
+            }
+            Iterator<LocalDateTime> occurrences = occurrencesOverlapping(event, from, to);
+            while (occurrences.hasNext()) {
+                long start = event_day_index.toMillis(occurrences.next());
+                slots.add(new TimeSlot(start, start + length));
+            }
+        } finally {
+            event.lock.unlock();
+        }
+        return slots;
+    }
+    
+    /**
+     * Organizer and attendees of an event, including a cancelled one, e.g. to
+     * route its changes; empty if there is no such event
+     */
+    LinkedHashSet<String> participantsOf(String eventId) {
+        EventDetails event = findEvent(eventId);
+        if (event == null) return new LinkedHashSet<>();
+        event.lock.lock();
+        try {
+            return participants(event);
+        } finally {
+            event.lock.unlock();
+        }
+    }
+    
+    /**
+     * Entries of one scheduled event: its occurrences overlapping [from, to),
+     * or, without a window, the event itself as first scheduled
+     */
+    ArrayList<CalendarEntry> entriesOf(String eventId, LocalDateTime from, LocalDateTime to) {
+        ArrayList<CalendarEntry> entries = new ArrayList<>();
+        EventDetails event = findEvent(eventId);
+        if (event == null) return entries;
+        event.lock.lock();
+        try {
+            if (!isIndexed(event)) return entries;
+            long length = Duration.between(event.startTime, event.endTime).toMillis();
+            if (from == null || event.recurrence == null) {
+                if (from == null || (event.startTime.isBefore(to) && event.endTime.isAfter(from))) {
+                    long start = event_day_index.toMillis(event.startTime);
+                    entries.add(new CalendarEntry(event, start, start + length));
+                }
+                return entries;
+            }
+            Iterator<LocalDateTime> occurrences = occurrencesOverlapping(event, from, to);
+            while (occurrences.hasNext()) {
+                long start = event_day_index.toMillis(occurrences.next());
+                entries.add(new CalendarEntry(event, start, start + length));
+            }
+        } finally {
+            event.lock.unlock();
+        }
+        return entries;
+    }
+    
+    /**
+     * Gets the events a user takes part in within [from, to), e.g. for a month
+     * or week view, with each occurrence of a recurring event as its own entry
+     * Single events come from the user's day buckets for the window, so the
+     * cost follows the events in view rather than the size of the calendar
+     * @return ArrayList<CalendarEntry> entries ordered by start
+     */
+    public ArrayList<CalendarEntry> getEventsInRange(String userId, LocalDateTime from, LocalDateTime to) {
+        ArrayList<CalendarEntry> entries = new ArrayList<>();
+        if (!from.isBefore(to)) return entries;
+        event_day_locks.Held held = lockUserDays(userId, from, to);
+        try {
+            collectEntries(userId, from, to, entries);
+        } finally {
+            held.unlock();
+        }
+        entries.sort((a, b) -> a.start.compareTo(b.start));
+        return entries;
+    }
+    
+    private void collectEntries(String userId, LocalDateTime from, LocalDateTime to,
+                                ArrayList<CalendarEntry> entries) {
+        event_day_index calendar = userCalendars.get(normalizeUser(userId));
+        if (calendar != null) {
+            calendar.forEachOverlapping(from, to, (start, end, id) -> {
+                EventDetails event = events.get(id);
+                if (event != null) entries.add(new CalendarEntry(event, start, end));
+            });
+        }
+        CopyOnWriteArrayList<EventDetails> series = userSeries.get(normalizeUser(userId));
+        if (series == null) return;
+        for (EventDetails recurring : series) {
+            long length = Duration.between(recurring.startTime, recurring.endTime).toMillis();
+            Iterator<LocalDateTime> occurrences = occurrencesOverlapping(recurring, from, to);
+            while (occurrences.hasNext()) {
+                long start = event_day_index.toMillis(occurrences.next());
+                entries.add(new CalendarEntry(recurring, start, start + length));
+            }
+        }
+    }
+    
+    /**
+     * Gets the same entries as getEventsInRange as compact JSON for the calendar
+     * pages: field names are listed once and each entry is a row of values,
+     * with times as local "yyyy-MM-ddTHH:mm" strings
+     */
+    public String getEventsInRangeJson(String userId, LocalDateTime from, LocalDateTime to) {
+        ArrayList<CalendarEntry> entries = getEventsInRange(userId, from, to);
+        StringBuilder json = new StringBuilder(64 + entries.size() * 96);
+        json.append("{\"fields\":[\"id\",\"name\",\"start\",\"end\",\"priority\",")
+            .append("\"location\",\"organizer\",\"recurring\"],\"events\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            CalendarEntry entry = entries.get(i);
+            if (i > 0) json.append(',');
+            json.append('[');
+            json_codec.appendString(json, entry.eventId).append(',');
+            json_codec.appendString(json, entry.name).append(',');
+            json_codec.appendString(json, entry.start.format(VIEW_TIME_FORMAT)).append(',');
+            json_codec.appendString(json, entry.end.format(VIEW_TIME_FORMAT)).append(',');
+            json_codec.appendString(json, entry.priority.name()).append(',');
+            json_codec.appendString(json, entry.location).append(',');
+            json_codec.appendString(json, entry.organizer).append(',');
+            json.append(entry.recurring).append(']');
+        }
+        return json.append("]}").toString();
+    }
+    
+    /**
+     * Cancels a single occurrence of a recurring event, e.g. a lecture on a holiday
+     * @param occurrenceStart start time of the occurrence to skip
+     */
+    public boolean cancelOccurrence(String eventId, LocalDateTime occurrenceStart) {
+        changes.awaitCapacity();
+        EventDetails event = findEvent(eventId);
+        if (event == null || occurrenceStart == null) return false;
+        event.lock.lock();
+        try {
+            if (event.recurrence == null || !event.recurrence.occursAt(event.startTime, occurrenceStart)) {
+                return false;
+            }
+            LocalDateTime occurrenceEnd = occurrenceStart.plus(Duration.between(event.startTime, event.endTime));
+            event_day_locks.Held held = dayLocks.lockDays(participants(event), true,
+                                                          occurrenceStart, occurrenceEnd);
+            try {
+                if (frozen) return false;
+                event.recurrence = event.recurrence.except(occurrenceStart);
+            } finally {
+                held.unlock();
+            }
+        } finally {
+            event.lock.unlock();
+        }
+        String occurrence = occurrenceStart.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        logEventActivity(eventId, "CANCEL_OCCURRENCE", "Occurrence cancelled: " + occurrence);
+        publishChange(change_stream.ChangeType.CANCEL, eventId, null, occurrence);
+        return true;
     }
     
     /**
      * Cancels an event
+     * @return boolean false if there is no such event or it is already cancelled
      */
     public boolean cancelEvent(String eventId) {
-        EventDetails event = events.get(eventId);
-        if (event != null) {
-            event.status = EventStatus.CANCELLED;
-            logEventActivity(eventId, "CANCEL", "Event cancelled");
-            return true;
+        changes.awaitCapacity();
+        EventDetails event = findEvent(eventId);
+        if (event == null) return false;
+        event.lock.lock();
+        try {
+            LinkedHashSet<String> users = participants(event);
+            event_day_locks.Held held = lockSlots(users, event.recurrence, true,
+                                                  event.startTime, event.endTime);
+            try {
+                if (frozen || event.status == EventStatus.CANCELLED) return false;
+                for (String user : users) {
+                    unplace(event, user);
+                }
+                event.status = EventStatus.CANCELLED;
+                logEventActivity(eventId, "CANCEL", "Event cancelled");
+                publishChange(change_stream.ChangeType.CANCEL, eventId, null, null);
+                return true;
+            } finally {
+                held.unlock();
+            }
+        } finally {
+            event.lock.unlock();
+        }
+    }
+    
+    /**
+     * Formats an internal event ID into its public "EVT_..." form
+     */
+    static String formatEventId(long eventId) {
+        return EVENT_ID_PREFIX + Long.toString(eventId, 36);
+    }
+    
+    /**
+     * Looks up an event by its public ID
+     */
+    private EventDetails findEvent(String eventId) {
+        long id = parseEventId(eventId);
+        return id == 0 ? null : events.get(id);
+    }
+    
+    /**
+     * Parses a public event ID, 0 if it is not one (e.g. "SYSTEM")
+     */
+    private static long parseEventId(String eventId) {
+        if (eventId == null || !eventId.startsWith(EVENT_ID_PREFIX)) return 0;
+        try {
+            long id = Long.parseLong(eventId.substring(EVENT_ID_PREFIX.length()), 36);
+            return Math.max(id, 0);
+        } catch (NumberFormatException e) {
+            return 0;
         }
-        return false;
     }
 }
@@ -2,43 +2,120 @@ package java;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * CalendarEventConnector class handles connections between calendar events and other system components
  * Acts as a bridge without modifying existing code
+ * User links are indexed in both directions on concurrent sets, so a user's
+ * events and an event's users are read in O(result) and cancelling an event
+ * only touches the users linked to it. Every link change for an event runs
+ * inside that event's entry of the event-to-users map, which keeps the two
+ * directions consistent when links and cancellations race.
+ * Rendered event details are kept in an event_details_cache, which the
+ * connector's own update, attendee and cancel calls invalidate.
+ * Task links are indexed in both directions as well, which lets query join
+ * events and tasks starting from whichever side its predicates narrow most.
  */
 public class calendar_event_connector {
-    private static calendar_event_connector instance;
+    private static final int DETAILS_CACHE_CAPACITY = 4096;
     private calendar_event calendarManager;
-    private HashMap<String, ArrayList<String>> userEventConnections;
-    private HashMap<String, String> eventTaskConnections;
+    private event_details_cache detailsCache;
+    private ConcurrentHashMap<String, Set<String>> userEventConnections;
+    private ConcurrentHashMap<String, Set<String>> eventUserConnections;
+    private ConcurrentHashMap<String, String> eventTaskConnections;
+    private ConcurrentHashMap<String, Set<String>> taskEventConnections;
+    private volatile all_task taskStore;
+    
+    /**
+     * Creates the shared instance on first use, without locking afterwards
+     */
+    private static final class InstanceHolder {
+        private static final calendar_event_connector INSTANCE = new calendar_event_connector();
+    }
     
     private calendar_event_connector() {
         this.calendarManager = new calendar_event();
-        this.userEventConnections = new HashMap<>();
-        this.eventTaskConnections = new HashMap<>();
+        this.detailsCache = new event_details_cache(DETAILS_CACHE_CAPACITY);
+        this.userEventConnections = new ConcurrentHashMap<>();
+        this.eventUserConnections = new ConcurrentHashMap<>();
+        this.eventTaskConnections = new ConcurrentHashMap<>();
+        this.taskEventConnections = new ConcurrentHashMap<>();
     }
     
     public static calendar_event_connector getInstance() {
-        if (instance == null) {
-            instance = new calendar_event_connector();
-        }
-        return instance;
+        return InstanceHolder.INSTANCE;
     }
     
     /**
      * Links an event to a user
      */
     public void linkEventToUser(String eventId, String userId) {
-       
+        if (eventId == null || userId == null) return;
+        eventUserConnections.compute(eventId, (key, users) -> {
+            if (users == null) users = ConcurrentHashMap.newKeySet();
+            if (users.add(userId)) {
+                userEventConnections.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(eventId);
+            }
+            return users;
+        });
+    }
+    
+    /**
+     * Removes every user link of an event
+     */
+    private void unlinkEvent(String eventId) {
+        eventUserConnections.computeIfPresent(eventId, (key, users) -> {
+            for (String userId : users) {
+                userEventConnections.computeIfPresent(userId, (k, userEvents) -> {
+                    userEvents.remove(eventId);
+                    return userEvents.isEmpty() ? null : userEvents;
+                });
+            }
+            return null;
+        });
     }
     
     /**
      * Links an event to a task
      */
     public void linkEventToTask(String eventId, String taskId) {
-        eventTaskConnections.put(eventId, taskId);
+        if (eventId == null || taskId == null) return;
+        eventTaskConnections.compute(eventId, (key, previous) -> {
+            if (previous != null && !previous.equals(taskId)) {
+                removeTaskLink(previous, eventId);
+            }
+            taskEventConnections.computeIfAbsent(taskId, k -> ConcurrentHashMap.newKeySet()).add(eventId);
+            return taskId;
+        });
+    }
+    
+    /**
+     * Removes the task link of an event
+     */
+    private void unlinkTask(String eventId) {
+        eventTaskConnections.computeIfPresent(eventId, (key, taskId) -> {
+            removeTaskLink(taskId, eventId);
+            return null;
+        });
+    }
+    
+    private void removeTaskLink(String taskId, String eventId) {
+        taskEventConnections.computeIfPresent(taskId, (k, taskEvents) -> {
+            taskEvents.remove(eventId);
+            return taskEvents.isEmpty() ? null : taskEvents;
+        });
+    }
+    
+    /**
+     * Sets the task store that query joins events with
+     */
+    public void attachTaskStore(all_task tasks) {
+        this.taskStore = tasks;
     }
     
     /**
@@ -59,14 +136,151 @@ public class calendar_event_connector {
      * Gets all events for a specific user
      */
     public ArrayList<String> getUserEvents(String userId) {
-        return userEventConnections.getOrDefault(userId, new ArrayList<>());
+        Set<String> userEvents = userId == null ? null : userEventConnections.get(userId);
+        return userEvents == null ? new ArrayList<>() : new ArrayList<>(userEvents);
+    }
+    
+    /**
+     * Gets all users linked to a specific event
+     */
+    public ArrayList<String> getEventUsers(String eventId) {
+        Set<String> users = eventId == null ? null : eventUserConnections.get(eventId);
+        return users == null ? new ArrayList<>() : new ArrayList<>(users);
     }
     
     /**
      * Gets associated task for an event
      */
     public String getEventTask(String eventId) {
-        return eventTaskConnections.get(eventId);
+        return eventId == null ? null : eventTaskConnections.get(eventId);
+    }
+    
+    /**
+     * Gets all events linked to a specific task
+     */
+    public ArrayList<String> getTaskEvents(String taskId) {
+        Set<String> taskEvents = taskId == null ? null : taskEventConnections.get(taskId);
+        return taskEvents == null ? new ArrayList<>() : new ArrayList<>(taskEvents);
+    }
+    
+    /**
+     * Runs a query over events joined to their linked tasks
+     * The event window and user are pushed into the user's calendar index and
+     * due-date bounds into the task deadline index. With both, the due tasks
+     * are hashed and probed with the events in the window (HASH_JOIN). With
+     * only the window, each event looks up its task (EVENT_INDEX_LOOP).
+     * Otherwise the smaller of the due tasks and the candidate events, i.e. the
+     * user's linked events or every linked event, drives the join, looking up
+     * the other side through the link indexes (TASK_INDEX_LOOP, HASH_JOIN or
+     * LINK_SCAN). Predicates no index covers are checked on each pair.
+     * @throws IllegalStateException if no task store is attached
+     */
+    public event_task_query.Result query(event_task_query query) {
+        all_task tasks = taskStore;
+        if (tasks == null) {
+            throw new IllegalStateException("No task store attached");
+        }
+        JoinState state = new JoinState(query, tasks);
+        ArrayList<String> dueTasks = null;
+        if (query.hasDueRange()) {
+            LocalDateTime before = query.getDueBefore() != null ? query.getDueBefore() : LocalDateTime.MAX;
+            dueTasks = query.getDueFrom() == null ? tasks.getTasksDueBefore(before)
+                                                  : tasks.getTasksDueBetween(query.getDueFrom(), before);
+        }
+        
+        if (query.hasEventWindow() && query.getUserId() != null) {
+            HashSet<String> build = dueTasks == null ? null : new HashSet<>(dueTasks);
+            for (calendar_event.CalendarEntry event : calendarManager.getEventsInRange(
+                     query.getUserId(), query.getFrom(), query.getTo())) {
+                String taskId = eventTaskConnections.get(event.getEventId());
+                if (taskId == null || (build != null && !build.contains(taskId))) continue;
+                if (!state.emit(event, taskId)) break;
+            }
+            return state.result(build == null ? "EVENT_INDEX_LOOP" : "HASH_JOIN");
+        }
+        
+        Collection<String> candidates;
+        if (query.getUserId() != null) {
+            Set<String> userEvents = userEventConnections.get(query.getUserId());
+            candidates = userEvents == null ? new ArrayList<>() : userEvents;
+        } else {
+            candidates = eventTaskConnections.keySet();
+        }
+        if (dueTasks != null && dueTasks.size() < candidates.size()) {
+            for (String taskId : dueTasks) {
+                Set<String> taskEvents = taskEventConnections.get(taskId);
+                if (taskEvents == null) continue;
+                for (String eventId : taskEvents) {
+                    if (query.getUserId() != null && !candidates.contains(eventId)) continue;
+                    if (!state.emitAll(eventId, taskId)) return state.result("TASK_INDEX_LOOP");
+                }
+            }
+            return state.result("TASK_INDEX_LOOP");
+        }
+        HashSet<String> build = dueTasks == null ? null : new HashSet<>(dueTasks);
+        for (String eventId : candidates) {
+            String taskId = eventTaskConnections.get(eventId);
+            if (taskId == null || (build != null && !build.contains(taskId))) continue;
+            if (!state.emitAll(eventId, taskId)) break;
+        }
+        return state.result(build == null ? "LINK_SCAN" : "HASH_JOIN");
+    }
+    
+    /**
+     * Rows of one query run, with each task fetched and checked at most once
+     */
+    private final class JoinState {
+        private final event_task_query query;
+        private final all_task tasks;
+        private final HashMap<String, all_task.TaskSummary> matchedTasks = new HashMap<>();
+        private final HashSet<String> rejectedTasks = new HashSet<>();
+        private final ArrayList<event_task_query.Row> rows = new ArrayList<>();
+        
+        JoinState(event_task_query query, all_task tasks) {
+            this.query = query;
+            this.tasks = tasks;
+        }
+        
+        /**
+         * Adds a row for an event occurrence if it and its task qualify
+         * @return boolean false once the limit is reached
+         */
+        boolean emit(calendar_event.CalendarEntry event, String taskId) {
+            if (!query.matchesEvent(event)) return true;
+            all_task.TaskSummary task = task(taskId);
+            if (task != null) rows.add(new event_task_query.Row(event, task));
+            return rows.size() < query.getLimit();
+        }
+        
+        /**
+         * Adds rows for every qualifying occurrence of an event
+         * @return boolean false once the limit is reached
+         */
+        boolean emitAll(String eventId, String taskId) {
+            if (task(taskId) == null) return true;
+            for (calendar_event.CalendarEntry event
+                     : calendarManager.entriesOf(eventId, query.getFrom(), query.getTo())) {
+                if (!emit(event, taskId)) return false;
+            }
+            return true;
+        }
+        
+        private all_task.TaskSummary task(String taskId) {
+            if (rejectedTasks.contains(taskId)) return null;
+            all_task.TaskSummary task = matchedTasks.get(taskId);
+            if (task != null) return task;
+            task = tasks.summarizeTask(taskId);
+            if (task == null || !query.matchesTask(task)) {
+                rejectedTasks.add(taskId);
+                return null;
+            }
+            matchedTasks.put(taskId, task);
+            return task;
+        }
+        
+        event_task_query.Result result(String plan) {
+            return new event_task_query.Result(rows, plan);
+        }
     }
     
     /**
@@ -84,7 +298,16 @@ public class calendar_event_connector {
      * Gets event details through calendar manager
      */
     public String getEventDetails(String eventId) {
-        return calendarManager.getEventDetails(eventId);
+        if (eventId == null) return calendarManager.getEventDetails(null);
+        String details = detailsCache.get(eventId, calendarManager::renderEventDetails);
+        return details == null ? calendarManager.getEventDetails(eventId) : details;
+    }
+    
+    /**
+     * Gets hit, miss and eviction counts of the event details cache
+     */
+    public event_details_cache.Stats getDetailsCacheStats() {
+        return detailsCache.stats();
     }
     
     /**
@@ -92,8 +315,11 @@ public class calendar_event_connector {
      */
     public boolean updateEvent(String eventId, String newName, String newDescription,
                              LocalDateTime newStartTime, LocalDateTime newEndTime) {
-        return calendarManager.updateEvent(eventId, newName, newDescription, 
-                                         newStartTime, newEndTime);
+        boolean updated = calendarManager.updateEvent(eventId, newName, newDescription,
+                                                      newStartTime, newEndTime);
+        // A rejected move may still have renamed the event
+        if (eventId != null) detailsCache.invalidate(eventId);
+        return updated;
     }
     
     /**
@@ -102,6 +328,7 @@ public class calendar_event_connector {
     public boolean addEventAttendee(String eventId, String attendeeId) {
         boolean added = calendarManager.addAttendee(eventId, attendeeId);
         if (added) {
+            detailsCache.invalidate(eventId);
             linkEventToUser(eventId, attendeeId);
         }
         return added;
@@ -113,11 +340,9 @@ public class calendar_event_connector {
     public boolean cancelEvent(String eventId) {
         boolean cancelled = calendarManager.cancelEvent(eventId);
         if (cancelled) {
-            eventTaskConnections.remove(eventId);
-            // Remove event from user connections
-            for (ArrayList<String> userEvents : userEventConnections.values()) {
-                userEvents.remove(eventId);
-            }
+            detailsCache.invalidate(eventId);
+            unlinkTask(eventId);
+            unlinkEvent(eventId);
         }
         return cancelled;
     }
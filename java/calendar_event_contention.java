@@ -0,0 +1,102 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CalendarEventContention races bookings against one calendar_event and
+ * checks that no user ends up double booked
+ * Each round releases THREADS threads at once, each booking a different
+ * but overlapping hour on the same user's day, so every pair conflicts and
+ * exactly one booking may win. Afterwards the user's events must not
+ * overlap. Rounds cycle over a few users and days to also exercise the day
+ * locks of neighbouring slots.
+ * Run with: java java.calendar_event_contention [rounds]
+ */
+final class calendar_event_contention {
+    private static final int THREADS = 8;
+    private static final int DEFAULT_ROUNDS = 2000;
+    private static final String[] USERS = {"amy", "ben", "cal"};
+    private static final int DAYS = 7;
+
+    private calendar_event_contention() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        calendar_event calendar = new calendar_event();
+        LocalDateTime firstDay = LocalDateTime.of(2030, 1, 7, 0, 0);
+        AtomicInteger booked = new AtomicInteger();
+        int doubleBooked = 0;
+        long started = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            String user = USERS[round % USERS.length];
+            // Every round gets its own slot, two hours apart and ten a day, the most a day allows
+            LocalDateTime slot = firstDay.plusDays(round / USERS.length % DAYS)
+                                         .plusYears(round / (USERS.length * DAYS * 10))
+                                         .plusHours(round / (USERS.length * DAYS) % 10 * 2);
+            int winners = race(calendar, user, slot, booked);
+            if (winners != 1) {
+                doubleBooked++;
+                System.out.println("Round " + round + ": " + winners + " bookings won " + user + " at " + slot);
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        int overlaps = countOverlaps(calendar, firstDay.minusDays(1), firstDay.plusYears(rounds / 200 + 2));
+        System.out.printf("%d rounds x %d threads in %.2fs: %d booked, %d rounds without exactly one winner,"
+                          + " %d overlapping events%n",
+                          rounds, THREADS, seconds, booked.get(), doubleBooked, overlaps);
+        if (doubleBooked > 0 || overlaps > 0) {
+            throw new IllegalStateException("Calendar double booked a slot");
+        }
+    }
+
+    /**
+     * Starts THREADS bookings of the hour after {@code slot} shifted by a few
+     * minutes each, all at the same moment
+     * @return int number of bookings that succeeded
+     */
+    private static int race(calendar_event calendar, String user, LocalDateTime slot, AtomicInteger booked)
+            throws InterruptedException {
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        AtomicInteger winners = new AtomicInteger();
+        for (int i = 0; i < THREADS; i++) {
+            LocalDateTime from = slot.plusMinutes(i * 5);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    if (calendar.createEvent("Booking", "", from, from.plusHours(1),
+                                             calendar_event.EventPriority.MEDIUM, user) != null) {
+                        winners.incrementAndGet();
+                        booked.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    System.out.println("Booking failed: " + e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+        return winners.get();
+    }
+
+    /**
+     * Number of events of each user that start before the previous one ends
+     */
+    private static int countOverlaps(calendar_event calendar, LocalDateTime from, LocalDateTime to) {
+        int overlaps = 0;
+        for (String user : USERS) {
+            ArrayList<calendar_event.CalendarEntry> entries = calendar.getEventsInRange(user, from, to);
+            for (int i = 1; i < entries.size(); i++) {
+                if (entries.get(i).getStart().isBefore(entries.get(i - 1).getEnd())) overlaps++;
+            }
+        }
+        return overlaps;
+    }
+}
@@ -0,0 +1,381 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ChangeStream is an ordered, in-process feed of task and event mutations
+ * Every change gets the next sequence number and lands in a fixed ring that
+ * retains the most recent changes. Publishing is lock-free and never waits.
+ * Consumers pull batches at their own pace from a position they own; an
+ * ordinary subscriber that falls further behind than the ring retains gets
+ * a Gap and must resynchronize from the stores.
+ * A durable subscriber instead holds the writers back: stores call
+ * awaitCapacity before taking the locks a mutation publishes under, and it
+ * waits while a durable subscriber is more than MAX_LAG of the capacity
+ * behind. The rest of the ring is headroom for writes already past that
+ * point, e.g. an import batch. A durable subscriber that holds writers up
+ * longer than MAX_LAG_WAIT_MILLIS is taken as stuck and released; it then
+ * reads on like an ordinary one and gets a Gap once it is overrun.
+ */
+public class change_stream {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    /** Share of the capacity a durable subscriber may fall behind before writers wait */
+    private static final double MAX_LAG = 0.75;
+    private static final long MAX_LAG_WAIT_MILLIS = 1000;
+
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+    private final AtomicLong lastClaimed;
+    private final AtomicInteger waiters;
+    private final ReentrantLock signalLock;
+    private final Condition published;
+    private final long maxLag;
+    private final CopyOnWriteArrayList<Subscription> durable;
+    private final AtomicInteger writersWaiting;
+    private final Condition consumed;
+
+    /**
+     * Where a change happened
+     */
+    public enum Source {
+        TASK,
+        EVENT
+    }
+
+    /**
+     * What kind of mutation a change records
+     */
+    public enum ChangeType {
+        CREATE,
+        UPDATE,
+        PROGRESS,
+        TAG,
+        ATTENDEE,
+        CANCEL,
+        DELETE
+    }
+
+    /**
+     * One published mutation, immutable once in the stream
+     */
+    public static final class Change {
+        private final long sequence;
+        private final long timestampMillis;
+        private final Source source;
+        private final ChangeType type;
+        private final String entityId;
+        private final String actor;
+        private final String detail;
+
+        private Change(long sequence, Source source, ChangeType type, String entityId,
+                       String actor, String detail) {
+            this.sequence = sequence;
+            this.timestampMillis = System.currentTimeMillis();
+            this.source = source;
+            this.type = type;
+            this.entityId = entityId;
+            this.actor = actor;
+            this.detail = detail;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return String public ID of the task or event that changed
+         */
+        public String getEntityId() {
+            return entityId;
+        }
+
+        /**
+         * @return String who made the change, null if unknown
+         */
+        public String getActor() {
+            return actor;
+        }
+
+        /**
+         * @return String change-specific value, e.g. the new progress or the added tag
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s %s %s%s", sequence, source, type, entityId,
+                                 detail == null ? "" : " " + detail);
+        }
+    }
+
+    /**
+     * Thrown when a subscriber asks for changes the ring no longer retains
+     */
+    public static class Gap extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+        private final long oldestAvailable;
+
+        Gap(long requested, long oldestAvailable) {
+            super("Change " + requested + " is no longer retained, oldest is " + oldestAvailable);
+            this.oldestAvailable = oldestAvailable;
+        }
+
+        /**
+         * @return long the oldest sequence number still in the stream
+         */
+        public long getOldestAvailable() {
+            return oldestAvailable;
+        }
+    }
+
+    /**
+     * A consumer's position in the stream, not safe for use by several threads at once
+     */
+    public final class Subscription {
+        // read by writers waiting for a durable subscriber
+        private volatile long position;
+
+        private Subscription(long position) {
+            this.position = position;
+        }
+
+        /**
+         * @return long the sequence number of the last change handed out
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Takes up to maxChanges changes that are already published, without waiting
+         * @throws Gap if this subscriber fell behind the retained window
+         */
+        public ArrayList<Change> poll(int maxChanges) {
+            ArrayList<Change> batch = new ArrayList<>(Math.min(maxChanges, 256));
+            while (batch.size() < maxChanges) {
+                Change change = read(position + 1);
+                if (change == null) break;
+                batch.add(change);
+                position = change.sequence;
+            }
+            if (!batch.isEmpty() && writersWaiting.get() > 0) {
+                signalLock.lock();
+                try {
+                    consumed.signalAll();
+                } finally {
+                    signalLock.unlock();
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * Takes up to maxChanges changes, waiting up to the timeout for the first one
+         * @throws Gap if this subscriber fell behind the retained window
+         */
+        public ArrayList<Change> poll(int maxChanges, long timeout, TimeUnit unit)
+                throws InterruptedException {
+            ArrayList<Change> batch = poll(maxChanges);
+            if (!batch.isEmpty() || maxChanges <= 0) return batch;
+            awaitPublished(position + 1, unit.toNanos(timeout));
+            return poll(maxChanges);
+        }
+
+        /**
+         * Stops holding writers back if this is a durable subscription
+         */
+        public void close() {
+            durable.remove(this);
+        }
+    }
+
+    public change_stream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of recent changes retained for slow or resuming subscribers
+     */
+    public change_stream(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.lastClaimed = new AtomicLong();
+        this.waiters = new AtomicInteger();
+        this.signalLock = new ReentrantLock();
+        this.published = signalLock.newCondition();
+        this.maxLag = (long) (size * MAX_LAG);
+        this.durable = new CopyOnWriteArrayList<>();
+        this.writersWaiting = new AtomicInteger();
+        this.consumed = signalLock.newCondition();
+    }
+
+    /**
+     * Appends a change and wakes waiting subscribers
+     * Callers publish while still holding the lock that ordered the mutation,
+     * so changes to the same entity appear in the order they were applied
+     * @return long the sequence number assigned to the change
+     */
+    long publish(Source source, ChangeType type, String entityId, String actor, String detail) {
+        long sequence = lastClaimed.incrementAndGet();
+        Change change = new Change(sequence, source, type, entityId, actor, detail);
+        int slot = (int) sequence & mask;
+        while (true) {
+            Change current = ring.get(slot);
+            if (current != null && current.sequence > sequence) break;
+            if (ring.compareAndSet(slot, current, change)) break;
+        }
+        if (waiters.get() > 0) {
+            signalLock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                signalLock.unlock();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Subscribes to changes made after the given sequence number, e.g. the
+     * last one a reconnecting client saw
+     * @throws Gap if changes after that point are no longer retained
+     */
+    public Subscription subscribe(long afterSequence) {
+        if (afterSequence < 0) {
+            throw new IllegalArgumentException("Sequence cannot be negative");
+        }
+        long oldest = oldestSequence();
+        if (afterSequence + 1 < oldest) {
+            throw new Gap(afterSequence + 1, oldest);
+        }
+        return new Subscription(Math.min(afterSequence, lastClaimed.get()));
+    }
+
+    /**
+     * Subscribes to changes published from now on
+     */
+    public Subscription subscribeFromNow() {
+        return new Subscription(lastClaimed.get());
+    }
+
+    /**
+     * Subscribes to changes published from now on, holding writers back in
+     * awaitCapacity rather than being overrun; close it when done
+     */
+    public Subscription subscribeDurable() {
+        Subscription subscription = new Subscription(lastClaimed.get());
+        durable.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Waits while a durable subscriber is too far behind to take more changes
+     * Callers must not hold locks a subscriber may need to make progress.
+     * A subscriber still too far behind after MAX_LAG_WAIT_MILLIS is released.
+     */
+    public void awaitCapacity() {
+        if (durable.isEmpty()) return;
+        long deadline = 0;
+        for (Subscription subscription : durable) {
+            if (lastClaimed.get() - subscription.position <= maxLag) continue;
+            if (deadline == 0) deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_LAG_WAIT_MILLIS);
+            if (!awaitConsumed(subscription, deadline)) {
+                durable.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * @return int number of durable subscriptions writers currently wait for
+     */
+    public int getDurableSubscriberCount() {
+        return durable.size();
+    }
+
+    /**
+     * @return long the sequence number of the newest change, 0 if there is none
+     */
+    public long latestSequence() {
+        return lastClaimed.get();
+    }
+
+    /**
+     * @return long the oldest sequence number a new subscription can still read
+     */
+    public long oldestSequence() {
+        return Math.max(1, lastClaimed.get() - mask);
+    }
+
+    /**
+     * The change with the given sequence number, or null if it is not published yet
+     */
+    private Change read(long sequence) {
+        Change change = ring.get((int) sequence & mask);
+        if (change != null && change.sequence == sequence) return change;
+        if (change != null && change.sequence > sequence || sequence < oldestSequence()) {
+            throw new Gap(sequence, oldestSequence());
+        }
+        return null;
+    }
+
+    /**
+     * @return boolean false if the subscriber was still too far behind at the deadline
+     */
+    private boolean awaitConsumed(Subscription subscription, long deadline) {
+        writersWaiting.incrementAndGet();
+        signalLock.lock();
+        try {
+            while (lastClaimed.get() - subscription.position > maxLag) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) return false;
+                consumed.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // The write goes ahead; the subscriber stays registered and may be overrun
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            signalLock.unlock();
+            writersWaiting.decrementAndGet();
+        }
+    }
+
+    private void awaitPublished(long sequence, long nanos) throws InterruptedException {
+        waiters.incrementAndGet();
+        signalLock.lock();
+        try {
+            while (nanos > 0 && read(sequence) == null) {
+                nanos = published.awaitNanos(nanos);
+            }
+        } finally {
+            signalLock.unlock();
+            waiters.decrementAndGet();
+        }
+    }
+}
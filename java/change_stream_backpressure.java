@@ -0,0 +1,108 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChangeStreamBackpressure checks that durable subscribers of change_stream
+ * hold writers back instead of being overrun
+ * WRITERS threads publish CHANGES_PER_WRITER changes each into a stream of
+ * CAPACITY, calling awaitCapacity first as the stores do, while one
+ * consumer reads slowly. A durable consumer must receive every change in
+ * order without a Gap, an ordinary one reading the same way must get a Gap.
+ * Finally a durable subscription that is never read must be released after
+ * the lag timeout, so writers go on, and then get a Gap itself.
+ * Run with: java java.change_stream_backpressure
+ */
+final class change_stream_backpressure {
+    private static final int CAPACITY = 1024;
+    private static final int WRITERS = 4;
+    private static final int CHANGES_PER_WRITER = 20_000;
+
+    private change_stream_backpressure() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        change_stream durableStream = new change_stream(CAPACITY);
+        String result = race(durableStream, durableStream.subscribeDurable());
+        System.out.println("Durable subscriber: " + result);
+        if (!result.startsWith("received")) {
+            throw new IllegalStateException("Durable subscriber was overrun");
+        }
+
+        change_stream ordinaryStream = new change_stream(CAPACITY);
+        result = race(ordinaryStream, ordinaryStream.subscribeFromNow());
+        System.out.println("Ordinary subscriber: " + result);
+        if (!result.startsWith("gap")) {
+            throw new IllegalStateException("Ordinary subscriber kept up, the run did not overrun anything");
+        }
+
+        change_stream stuckStream = new change_stream(CAPACITY);
+        change_stream.Subscription stuck = stuckStream.subscribeDurable();
+        long started = System.nanoTime();
+        publish(stuckStream, 0, 2 * CAPACITY);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.out.println("Stuck subscriber: writer held " + millis + " ms, durable subscribers left "
+                           + stuckStream.getDurableSubscriberCount());
+        if (stuckStream.getDurableSubscriberCount() != 0) {
+            throw new IllegalStateException("Stuck subscriber was not released");
+        }
+        try {
+            stuck.poll(CAPACITY);
+            throw new IllegalStateException("Released subscriber read overwritten changes");
+        } catch (change_stream.Gap expected) {
+            System.out.println("  then: " + expected.getMessage());
+        }
+    }
+
+    /**
+     * Runs the writers against one slow consumer
+     * @return String "received ..." if every change arrived in order, "gap ..." if the consumer was overrun
+     */
+    private static String race(change_stream stream, change_stream.Subscription subscription) throws Exception {
+        long maxLag = 0;
+        ArrayList<Thread> writers = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> publish(stream, writer, CHANGES_PER_WRITER), "writer-" + w);
+            writers.add(thread);
+            thread.start();
+        }
+        long expected = (long) WRITERS * CHANGES_PER_WRITER;
+        long received = 0;
+        try {
+            while (received < expected) {
+                ArrayList<change_stream.Change> batch = subscription.poll(64, 100, TimeUnit.MILLISECONDS);
+                for (change_stream.Change change : batch) {
+                    if (change.getSequence() != ++received) {
+                        throw new IllegalStateException("Expected change " + received + ", got " + change);
+                    }
+                }
+                maxLag = Math.max(maxLag, stream.latestSequence() - subscription.getPosition());
+                // A slow consumer: every batch takes a millisecond to handle
+                Thread.sleep(1);
+            }
+        } catch (change_stream.Gap e) {
+            subscription.close();
+            for (Thread thread : writers) {
+                thread.join();
+            }
+            return "gap after " + received + " of " + expected + " changes";
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        subscription.close();
+        return String.format("received %d changes in order in %.2fs, lag at most %d of %d", received,
+                             (System.nanoTime() - started) / 1e9, maxLag, CAPACITY);
+    }
+
+    private static void publish(change_stream stream, int writer, int changes) {
+        for (int i = 0; i < changes; i++) {
+            stream.awaitCapacity();
+            stream.publish(change_stream.Source.TASK, change_stream.ChangeType.PROGRESS, "TSK_" + writer,
+                           "writer-" + writer, String.valueOf(i));
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package java;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * EventDayIndex buckets scheduled events by calendar day for conflict checks
+ * Each day holds an interval tree of the events touching it, so an overlap
+ * check visits O(log n) events of the affected days instead of the whole
+ * calendar. An event spanning midnight is filed under every day it covers
+ * but counted only under the day it starts.
+ * calendar_event keeps one index per participant, so each user's schedule is
+ * checked and queried on its own.
+ */
+class event_day_index {
+    private final ConcurrentHashMap<Long, DayBucket> days;
+
+    /**
+     * Events touching one day plus the number starting on it
+     */
+    private static final class DayBucket {
+        private final IntervalTree intervals = new IntervalTree();
+        private int starting;
+    }
+
+    /**
+     * Treap of [start, end) intervals ordered by start, each node also tracking
+     * the latest end in its subtree so whole branches that end too early are skipped
+     * Node priorities are derived from the event ID, which keeps the tree
+     * balanced in expectation without a random number generator
+     */
+    private static final class IntervalTree {
+        private Node root;
+        private int size;
+
+        private static final class Node {
+            private final long start;
+            private final long end;
+            private final long id;
+            private final int priority;
+            private long maxEnd;
+            private Node left;
+            private Node right;
+
+            Node(long start, long end, long id) {
+                this.start = start;
+                this.end = end;
+                this.id = id;
+                this.priority = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+                this.maxEnd = end;
+            }
+
+            int compareTo(long otherStart, long otherId) {
+                return start != otherStart ? Long.compare(start, otherStart) : Long.compare(id, otherId);
+            }
+
+            void update() {
+                maxEnd = end;
+                if (left != null && left.maxEnd > maxEnd) maxEnd = left.maxEnd;
+                if (right != null && right.maxEnd > maxEnd) maxEnd = right.maxEnd;
+            }
+        }
+
+        void insert(long start, long end, long id) {
+            root = insert(root, new Node(start, end, id));
+            size++;
+        }
+
+        void remove(long start, long id) {
+            int before = size;
+            root = remove(root, start, id);
+            if (size == before) {
+                throw new IllegalStateException("Event " + id + " is not indexed at " + start);
+            }
+        }
+
+        /**
+         * @return boolean true if any interval other than {@code excludeId} overlaps [start, end)
+         */
+        boolean overlaps(long start, long end, long excludeId) {
+            return overlaps(root, start, end, excludeId);
+        }
+
+        private static Node insert(Node node, Node added) {
+            if (node == null) return added;
+            if (added.compareTo(node.start, node.id) < 0) {
+                node.left = insert(node.left, added);
+                if (node.left.priority > node.priority) node = rotateRight(node);
+            } else {
+                node.right = insert(node.right, added);
+                if (node.right.priority > node.priority) node = rotateLeft(node);
+            }
+            node.update();
+            return node;
+        }
+
+        private Node remove(Node node, long start, long id) {
+            if (node == null) return null;
+            int cmp = node.compareTo(start, id);
+            if (cmp > 0) {
+                node.left = remove(node.left, start, id);
+            } else if (cmp < 0) {
+                node.right = remove(node.right, start, id);
+            } else {
+                size--;
+                return merge(node.left, node.right);
+            }
+            node.update();
+            return node;
+        }
+
+        private static Node merge(Node left, Node right) {
+            if (left == null) return right;
+            if (right == null) return left;
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                left.update();
+                return left;
+            }
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+
+        /**
+         * Visits intervals overlapping [start, end) in start order, skipping those
+         * starting before {@code minStart}
+         */
+        void forEachOverlapping(long start, long end, long minStart, IntervalVisitor visitor) {
+            forEachOverlapping(root, start, end, minStart, visitor);
+        }
+
+        /**
+         * Visits the IDs of intervals starting at or after {@code minStart}
+         */
+        void forEachId(long minStart, LongConsumer action) {
+            forEachId(root, minStart, action);
+        }
+
+        private static void forEachId(Node node, long minStart, LongConsumer action) {
+            if (node == null) return;
+            if (node.start >= minStart) {
+                forEachId(node.left, minStart, action);
+                action.accept(node.id);
+            }
+            forEachId(node.right, minStart, action);
+        }
+
+        private static void forEachOverlapping(Node node, long start, long end, long minStart,
+                                               IntervalVisitor visitor) {
+            if (node == null || node.maxEnd <= start) return;
+            forEachOverlapping(node.left, start, end, minStart, visitor);
+            if (node.start >= end) return;
+            if (node.end > start && node.start >= minStart) visitor.visit(node.start, node.end, node.id);
+            forEachOverlapping(node.right, start, end, minStart, visitor);
+        }
+
+        private static boolean overlaps(Node node, long start, long end, long excludeId) {
+            while (node != null && node.maxEnd > start) {
+                if (node.start < end && node.end > start && node.id != excludeId) return true;
+                if (overlaps(node.left, start, end, excludeId)) return true;
+                if (node.start >= end) return false;
+                node = node.right;
+            }
+            return false;
+        }
+
+        private static Node rotateRight(Node node) {
+            Node pivot = node.left;
+            node.left = pivot.right;
+            pivot.right = node;
+            node.update();
+            pivot.update();
+            return pivot;
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node pivot = node.right;
+            node.right = pivot.left;
+            pivot.left = node;
+            node.update();
+            pivot.update();
+            return pivot;
+        }
+    }
+
+    /**
+     * Receives indexed events as [start, end) in epoch milliseconds
+     */
+    interface IntervalVisitor {
+        void visit(long start, long end, long eventId);
+    }
+
+    /**
+     * Growable list of [start, end) pairs in epoch milliseconds
+     */
+    static final class IntervalBuffer {
+        private long[] bounds = new long[16];
+        private int size;
+
+        void add(long start, long end) {
+            if (size * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[size * 2] = start;
+            bounds[size * 2 + 1] = end;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long start(int i) {
+            return bounds[i * 2];
+        }
+
+        long end(int i) {
+            return bounds[i * 2 + 1];
+        }
+
+        /**
+         * Clips the intervals to [from, to) and merges overlapping ones
+         * @return IntervalBuffer sorted, non-overlapping intervals
+         */
+        IntervalBuffer sortedAndMerged(long from, long to) {
+            Integer[] order = new Integer[size];
+            boolean sorted = true;
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                if (i > 0 && start(i) < start(i - 1)) sorted = false;
+            }
+            if (!sorted) {
+                Arrays.sort(order, (a, b) -> Long.compare(start(a), start(b)));
+            }
+            IntervalBuffer merged = new IntervalBuffer();
+            for (int i : order) {
+                long s = Math.max(start(i), from);
+                long e = Math.min(end(i), to);
+                if (s >= e) continue;
+                int last = merged.size - 1;
+                if (last >= 0 && s <= merged.end(last)) {
+                    merged.bounds[last * 2 + 1] = Math.max(merged.end(last), e);
+                } else {
+                    merged.add(s, e);
+                }
+            }
+            return merged;
+        }
+    }
+
+    event_day_index() {
+        this.days = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Files an event under every day it touches
+     * Callers serialize updates that touch the same days
+     */
+    void add(long eventId, LocalDateTime startTime, LocalDateTime endTime) {
+        long start = toMillis(startTime);
+        long end = toMillis(endTime);
+        long firstDay = startTime.toLocalDate().toEpochDay();
+        for (long day = firstDay; day <= lastDay(startTime, endTime); day++) {
+            DayBucket bucket = days.computeIfAbsent(day, k -> new DayBucket());
+            bucket.intervals.insert(start, end, eventId);
+            if (day == firstDay) bucket.starting++;
+        }
+    }
+
+    /**
+     * Drops an event filed with the given times, e.g. once it is cancelled or moved
+     */
+    void remove(long eventId, LocalDateTime startTime, LocalDateTime endTime) {
+        long start = toMillis(startTime);
+        long firstDay = startTime.toLocalDate().toEpochDay();
+        for (long day = firstDay; day <= lastDay(startTime, endTime); day++) {
+            DayBucket bucket = days.get(day);
+            if (bucket == null) continue;
+            bucket.intervals.remove(start, eventId);
+            if (day == firstDay) bucket.starting--;
+            if (bucket.intervals.size == 0) days.remove(day, bucket);
+        }
+    }
+
+    /**
+     * @param excludeId event to ignore, e.g. the one being rescheduled, or 0
+     * @return boolean true if an indexed event overlaps [startTime, endTime)
+     */
+    boolean overlaps(LocalDateTime startTime, LocalDateTime endTime, long excludeId) {
+        long start = toMillis(startTime);
+        long end = toMillis(endTime);
+        for (long day = startTime.toLocalDate().toEpochDay(); day <= lastDay(startTime, endTime); day++) {
+            DayBucket bucket = days.get(day);
+            if (bucket != null && bucket.intervals.overlaps(start, end, excludeId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Busy time within [from, to) as sorted, non-overlapping intervals clipped to the window
+     */
+    IntervalBuffer busy(LocalDateTime from, LocalDateTime to) {
+        IntervalBuffer raw = new IntervalBuffer();
+        forEachOverlapping(from, to, (start, end, eventId) -> raw.add(start, end));
+        return raw.sortedAndMerged(toMillis(from), toMillis(to));
+    }
+
+    /**
+     * Visits each indexed event overlapping [from, to) once, in start order
+     * Only the day buckets of the window are read, so a month view costs the
+     * events of that month rather than the whole calendar
+     */
+    void forEachOverlapping(LocalDateTime from, LocalDateTime to, IntervalVisitor visitor) {
+        long start = toMillis(from);
+        long end = toMillis(to);
+        long firstDay = from.toLocalDate().toEpochDay();
+        for (long day = firstDay; day <= lastDay(from, to); day++) {
+            DayBucket bucket = days.get(day);
+            if (bucket == null) continue;
+            // Past the first day only events starting that day are new, so the
+            // concatenation stays sorted by start and spans are reported once
+            long minStart = day == firstDay ? Long.MIN_VALUE
+                                            : toMillis(LocalDate.ofEpochDay(day).atStartOfDay());
+            bucket.intervals.forEachOverlapping(start, end, minStart, visitor);
+        }
+    }
+
+    /**
+     * @return long[] the ID of every indexed event, each listed once
+     */
+    long[] eventIds() {
+        long[][] ids = {new long[16]};
+        int[] count = new int[1];
+        days.forEach((day, bucket) -> {
+            // Each event is reported from the day it starts only
+            bucket.intervals.forEachId(toMillis(LocalDate.ofEpochDay(day).atStartOfDay()), id -> {
+                if (count[0] == ids[0].length) ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+                ids[0][count[0]++] = id;
+            });
+        });
+        return Arrays.copyOf(ids[0], count[0]);
+    }
+
+    /**
+     * @return int number of indexed events starting on the given day
+     */
+    int countStartingOn(LocalDate date) {
+        DayBucket bucket = days.get(date.toEpochDay());
+        return bucket == null ? 0 : bucket.starting;
+    }
+
+    /**
+     * Last day an interval touches; an event ending exactly at midnight does not touch the next day
+     */
+    static long lastDay(LocalDateTime startTime, LocalDateTime endTime) {
+        if (!endTime.isAfter(startTime)) return startTime.toLocalDate().toEpochDay();
+        return endTime.minusNanos(1).toLocalDate().toEpochDay();
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                                           Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+}
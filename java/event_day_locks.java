@@ -0,0 +1,95 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EventDayLocks guards calendar_event's per-user day indexes with striped
+ * read/write locks keyed by (user, day)
+ * A booking locks only the stripes of the days it touches, so bookings on
+ * different days, or by different users, rarely share a stripe and never wait
+ * on each other beyond that. Operations spanning many days, such as recurring
+ * events, lock every stripe. Stripes are always taken in ascending order, so
+ * operations holding several of them cannot deadlock.
+ */
+class event_day_locks {
+    private static final int STRIPES = 256;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    /**
+     * Stripes held by one operation, released together
+     */
+    static final class Held {
+        private final Lock[] locks;
+
+        private Held(Lock[] locks) {
+            this.locks = locks;
+        }
+
+        void unlock() {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    event_day_locks() {
+        this.stripes = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Locks the stripes of every day the given users have in the windows
+     * @param bounds pairs of [from, to) times
+     * @param exclusive true to modify the days, false to read them
+     */
+    Held lockDays(Collection<String> users, boolean exclusive, LocalDateTime... bounds) {
+        BitSet wanted = new BitSet(STRIPES);
+        for (int i = 0; i < bounds.length; i += 2) {
+            long firstDay = bounds[i].toLocalDate().toEpochDay();
+            long lastDay = event_day_index.lastDay(bounds[i], bounds[i + 1]);
+            if ((lastDay - firstDay + 1) * users.size() >= STRIPES) return lockAll(exclusive);
+            for (String user : users) {
+                int userHash = user.hashCode();
+                for (long day = firstDay; day <= lastDay; day++) {
+                    wanted.set(stripe(userHash, day));
+                }
+            }
+        }
+        return lock(wanted, exclusive);
+    }
+
+    /**
+     * Locks every stripe, e.g. for a recurring event or an admin freeze
+     */
+    Held lockAll(boolean exclusive) {
+        BitSet all = new BitSet(STRIPES);
+        all.set(0, STRIPES);
+        return lock(all, exclusive);
+    }
+
+    private Held lock(BitSet wanted, boolean exclusive) {
+        Lock[] locks = new Lock[wanted.cardinality()];
+        int held = 0;
+        for (int i = wanted.nextSetBit(0); i >= 0; i = wanted.nextSetBit(i + 1)) {
+            Lock lock = exclusive ? stripes[i].writeLock() : stripes[i].readLock();
+            lock.lock();
+            locks[held++] = lock;
+        }
+        return new Held(locks);
+    }
+
+    /**
+     * Consecutive days of one user map to distinct stripes
+     */
+    private static int stripe(int userHash, long day) {
+        long hash = userHash * 0x9E3779B97F4A7C15L + day * 0xC2B2AE3D27D4EB4FL;
+        return (int) hash & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,368 @@
+package java;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * EventDetailsCache is a bounded read-through cache of rendered event details
+ * Eviction follows W-TinyLFU: new entries enter a small LRU window, and an
+ * entry leaving the window only displaces the oldest entry of the main area
+ * if a frequency sketch says it is used more often. The main area is split
+ * into probation and protected segments, so entries read again are kept
+ * ahead of one-off reads and a scan of cold events cannot flush hot ones.
+ * Hits are served from a concurrent map; bookkeeping for a hit is skipped
+ * when another thread holds the policy lock, which keeps hot reads from
+ * queueing behind each other. Loads of the same key run once, and an
+ * invalidation waits for a load in progress, so a stale render never stays
+ * cached after invalidate returns.
+ */
+public class event_details_cache {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ConcurrentHashMap<String, Node> data;
+    private final ReentrantLock policyLock;
+    private final NodeList window;
+    private final NodeList probation;
+    private final NodeList protectedList;
+    private final FrequencySketch sketch;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder invalidations;
+
+    private static final class Node {
+        private final String key;
+        private final String value;
+        private int queue = -1;
+        private boolean removed;
+        private Node prev;
+        private Node next;
+
+        Node(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Access-ordered list of nodes, oldest first
+     */
+    private static final class NodeList {
+        private final Node head = new Node(null, null);
+        private int size;
+
+        NodeList() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addLast(Node node, int queue) {
+            node.queue = queue;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = -1;
+            size--;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, halved periodically so that past
+     * popularity fades
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * Math.max(capacity, 16);
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                int shift = offset(hash, i);
+                if (((table[index] >>> shift) & 0xfL) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            return (int) (h >>> 32) & (table.length - 1);
+        }
+
+        private static int offset(int hash, int i) {
+            return ((hash >>> (i * 8)) & 0xf) << 2;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+
+    /**
+     * Cache counters at one point in time
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+        private final int size;
+
+        Stats(long hits, long misses, long evictions, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return long entries dropped to stay within capacity
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return long entries dropped because their event changed
+         */
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return double share of reads served from the cache, 0 before any read
+         */
+        public double getHitRate() {
+            long reads = hits + misses;
+            return reads == 0 ? 0 : (double) hits / reads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRate=%.3f evictions=%d invalidations=%d size=%d",
+                                 hits, misses, getHitRate(), evictions, invalidations, size);
+        }
+    }
+
+    /**
+     * @param capacity maximum number of cached events
+     */
+    event_details_cache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.data = new ConcurrentHashMap<>();
+        this.policyLock = new ReentrantLock();
+        this.window = new NodeList();
+        this.probation = new NodeList();
+        this.protectedList = new NodeList();
+        this.sketch = new FrequencySketch(capacity);
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = mainCapacity * 4 / 5;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.invalidations = new LongAdder();
+    }
+
+    /**
+     * Returns the cached value for a key, loading it on a miss
+     * @param loader renders the value, or returns null for keys that should not be cached
+     */
+    String get(String key, Function<String, String> loader) {
+        Node node = data.get(key);
+        if (node != null) {
+            hits.increment();
+            if (policyLock.tryLock()) {
+                try {
+                    onHit(node);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return node.value;
+        }
+        Node[] created = new Node[1];
+        node = data.computeIfAbsent(key, k -> {
+            String value = loader.apply(k);
+            if (value == null) return null;
+            created[0] = new Node(k, value);
+            return created[0];
+        });
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (created[0] == null) {
+            // Another thread loaded it while we waited
+            hits.increment();
+            return node.value;
+        }
+        misses.increment();
+        policyLock.lock();
+        try {
+            sketch.increment(key);
+            if (!node.removed) onInsert(node);
+        } finally {
+            policyLock.unlock();
+        }
+        return node.value;
+    }
+
+    /**
+     * Drops a key, waiting for a load of it in progress
+     */
+    void invalidate(String key) {
+        Node node = data.remove(key);
+        if (node == null) return;
+        invalidations.increment();
+        policyLock.lock();
+        try {
+            node.removed = true;
+            unlink(node);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), data.size());
+    }
+
+    private void onHit(Node node) {
+        if (node.removed) return;
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                window.addLast(node, WINDOW);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedList.addLast(node, PROTECTED);
+                while (protectedList.size > protectedCapacity) {
+                    Node demoted = protectedList.first();
+                    protectedList.remove(demoted);
+                    probation.addLast(demoted, PROBATION);
+                }
+                break;
+            case PROTECTED:
+                protectedList.remove(node);
+                protectedList.addLast(node, PROTECTED);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds a loaded node to the window and settles the main area
+     */
+    private void onInsert(Node node) {
+        window.addLast(node, WINDOW);
+        if (window.size <= windowCapacity) return;
+        Node candidate = window.first();
+        window.remove(candidate);
+        probation.addLast(candidate, PROBATION);
+        while (probation.size + protectedList.size > mainCapacity) {
+            Node victim = probation.first();
+            if (victim == candidate) {
+                victim = protectedList.first();
+            }
+            if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                evict(candidate);
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(Node node) {
+        unlink(node);
+        node.removed = true;
+        if (data.remove(node.key, node)) {
+            evictions.increment();
+        }
+    }
+
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedList.remove(node);
+                break;
+            default:
+                break;
+        }
+    }
+}
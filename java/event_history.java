@@ -0,0 +1,231 @@
+package java;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * EventHistory is a bounded log of calendar activity
+ * Entries are numbered in order and stored column-wise in fixed-size
+ * segments: a timestamp in epoch millis, the internal event ID, an interned
+ * action code and the detail text. Strings are only built for entries that
+ * are actually read. Whole segments are dropped once the log holds more than
+ * its capacity or once their newest entry is older than the retention
+ * period, so a long-running instance keeps a steady footprint.
+ * Appends claim a number with one atomic increment and never block each other.
+ */
+public class event_history {
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+    private final AtomicLong nextSequence;
+    private final AtomicLong firstSegment;
+    private final int maxSegments;
+    private final long retentionMillis;
+    private final ConcurrentHashMap<String, Short> actionCodes;
+    private final CopyOnWriteArrayList<String> actionNames;
+
+    /**
+     * SEGMENT_SIZE consecutive entries; a slot is published once its timestamp is set
+     */
+    private static final class Segment {
+        private final AtomicLongArray timestamps = new AtomicLongArray(SEGMENT_SIZE);
+        private final long[] eventIds = new long[SEGMENT_SIZE];
+        private final short[] actions = new short[SEGMENT_SIZE];
+        private final String[] details = new String[SEGMENT_SIZE];
+
+        void write(int slot, long timestamp, long eventId, short action, String detail) {
+            eventIds[slot] = eventId;
+            actions[slot] = action;
+            details[slot] = detail;
+            timestamps.set(slot, timestamp);
+        }
+    }
+
+    /**
+     * One page of event history
+     */
+    public static class HistoryPage {
+        private final List<String> entries;
+        private final long nextCursor;
+        private final boolean hasMore;
+
+        HistoryPage(List<String> entries, long nextCursor, boolean hasMore) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * @return List<String> formatted entries, oldest first
+         */
+        public List<String> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return long cursor to pass back for the following page
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return boolean indicating if more entries follow this page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * @param capacity number of recent entries kept, rounded up to whole segments
+     * @param retention how long entries are kept, 0 to keep them until capacity is reached
+     */
+    event_history(int capacity, long retention, TimeUnit unit) {
+        if (capacity <= 0 || retention < 0) {
+            throw new IllegalArgumentException("Capacity must be positive and retention non-negative");
+        }
+        this.segments = new ConcurrentSkipListMap<>();
+        this.nextSequence = new AtomicLong();
+        this.firstSegment = new AtomicLong();
+        this.maxSegments = (capacity + SEGMENT_SIZE - 1) >>> SEGMENT_BITS;
+        this.retentionMillis = unit.toMillis(retention);
+        this.actionCodes = new ConcurrentHashMap<>();
+        this.actionNames = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Records an activity
+     * @param eventId internal event ID, 0 for calendar-wide activity
+     */
+    void append(long eventId, String action, String details) {
+        long now = System.currentTimeMillis();
+        long sequence = nextSequence.getAndIncrement();
+        Segment segment = segmentFor(sequence >>> SEGMENT_BITS, now);
+        if (segment != null) {
+            segment.write((int) sequence & SEGMENT_MASK, now, eventId, code(action), details);
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} entries starting at {@code cursor}, optionally
+     * only those of one event
+     * A cursor pointing at entries that were already dropped resumes at the
+     * oldest one still kept, and entries past the retention period are skipped
+     * even before their segment is dropped
+     * @param eventId internal event ID to filter by, or -1 for every entry
+     * @param cursor 0 for the first page, otherwise the cursor of the previous page
+     */
+    HistoryPage page(long eventId, long cursor, int limit) {
+        if (cursor < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Cursor must be non-negative and limit positive");
+        }
+        ArrayList<String> entries = new ArrayList<>(Math.min(limit, 256));
+        long expiredBefore = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : 0;
+        long end = nextSequence.get();
+        long next = Math.max(cursor, firstSegment.get() << SEGMENT_BITS);
+        Segment segment = null;
+        while (next < end && entries.size() < limit) {
+            int slot = (int) next & SEGMENT_MASK;
+            if (segment == null || slot == 0) {
+                segment = segments.get(next >>> SEGMENT_BITS);
+                if (segment == null) {
+                    // Dropped while reading, continue with the next segment
+                    next = ((next >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+                    continue;
+                }
+            }
+            long timestamp = segment.timestamps.get(slot);
+            if (timestamp == 0) break;
+            if (timestamp >= expiredBefore && (eventId < 0 || segment.eventIds[slot] == eventId)) {
+                entries.add(format(timestamp, segment.eventIds[slot], segment.actions[slot],
+                                   segment.details[slot]));
+            }
+            next++;
+        }
+        return new HistoryPage(entries, next, next < end);
+    }
+
+    /**
+     * Formats every entry still kept, oldest first
+     */
+    ArrayList<String> history() {
+        ArrayList<String> result = new ArrayList<>();
+        long cursor = 0;
+        HistoryPage page;
+        do {
+            page = page(-1, cursor, SEGMENT_SIZE);
+            result.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (page.hasMore() && !page.getEntries().isEmpty());
+        return result;
+    }
+
+    /**
+     * Segment for an entry, created on first use; null if it was already dropped
+     */
+    private Segment segmentFor(long number, long now) {
+        Segment segment = segments.get(number);
+        if (segment != null) return segment;
+        if (number < firstSegment.get()) return null;
+        Segment created = new Segment();
+        segment = segments.putIfAbsent(number, created);
+        if (segment != null) return segment;
+        evict(number, now);
+        return created;
+    }
+
+    /**
+     * Drops the oldest segments beyond capacity or past the retention period
+     * Only full segments behind the newest one are considered, so at least
+     * capacity entries are kept besides the segment being filled
+     */
+    private void evict(long newest, long now) {
+        Map.Entry<Long, Segment> oldest;
+        while ((oldest = segments.firstEntry()) != null && oldest.getKey() < newest) {
+            long number = oldest.getKey();
+            boolean overCapacity = newest - number > maxSegments;
+            long lastWrite = oldest.getValue().timestamps.get(SEGMENT_MASK);
+            boolean expired = retentionMillis > 0 && lastWrite != 0 && lastWrite < now - retentionMillis;
+            if (!overCapacity && !expired) return;
+            firstSegment.accumulateAndGet(number + 1, Math::max);
+            segments.remove(number, oldest.getValue());
+        }
+    }
+
+    private short code(String action) {
+        Short code = actionCodes.get(action);
+        if (code != null) return code;
+        return actionCodes.computeIfAbsent(action, name -> {
+            synchronized (actionNames) {
+                if (actionNames.size() > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many distinct history actions");
+                }
+                actionNames.add(name);
+                return (short) (actionNames.size() - 1);
+            }
+        });
+    }
+
+    private String format(long timestamp, long eventId, short action, String details) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+        return String.format("[%s] Event: %s - Action: %s - Details: %s", time.format(TIME_FORMAT),
+                             eventId == 0 ? "SYSTEM" : calendar_event.formatEventId(eventId),
+                             actionNames.get(action), details);
+    }
+}
@@ -0,0 +1,555 @@
+package java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+
+/**
+ * EventICal reads and writes iCalendar (RFC 5545) data over NIO channels
+ * Both directions stream: the reader holds one buffer of input plus the
+ * event being parsed, the writer one buffer of output, so file size does not
+ * affect memory. Only the subset calendar_event can represent is mapped:
+ * VEVENT summary, description, location, times, priority, and DAILY or
+ * WEEKLY recurrence with exceptions. Everything else is skipped.
+ */
+class event_ical {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_LINE_CHARS = 1 << 20;
+    private static final int MAX_LINE_OCTETS = 75;
+    private static final DateTimeFormatter LOCAL_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String[] DAY_CODES = {"MO", "TU", "WE", "TH", "FR", "SA", "SU"};
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] FOLD = {'\r', '\n', ' '};
+
+    private event_ical() {
+    }
+
+    /**
+     * One VEVENT mapped onto calendar_event's model
+     */
+    static final class ParsedEvent {
+        String summary;
+        String description;
+        String location;
+        LocalDateTime start;
+        LocalDateTime end;
+        calendar_event.EventPriority priority = calendar_event.EventPriority.MEDIUM;
+        event_recurrence recurrence;
+        private boolean dateOnly;
+        private Duration duration;
+        private boolean cancelled;
+        private boolean unsupported;
+        private final ArrayList<LocalDateTime> exceptions = new ArrayList<>();
+        /** EXDATE;VALUE=DATE entries, which skip whatever occurrence falls on the day */
+        private final ArrayList<LocalDate> exceptionDates = new ArrayList<>();
+    }
+
+    /**
+     * Pull parser handing out one event at a time
+     */
+    static final class Reader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer bytes;
+        private final CharBuffer chars;
+        private final CharsetDecoder decoder;
+        private final StringBuilder line;
+        private boolean endOfInput;
+        private boolean flushed;
+        private String lookahead;
+        private int skipped;
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            this.chars = CharBuffer.allocate(BUFFER_SIZE);
+            this.chars.flip();
+            this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.line = new StringBuilder(256);
+        }
+
+        /**
+         * @return int number of events that were malformed, cancelled or used unsupported features
+         */
+        int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return ParsedEvent the next importable event, or null at the end of the input
+         */
+        ParsedEvent next() throws IOException {
+            ParsedEvent event = null;
+            int nestedDepth = 0;
+            String contentLine;
+            while ((contentLine = readContentLine()) != null) {
+                int colon = valueStart(contentLine);
+                if (colon < 0) continue;
+                String head = contentLine.substring(0, colon);
+                String value = contentLine.substring(colon + 1);
+                int semicolon = head.indexOf(';');
+                String name = (semicolon < 0 ? head : head.substring(0, semicolon)).toUpperCase();
+                String params = semicolon < 0 ? "" : head.substring(semicolon + 1);
+
+                if (name.equals("BEGIN")) {
+                    if (event == null && value.equalsIgnoreCase("VEVENT")) {
+                        event = new ParsedEvent();
+                    } else if (event != null) {
+                        nestedDepth++;
+                    }
+                } else if (name.equals("END") && event != null) {
+                    if (nestedDepth > 0) {
+                        nestedDepth--;
+                    } else if (value.equalsIgnoreCase("VEVENT")) {
+                        if (complete(event)) return event;
+                        skipped++;
+                        event = null;
+                    }
+                } else if (event != null && nestedDepth == 0) {
+                    applyProperty(event, name, params, value);
+                }
+            }
+            if (event != null) skipped++;
+            return null;
+        }
+
+        private void applyProperty(ParsedEvent event, String name, String params, String value) {
+            try {
+                switch (name) {
+                    case "SUMMARY":
+                        event.summary = unescape(value);
+                        break;
+                    case "DESCRIPTION":
+                        event.description = unescape(value);
+                        break;
+                    case "LOCATION":
+                        event.location = unescape(value);
+                        break;
+                    case "DTSTART":
+                        event.start = parseTime(value, params);
+                        event.dateOnly = value.indexOf('T') < 0;
+                        break;
+                    case "DTEND":
+                        event.end = parseTime(value, params);
+                        break;
+                    case "DURATION":
+                        event.duration = parseDuration(value);
+                        break;
+                    case "PRIORITY":
+                        event.priority = toPriority(Integer.parseInt(value.trim()));
+                        break;
+                    case "STATUS":
+                        event.cancelled = value.trim().equalsIgnoreCase("CANCELLED");
+                        break;
+                    case "RRULE":
+                        event.recurrence = parseRule(value);
+                        if (event.recurrence == null) event.unsupported = true;
+                        break;
+                    case "EXDATE":
+                        for (String time : value.split(",")) {
+                            if (time.indexOf('T') < 0) {
+                                event.exceptionDates.add(LocalDate.parse(time.trim(), DATE_FORMAT));
+                            } else {
+                                event.exceptions.add(parseTime(time, params));
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (DateTimeException | IllegalArgumentException e) {
+                event.unsupported = true;
+            }
+        }
+
+        /**
+         * Fills in defaults and checks the event can be stored
+         */
+        private boolean complete(ParsedEvent event) {
+            if (event.start == null || event.cancelled || event.unsupported) return false;
+            if (event.end == null) {
+                if (event.duration != null) {
+                    event.end = event.start.plus(event.duration);
+                } else {
+                    event.end = event.dateOnly ? event.start.plusDays(1) : event.start;
+                }
+            }
+            if (event.end.isBefore(event.start)) return false;
+            // Daily and weekly rules have at most one occurrence a day, starting at the series' time of day
+            for (LocalDate date : event.exceptionDates) {
+                event.exceptions.add(date.atTime(event.start.toLocalTime()));
+            }
+            if (event.recurrence != null && !event.exceptions.isEmpty()) {
+                event.recurrence = event.recurrence.except(event.exceptions.toArray(new LocalDateTime[0]));
+            }
+            if (event.summary == null) event.summary = "";
+            return true;
+        }
+
+        /**
+         * Reads one logical line, joining folded continuation lines
+         */
+        private String readContentLine() throws IOException {
+            String current = lookahead != null ? lookahead : readPhysicalLine();
+            lookahead = null;
+            if (current == null) return null;
+            StringBuilder unfolded = null;
+            while (true) {
+                String following = readPhysicalLine();
+                if (following != null && !following.isEmpty()
+                        && (following.charAt(0) == ' ' || following.charAt(0) == '\t')) {
+                    if (unfolded == null) unfolded = new StringBuilder(current);
+                    if (unfolded.length() < MAX_LINE_CHARS) unfolded.append(following, 1, following.length());
+                    continue;
+                }
+                lookahead = following;
+                return unfolded == null ? current : unfolded.toString();
+            }
+        }
+
+        private String readPhysicalLine() throws IOException {
+            line.setLength(0);
+            boolean sawInput = false;
+            while (true) {
+                if (!chars.hasRemaining() && !fill()) {
+                    return sawInput ? line.toString() : null;
+                }
+                sawInput = true;
+                char c = chars.get();
+                if (c == '\n') {
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') line.setLength(last);
+                    return line.toString();
+                }
+                if (line.length() < MAX_LINE_CHARS) line.append(c);
+            }
+        }
+
+        /**
+         * Decodes the next chunk of the channel into the char buffer
+         * @return boolean false once the input is exhausted
+         */
+        private boolean fill() throws IOException {
+            if (flushed) return false;
+            chars.clear();
+            while (chars.position() == 0 && !flushed) {
+                if (!endOfInput && channel.read(bytes) < 0) {
+                    endOfInput = true;
+                }
+                bytes.flip();
+                decoder.decode(bytes, chars, endOfInput);
+                bytes.compact();
+                if (endOfInput) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+            }
+            chars.flip();
+            return chars.hasRemaining();
+        }
+    }
+
+    /**
+     * Streaming writer for one VCALENDAR
+     */
+    static final class Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        private final String stamp;
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.stamp = LocalDateTime.now(ZoneOffset.UTC).format(LOCAL_FORMAT) + "Z";
+        }
+
+        void begin() throws IOException {
+            writeLine("BEGIN:VCALENDAR");
+            writeLine("VERSION:2.0");
+            writeLine("PRODID:-//TaskMatrix//Calendar//EN");
+        }
+
+        void writeEvent(String uid, String summary, String description, String location,
+                        LocalDateTime start, LocalDateTime end, calendar_event.EventPriority priority,
+                        event_recurrence recurrence) throws IOException {
+            writeLine("BEGIN:VEVENT");
+            writeLine("UID:" + uid);
+            writeLine("DTSTAMP:" + stamp);
+            writeLine("DTSTART:" + start.format(LOCAL_FORMAT));
+            writeLine("DTEND:" + end.format(LOCAL_FORMAT));
+            writeLine("SUMMARY:" + escape(summary));
+            if (description != null && !description.isEmpty()) {
+                writeLine("DESCRIPTION:" + escape(description));
+            }
+            if (location != null) {
+                writeLine("LOCATION:" + escape(location));
+            }
+            writeLine("PRIORITY:" + fromPriority(priority));
+            if (recurrence != null) {
+                writeLine("RRULE:" + formatRule(recurrence));
+                for (LocalDateTime skipped : recurrence.getExceptions()) {
+                    writeLine("EXDATE:" + skipped.format(LOCAL_FORMAT));
+                }
+            }
+            writeLine("END:VEVENT");
+        }
+
+        void finish() throws IOException {
+            writeLine("END:VCALENDAR");
+            drain();
+        }
+
+        /**
+         * Writes a content line, folding it at 75 octets without splitting a UTF-8 sequence
+         */
+        private void writeLine(String contentLine) throws IOException {
+            byte[] encoded = contentLine.getBytes(StandardCharsets.UTF_8);
+            int offset = 0;
+            int limit = MAX_LINE_OCTETS;
+            while (encoded.length - offset > limit) {
+                int cut = offset + limit;
+                while ((encoded[cut] & 0xC0) == 0x80) cut--;
+                put(encoded, offset, cut - offset);
+                put(FOLD, 0, FOLD.length);
+                offset = cut;
+                limit = MAX_LINE_OCTETS - 1;
+            }
+            put(encoded, offset, encoded.length - offset);
+            put(CRLF, 0, 2);
+        }
+
+        private void put(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) drain();
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(data, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Position of the colon separating name and parameters from the value,
+     * ignoring colons inside quoted parameter values
+     */
+    private static int valueStart(String contentLine) {
+        boolean quoted = false;
+        for (int i = 0; i < contentLine.length(); i++) {
+            char c = contentLine.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ':' && !quoted) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a DATE or DATE-TIME value to local time; UTC and TZID times are
+     * shifted into the system zone, floating times are taken as they are
+     */
+    private static LocalDateTime parseTime(String value, String params) {
+        value = value.trim();
+        if (value.indexOf('T') < 0) {
+            return LocalDate.parse(value, DATE_FORMAT).atStartOfDay();
+        }
+        boolean utc = value.endsWith("Z");
+        LocalDateTime time = LocalDateTime.parse(utc ? value.substring(0, value.length() - 1) : value,
+                                                 LOCAL_FORMAT);
+        ZoneId zone = utc ? ZoneOffset.UTC : zoneParam(params);
+        return zone == null ? time : time.atZone(zone).withZoneSameInstant(ZoneId.systemDefault())
+                                         .toLocalDateTime();
+    }
+
+    private static ZoneId zoneParam(String params) {
+        for (String param : params.split(";")) {
+            if (param.regionMatches(true, 0, "TZID=", 0, 5)) {
+                String id = param.substring(5).replace("\"", "");
+                try {
+                    return ZoneId.of(id);
+                } catch (DateTimeException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Duration parseDuration(String value) {
+        String trimmed = value.trim();
+        int weeks = trimmed.indexOf('W');
+        if (weeks > 0) {
+            boolean negative = trimmed.startsWith("-");
+            long count = Long.parseLong(trimmed.substring(negative ? 2 : 1, weeks));
+            return Duration.ofDays((negative ? -7 : 7) * count);
+        }
+        return Duration.parse(trimmed);
+    }
+
+    /**
+     * Maps an RRULE to event_recurrence, or null if it uses features that cannot be represented
+     */
+    private static event_recurrence parseRule(String value) {
+        String frequency = null;
+        int interval = 1;
+        ArrayList<DayOfWeek> days = new ArrayList<>();
+        LocalDateTime until = null;
+        long count = 0;
+        for (String part : value.trim().split(";")) {
+            int eq = part.indexOf('=');
+            if (eq < 0) return null;
+            String key = part.substring(0, eq).toUpperCase();
+            String arg = part.substring(eq + 1);
+            switch (key) {
+                case "FREQ":
+                    frequency = arg.toUpperCase();
+                    break;
+                case "INTERVAL":
+                    interval = Integer.parseInt(arg);
+                    break;
+                case "COUNT":
+                    count = Long.parseLong(arg);
+                    break;
+                case "UNTIL":
+                    until = arg.indexOf('T') < 0
+                        ? LocalDate.parse(arg, DATE_FORMAT).atTime(23, 59, 59)
+                        : parseTime(arg, "");
+                    break;
+                case "BYDAY":
+                    for (String code : arg.split(",")) {
+                        DayOfWeek day = dayOf(code);
+                        if (day == null) return null;
+                        days.add(day);
+                    }
+                    break;
+                case "WKST":
+                    break;
+                default:
+                    return null;
+            }
+        }
+        event_recurrence rule;
+        if ("DAILY".equals(frequency) && days.isEmpty()) {
+            rule = event_recurrence.daily(interval);
+        } else if ("WEEKLY".equals(frequency)) {
+            rule = event_recurrence.weekly(interval, days.toArray(new DayOfWeek[0]));
+        } else {
+            return null;
+        }
+        if (until != null) rule = rule.until(until);
+        if (count > 0) rule = rule.count(count);
+        return rule;
+    }
+
+    private static String formatRule(event_recurrence rule) {
+        StringBuilder value = new StringBuilder("FREQ=").append(rule.getFrequency().name());
+        if (rule.getInterval() > 1) value.append(";INTERVAL=").append(rule.getInterval());
+        DayOfWeek[] days = rule.getByDay();
+        if (days != null) {
+            value.append(";BYDAY=");
+            for (int i = 0; i < days.length; i++) {
+                if (i > 0) value.append(',');
+                value.append(DAY_CODES[days[i].ordinal()]);
+            }
+        }
+        if (rule.getUntil() != null) value.append(";UNTIL=").append(rule.getUntil().format(LOCAL_FORMAT));
+        if (rule.getCount() > 0) value.append(";COUNT=").append(rule.getCount());
+        return value.toString();
+    }
+
+    /**
+     * Parses a plain weekday code such as "MO"; ordinal forms like "1MO" are not supported
+     */
+    private static DayOfWeek dayOf(String code) {
+        for (int i = 0; i < DAY_CODES.length; i++) {
+            if (DAY_CODES[i].equalsIgnoreCase(code.trim())) return DayOfWeek.of(i + 1);
+        }
+        return null;
+    }
+
+    /**
+     * iCalendar priorities run from 1 (highest) to 9 (lowest), 0 meaning undefined
+     */
+    private static calendar_event.EventPriority toPriority(int priority) {
+        if (priority <= 0) return calendar_event.EventPriority.MEDIUM;
+        if (priority <= 2) return calendar_event.EventPriority.URGENT;
+        if (priority <= 4) return calendar_event.EventPriority.HIGH;
+        if (priority <= 6) return calendar_event.EventPriority.MEDIUM;
+        return calendar_event.EventPriority.LOW;
+    }
+
+    private static int fromPriority(calendar_event.EventPriority priority) {
+        if (priority == null) return 0;
+        switch (priority) {
+            case URGENT:
+                return 1;
+            case HIGH:
+                return 3;
+            case MEDIUM:
+                return 5;
+            default:
+                return 9;
+        }
+    }
+
+    private static String escape(String text) {
+        if (text == null) return "";
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    escaped.append('\\').append(c);
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) return text;
+        StringBuilder plain = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                plain.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package java;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * EventICalImportBenchmark streams a large iCalendar feed through
+ * calendar_event.importICalendar and reports its speed and memory
+ * It writes EVENTS events to a temporary .ics file, several MB with folded
+ * description lines, EVENTS_PER_DAY a day so the daily limit is never hit.
+ * Every CONFLICT_EVERY-th event repeats the previous slot and must be
+ * counted as a conflict, every CANCELLED_EVERY-th is cancelled and must be
+ * skipped. The file is then imported from a FileChannel. It prints events/s,
+ * MB/s and the heap before, at its peak during, and after the import; the
+ * peak over what stays allocated shows that the feed is never held whole.
+ * Run with: java -Xmx512m java.event_ical_import_benchmark [events]
+ */
+final class event_ical_import_benchmark {
+    private static final int EVENTS = 40_000;
+    private static final int EVENTS_PER_DAY = 8;
+    private static final int CONFLICT_EVERY = 100;
+    private static final int CANCELLED_EVERY = 250;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private event_ical_import_benchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : EVENTS;
+        Path feed = Files.createTempFile("import-benchmark", ".ics");
+        try {
+            int[] expected = writeFeed(feed, events);
+            double megabytes = Files.size(feed) / (1024.0 * 1024.0);
+            calendar_event calendar = new calendar_event();
+            long before = usedHeapAfterGc();
+            resetPeaks();
+            long started = System.nanoTime();
+            calendar_event.ImportResult result;
+            try (FileChannel in = FileChannel.open(feed, StandardOpenOption.READ)) {
+                result = calendar.importICalendar(in, "importer");
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            long peak = peakHeap();
+            long after = usedHeapAfterGc();
+            System.out.printf("Imported %.1f MB, %d events in %.2fs: %.0f events/s, %.1f MB/s%n",
+                              megabytes, events, seconds, events / seconds, megabytes / seconds);
+            System.out.println("  " + result);
+            System.out.printf("  heap: %d MB before, %d MB peak, %d MB after with the imported events%n",
+                              before >> 20, peak >> 20, after >> 20);
+            if (result.getImported() != expected[0] || result.getConflicts() != expected[1]
+                || result.getSkipped() != expected[2]) {
+                throw new IllegalStateException("Expected " + expected[0] + " imported, " + expected[1]
+                                                + " conflicts and " + expected[2] + " skipped");
+            }
+        } finally {
+            Files.deleteIfExists(feed);
+        }
+    }
+
+    /**
+     * Writes the feed
+     * @return int[] expected numbers of imported, conflicting and skipped events
+     */
+    private static int[] writeFeed(Path feed, int events) throws IOException {
+        int[] expected = new int[3];
+        LocalDateTime firstDay = LocalDateTime.now().plusYears(1).withHour(8).withMinute(0).withSecond(0).withNano(0);
+        try (BufferedWriter out = Files.newBufferedWriter(feed, StandardCharsets.UTF_8)) {
+            out.write("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//TaskMatrix//Import benchmark//EN\r\n");
+            int slot = 0;
+            for (int i = 1; i <= events; i++) {
+                boolean conflict = i % CONFLICT_EVERY == 0;
+                boolean cancelled = !conflict && i % CANCELLED_EVERY == 0;
+                // A conflict reuses the previous slot, any other event takes the next one
+                int eventSlot = conflict ? slot - 1 : slot++;
+                LocalDateTime start = firstDay.plusDays(eventSlot / EVENTS_PER_DAY)
+                                              .plusHours(eventSlot % EVENTS_PER_DAY);
+                out.write("BEGIN:VEVENT\r\n");
+                out.write("UID:benchmark-" + i + "@taskmatrix\r\n");
+                out.write("DTSTART:" + TIME_FORMAT.format(start) + "\r\n");
+                out.write("DTEND:" + TIME_FORMAT.format(start.plusMinutes(50)) + "\r\n");
+                out.write("SUMMARY:Lecture " + i + "\\, week " + (eventSlot / EVENTS_PER_DAY / 7 + 1) + "\r\n");
+                writeFolded(out, "DESCRIPTION:Reading for lecture " + i + ": chapters " + (i % 12 + 1)
+                                 + " and " + (i % 12 + 2) + "\\; bring the exercise sheet\\, your notes"
+                                 + " and questions from the last tutorial. Slides are uploaded after the session.");
+                out.write("LOCATION:Building " + (i % 7) + "\\, room " + (100 + i % 40) + "\r\n");
+                out.write("PRIORITY:5\r\n");
+                if (cancelled) out.write("STATUS:CANCELLED\r\n");
+                out.write("END:VEVENT\r\n");
+                expected[conflict ? 1 : cancelled ? 2 : 0]++;
+            }
+            out.write("END:VCALENDAR\r\n");
+        }
+        return expected;
+    }
+
+    /**
+     * Writes a content line folded at 75 characters, as RFC 5545 asks
+     */
+    private static void writeFolded(BufferedWriter out, String line) throws IOException {
+        int start = 0;
+        int limit = 75;
+        while (line.length() - start > limit) {
+            out.write(line, start, limit);
+            out.write("\r\n ");
+            start += limit;
+            limit = 74;
+        }
+        out.write(line, start, line.length() - start);
+        out.write("\r\n");
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return long sum of the heap pools' peaks since the reset, an upper bound of the heap's peak
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
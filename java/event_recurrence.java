@@ -0,0 +1,256 @@
+package java;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * EventRecurrence describes how an event repeats, e.g. a lecture every Monday
+ * and Wednesday until the end of term
+ * A rule is immutable and stores only its parameters, so a series costs the
+ * same memory however many times it repeats. Occurrences are numbered from
+ * the first one and the n-th occurrence is computed directly, which lets
+ * iteration start at any window without stepping through earlier occurrences.
+ * Excluded occurrences still count towards the occurrence limit.
+ */
+public final class event_recurrence {
+    private final Frequency frequency;
+    private final int interval;
+    private final DayOfWeek[] byDay;
+    private final LocalDateTime until;
+    private final long count;
+    private final Set<LocalDateTime> exceptions;
+
+    /**
+     * Enum for how often a rule repeats
+     */
+    public enum Frequency {
+        DAILY,
+        WEEKLY
+    }
+
+    private event_recurrence(Frequency frequency, int interval, DayOfWeek[] byDay,
+                             LocalDateTime until, long count, Set<LocalDateTime> exceptions) {
+        this.frequency = frequency;
+        this.interval = interval;
+        this.byDay = byDay;
+        this.until = until;
+        this.count = count;
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * Repeats every {@code interval} days
+     */
+    public static event_recurrence daily(int interval) {
+        checkInterval(interval);
+        return new event_recurrence(Frequency.DAILY, interval, null, null, 0, Collections.emptySet());
+    }
+
+    /**
+     * Repeats every {@code interval} weeks on the given weekdays, or on the
+     * weekday of the first occurrence if none are given
+     */
+    public static event_recurrence weekly(int interval, DayOfWeek... days) {
+        checkInterval(interval);
+        DayOfWeek[] sorted = null;
+        if (days != null && days.length > 0) {
+            sorted = EnumSet.copyOf(Arrays.asList(days)).toArray(new DayOfWeek[0]);
+        }
+        return new event_recurrence(Frequency.WEEKLY, interval, sorted, null, 0, Collections.emptySet());
+    }
+
+    /**
+     * @return event_recurrence this rule, ending with the last occurrence starting at or before {@code last}
+     */
+    public event_recurrence until(LocalDateTime last) {
+        return new event_recurrence(frequency, interval, byDay, last, count, exceptions);
+    }
+
+    /**
+     * @return event_recurrence this rule, ending after {@code occurrences} occurrences
+     */
+    public event_recurrence count(long occurrences) {
+        if (occurrences <= 0) {
+            throw new IllegalArgumentException("Occurrence count must be positive");
+        }
+        return new event_recurrence(frequency, interval, byDay, until, occurrences, exceptions);
+    }
+
+    /**
+     * @return event_recurrence this rule, skipping the occurrences starting at the given times
+     */
+    public event_recurrence except(LocalDateTime... occurrenceStarts) {
+        HashSet<LocalDateTime> skipped = new HashSet<>(exceptions);
+        skipped.addAll(Arrays.asList(occurrenceStarts));
+        return new event_recurrence(frequency, interval, byDay, until, count,
+                                    Collections.unmodifiableSet(skipped));
+    }
+
+    /**
+     * @return boolean true if the rule produces an occurrence starting at the given time
+     */
+    public boolean occursAt(LocalDateTime seriesStart, LocalDateTime occurrenceStart) {
+        Iterator<LocalDateTime> it = occurrences(seriesStart, occurrenceStart, occurrenceStart.plusNanos(1));
+        return it.hasNext();
+    }
+
+    /**
+     * Lazily lists occurrence start times within [from, to), in order
+     * @param seriesStart start of the first occurrence
+     */
+    public Iterator<LocalDateTime> occurrences(LocalDateTime seriesStart, LocalDateTime from,
+                                               LocalDateTime to) {
+        return new OccurrenceIterator(seriesStart, from, to);
+    }
+
+    Frequency getFrequency() {
+        return frequency;
+    }
+
+    int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return DayOfWeek[] the rule's weekdays in week order, or null for the first occurrence's weekday
+     */
+    DayOfWeek[] getByDay() {
+        return byDay == null ? null : byDay.clone();
+    }
+
+    LocalDateTime getUntil() {
+        return until;
+    }
+
+    /**
+     * @return long the occurrence limit, 0 if there is none
+     */
+    long getCount() {
+        return count;
+    }
+
+    Set<LocalDateTime> getExceptions() {
+        return exceptions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder rule = new StringBuilder(frequency.name());
+        if (interval > 1) rule.append(" every ").append(interval);
+        if (byDay != null) rule.append(" on ").append(Arrays.toString(byDay));
+        if (until != null) rule.append(" until ").append(until);
+        if (count > 0) rule.append(" for ").append(count).append(" occurrences");
+        if (!exceptions.isEmpty()) rule.append(" except ").append(exceptions.size());
+        return rule.toString();
+    }
+
+    /**
+     * Start of the occurrence with the given number, ignoring limits and exceptions
+     */
+    private LocalDateTime startOf(LocalDateTime seriesStart, long index) {
+        if (frequency == Frequency.DAILY) {
+            return seriesStart.plusDays(index * interval);
+        }
+        DayOfWeek[] days = daysFor(seriesStart);
+        long position = index + skippedInFirstWeek(seriesStart, days);
+        LocalDate week = firstMonday(seriesStart).plusWeeks(position / days.length * interval);
+        return week.plusDays(days[(int) (position % days.length)].ordinal()).atTime(seriesStart.toLocalTime());
+    }
+
+    /**
+     * Number of the first occurrence starting at or after {@code from}
+     */
+    private long firstIndexFrom(LocalDateTime seriesStart, LocalDateTime from) {
+        long index;
+        if (frequency == Frequency.DAILY) {
+            long days = ChronoUnit.DAYS.between(seriesStart.toLocalDate(), from.toLocalDate());
+            index = Math.max(0, Math.floorDiv(days, interval));
+        } else {
+            DayOfWeek[] days = daysFor(seriesStart);
+            long weeks = ChronoUnit.WEEKS.between(firstMonday(seriesStart), from.toLocalDate());
+            long cycles = Math.max(0, Math.floorDiv(weeks, interval));
+            index = Math.max(0, cycles * days.length - skippedInFirstWeek(seriesStart, days));
+        }
+        while (startOf(seriesStart, index).isBefore(from)) {
+            index++;
+        }
+        return index;
+    }
+
+    private DayOfWeek[] daysFor(LocalDateTime seriesStart) {
+        return byDay != null ? byDay : new DayOfWeek[] {seriesStart.getDayOfWeek()};
+    }
+
+    /**
+     * Rule weekdays in the first week that fall before the series starts
+     */
+    private static int skippedInFirstWeek(LocalDateTime seriesStart, DayOfWeek[] days) {
+        int skipped = 0;
+        for (DayOfWeek day : days) {
+            if (day.compareTo(seriesStart.getDayOfWeek()) < 0) skipped++;
+        }
+        return skipped;
+    }
+
+    private static LocalDate firstMonday(LocalDateTime seriesStart) {
+        return seriesStart.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private static void checkInterval(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+    }
+
+    /**
+     * Walks occurrences of one window, computing each start on demand
+     */
+    private final class OccurrenceIterator implements Iterator<LocalDateTime> {
+        private final LocalDateTime seriesStart;
+        private final LocalDateTime to;
+        private long index;
+        private LocalDateTime next;
+
+        OccurrenceIterator(LocalDateTime seriesStart, LocalDateTime from, LocalDateTime to) {
+            this.seriesStart = seriesStart;
+            this.to = to;
+            this.index = firstIndexFrom(seriesStart, from);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (count == 0 || index < count) {
+                LocalDateTime candidate = startOf(seriesStart, index++);
+                if (!candidate.isBefore(to) || (until != null && candidate.isAfter(until))) return;
+                if (!exceptions.contains(candidate)) {
+                    next = candidate;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public LocalDateTime next() {
+            if (next == null) throw new NoSuchElementException();
+            LocalDateTime current = next;
+            advance();
+            return current;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * EventTaskQuery describes a query over events joined to their linked tasks,
+ * e.g. "this week's events whose task is under 50% complete"
+ * Predicates are set fluently and every one that is set must hold. The
+ * connector decides which side drives the join: the time window and user are
+ * pushed into the calendar's day index, due-date bounds into the task
+ * deadline index, and the remaining predicates are checked on each pair.
+ * Due-date predicates only match open tasks, as the deadline index holds no others.
+ */
+public class event_task_query {
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String userId;
+    private EnumSet<calendar_event.EventPriority> eventPriorities;
+    private HashSet<String> taskStatuses;
+    private HashSet<String> taskPriorities;
+    private int minProgress;
+    private int maxProgress = 100;
+    private LocalDateTime dueFrom;
+    private LocalDateTime dueBefore;
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * One event occurrence and the task it is linked to
+     */
+    public static class Row {
+        private final calendar_event.CalendarEntry event;
+        private final all_task.TaskSummary task;
+
+        Row(calendar_event.CalendarEntry event, all_task.TaskSummary task) {
+            this.event = event;
+            this.task = task;
+        }
+
+        public calendar_event.CalendarEntry getEvent() {
+            return event;
+        }
+
+        public all_task.TaskSummary getTask() {
+            return task;
+        }
+
+        @Override
+        public String toString() {
+            return event + " -> " + task;
+        }
+    }
+
+    /**
+     * Rows of a query together with the plan that produced them
+     */
+    public static class Result {
+        private final List<Row> rows;
+        private final String plan;
+
+        Result(List<Row> rows, String plan) {
+            this.rows = Collections.unmodifiableList(rows);
+            this.plan = plan;
+        }
+
+        public List<Row> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return String join strategy used, e.g. "HASH_JOIN", for diagnostics
+         */
+        public String getPlan() {
+            return plan;
+        }
+    }
+
+    /**
+     * Only event occurrences overlapping [from, to)
+     */
+    public event_task_query eventsBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("Event window must be a non-empty range");
+        }
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Only events the user organizes or attends
+     */
+    public event_task_query forUser(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public event_task_query eventPriorities(calendar_event.EventPriority... priorities) {
+        this.eventPriorities = EnumSet.noneOf(calendar_event.EventPriority.class);
+        Collections.addAll(eventPriorities, priorities);
+        return this;
+    }
+
+    /**
+     * Only tasks in one of the given statuses, e.g. "IN_PROGRESS"
+     */
+    public event_task_query taskStatuses(String... statuses) {
+        this.taskStatuses = upperCase(statuses);
+        return this;
+    }
+
+    /**
+     * Only tasks with one of the given priorities, e.g. "HIGH"
+     */
+    public event_task_query taskPriorities(String... priorities) {
+        this.taskPriorities = upperCase(priorities);
+        return this;
+    }
+
+    /**
+     * Only tasks whose completion percentage lies in [min, max]
+     */
+    public event_task_query taskProgressBetween(int min, int max) {
+        if (min < 0 || max > 100 || min > max) {
+            throw new IllegalArgumentException("Progress bounds must satisfy 0 <= min <= max <= 100");
+        }
+        this.minProgress = min;
+        this.maxProgress = max;
+        return this;
+    }
+
+    /**
+     * Only open tasks due within [from, before), either bound may be null
+     */
+    public event_task_query tasksDue(LocalDateTime from, LocalDateTime before) {
+        if (from == null && before == null) {
+            throw new IllegalArgumentException("At least one due-date bound is required");
+        }
+        this.dueFrom = from;
+        this.dueBefore = before;
+        return this;
+    }
+
+    /**
+     * Only open tasks that are already overdue
+     */
+    public event_task_query tasksOverdue() {
+        return tasksDue(null, LocalDateTime.now());
+    }
+
+    /**
+     * @param limit maximum number of rows to return
+     */
+    public event_task_query limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    LocalDateTime getFrom() {
+        return from;
+    }
+
+    LocalDateTime getTo() {
+        return to;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    LocalDateTime getDueFrom() {
+        return dueFrom;
+    }
+
+    LocalDateTime getDueBefore() {
+        return dueBefore;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    boolean hasEventWindow() {
+        return from != null;
+    }
+
+    boolean hasDueRange() {
+        return dueFrom != null || dueBefore != null;
+    }
+
+    /**
+     * Checks the event predicates the chosen plan could not push into an index
+     */
+    boolean matchesEvent(calendar_event.CalendarEntry event) {
+        if (eventPriorities != null && !eventPriorities.contains(event.getPriority())) return false;
+        if (from != null && (!event.getStart().isBefore(to) || !event.getEnd().isAfter(from))) return false;
+        return true;
+    }
+
+    /**
+     * Checks the task predicates, including due bounds already applied by an index
+     */
+    boolean matchesTask(all_task.TaskSummary task) {
+        if (taskStatuses != null && !taskStatuses.contains(task.getStatus())) return false;
+        if (taskPriorities != null && !taskPriorities.contains(task.getPriority())) return false;
+        int progress = task.getCompletionPercentage();
+        if (progress < minProgress || progress > maxProgress) return false;
+        if (hasDueRange()) {
+            LocalDateTime due = task.getDueDate();
+            if (due == null || "COMPLETED".equals(task.getStatus())) return false;
+            if (dueFrom != null && due.isBefore(dueFrom)) return false;
+            if (dueBefore != null && !due.isBefore(dueBefore)) return false;
+        }
+        return true;
+    }
+
+    private static HashSet<String> upperCase(String[] values) {
+        HashSet<String> set = new HashSet<>();
+        for (String value : values) {
+            if (value != null) set.add(value.toUpperCase(Locale.ROOT));
+        }
+        return set;
+    }
+}
@@ -0,0 +1,469 @@
+package java;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * HttpEventLoop serves the connections handed to it by server on one
+ * selector thread
+ * The loop thread only does I/O and parsing. Each complete request goes
+ * through the server's admission_control, which runs it on the handler
+ * executor, since handlers may block, or sheds it; either way its response
+ * is queued back to the loop. Responses of a connection are written in
+ * request order however the handlers finish. Pipelined GETs
+ * run concurrently; any other request waits for those before it and holds
+ * back those after it, so changes apply in the order they were sent.
+ * A connection stops being read while MAX_IN_FLIGHT of its requests are
+ * running or its client is not reading the queued responses, and
+ * connections idle for IDLE_TIMEOUT_MILLIS are closed.
+ * A handler may answer with an event stream instead, which turns the
+ * connection into a Server-Sent Events channel written from other threads.
+ * Reads go through one buffer per loop and a connection only keeps a
+ * buffer of its own while it holds a partial request, so idle keep-alive
+ * and stream connections cost little memory.
+ */
+final class http_event_loop implements Runnable {
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_QUEUED_BYTES = 256 * 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = 60_000;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_IN_FLIGHT = 64;
+
+    private final Selector selector;
+    private final Function<http_request, http_response> handler;
+    private final admission_control admission;
+    private final ConcurrentLinkedQueue<SocketChannel> accepted;
+    private final ConcurrentLinkedQueue<Connection> completed;
+    private final AtomicBoolean wakeupPending;
+    private final ByteBuffer scratch;
+    private volatile boolean running;
+    private long dateSecond = -1;
+    private String date;
+
+    /**
+     * State of one client connection, only touched by the loop thread
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer in;
+        private final ArrayDeque<Exchange> inFlight = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private http_request held;
+        private int unsafeInFlight;
+        private long queuedBytes;
+        private boolean lastRequestRead;
+        private boolean inputClosed;
+        private boolean closeAfterFlush;
+        private EventStream stream;
+        private long lastActive;
+
+        Connection(SocketChannel channel, SelectionKey key, long now) {
+            this.channel = channel;
+            this.key = key;
+            this.lastActive = now;
+        }
+    }
+
+    /**
+     * A request being handled; the response is set by the handler thread
+     */
+    private static final class Exchange {
+        private final boolean keepAlive;
+        private final boolean safe;
+        private volatile http_response response;
+
+        Exchange(boolean keepAlive, boolean safe) {
+            this.keepAlive = keepAlive;
+            this.safe = safe;
+        }
+    }
+
+    /**
+     * The open end of a Server-Sent Events response, written from any thread
+     * Frames are queued for the loop to write. A client that falls more than
+     * MAX_QUEUED_BYTES behind is disconnected; it resumes when it reconnects.
+     */
+    static final class EventStream {
+        private final http_event_loop loop;
+        private final Connection connection;
+        private final ConcurrentLinkedQueue<ByteBuffer> frames;
+        private final AtomicLong pendingBytes;
+        private volatile boolean open;
+
+        private EventStream(http_event_loop loop, Connection connection) {
+            this.loop = loop;
+            this.connection = connection;
+            this.frames = new ConcurrentLinkedQueue<>();
+            this.pendingBytes = new AtomicLong();
+            this.open = true;
+        }
+
+        /**
+         * Queues a frame; the buffer must not be modified afterwards
+         * @return boolean false if the stream is closed and the frame was dropped
+         */
+        boolean send(ByteBuffer frame) {
+            if (!open) return false;
+            if (pendingBytes.addAndGet(frame.remaining()) > MAX_QUEUED_BYTES) {
+                close();
+                return false;
+            }
+            frames.add(frame);
+            loop.signal(connection);
+            return true;
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        void close() {
+            open = false;
+            loop.signal(connection);
+        }
+    }
+
+    /**
+     * @param admission runs the handlers or sheds their requests under load
+     */
+    http_event_loop(Function<http_request, http_response> handler, admission_control admission) {
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open selector", e);
+        }
+        this.handler = handler;
+        this.admission = admission;
+        this.accepted = new ConcurrentLinkedQueue<>();
+        this.completed = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean();
+        this.scratch = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        this.running = true;
+    }
+
+    /**
+     * Hands a newly accepted connection to this loop, callable from any thread
+     */
+    void register(SocketChannel channel) {
+        accepted.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the loop; it closes its connections before the thread exits
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                wakeupPending.set(false);
+                long now = System.currentTimeMillis();
+                registerAccepted(now);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) flush(connection);
+                        if (key.isValid() && key.isReadable()) onReadable(connection, now);
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+                Connection connection;
+                while ((connection = completed.poll()) != null) {
+                    if (!connection.key.isValid()) continue;
+                    try {
+                        onCompleted(connection, now);
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+                if (now - lastSweep >= SELECT_TIMEOUT_MILLIS) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Event loop failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerAccepted(long now) {
+        SocketChannel channel;
+        while ((channel = accepted.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key, now));
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void onReadable(Connection connection, long now) throws IOException {
+        ByteBuffer buffer = connection.in != null ? connection.in : scratch;
+        int read = connection.channel.read(buffer);
+        if (read < 0) {
+            // The client is done sending; answer what it already sent, then close
+            connection.inputClosed = true;
+        } else if (connection.stream != null) {
+            // A stream's client has nothing more to say; reads only detect it leaving
+            buffer.clear();
+        } else {
+            connection.lastActive = now;
+            connection.in = buffer;
+            parseRequests(connection);
+        }
+        flush(connection);
+    }
+
+    /**
+     * Queues the responses that are ready, in request order, and resumes
+     * parsing requests held back by MAX_IN_FLIGHT
+     */
+    private void onCompleted(Connection connection, long now) throws IOException {
+        if (connection.stream != null) {
+            onStreamFrames(connection);
+            return;
+        }
+        Exchange head;
+        while ((head = connection.inFlight.peek()) != null && head.response != null) {
+            connection.inFlight.poll();
+            if (!head.safe) connection.unsafeInFlight--;
+            queueResponse(connection, head.response, head.keepAlive);
+            connection.lastActive = now;
+            if (head.response.isEventStream()) {
+                startStream(connection, head.response);
+                return;
+            }
+        }
+        parseRequests(connection);
+        flush(connection);
+    }
+
+    /**
+     * Switches a connection to streaming; requests pipelined behind the
+     * stream can never be answered and are dropped
+     */
+    private void startStream(Connection connection, http_response response) throws IOException {
+        connection.inFlight.clear();
+        connection.unsafeInFlight = 0;
+        connection.held = null;
+        connection.in = null;
+        connection.lastRequestRead = true;
+        connection.stream = new EventStream(this, connection);
+        response.openStream(connection.stream);
+        onStreamFrames(connection);
+    }
+
+    private void onStreamFrames(Connection connection) throws IOException {
+        EventStream stream = connection.stream;
+        ByteBuffer frame;
+        while ((frame = stream.frames.poll()) != null) {
+            stream.pendingBytes.addAndGet(-frame.remaining());
+            connection.out.add(frame);
+            connection.queuedBytes += frame.remaining();
+        }
+        if (!stream.open || connection.queuedBytes > MAX_QUEUED_BYTES) {
+            close(connection);
+            return;
+        }
+        flush(connection);
+    }
+
+    /**
+     * Dispatches the complete requests in the read buffer, up to MAX_IN_FLIGHT
+     * A request that must wait for those in flight is kept parsed until they finish
+     */
+    private void parseRequests(Connection connection) {
+        ByteBuffer buffered = connection.in;
+        if (buffered != null) buffered.flip();
+        boolean incomplete = false;
+        try {
+            while (!connection.lastRequestRead && connection.inFlight.size() < MAX_IN_FLIGHT) {
+                http_request request = connection.held;
+                if (request == null && buffered != null) request = http_request.parse(buffered);
+                if (request == null) {
+                    incomplete = true;
+                    break;
+                }
+                if (!connection.inFlight.isEmpty() && (!request.isSafe() || connection.unsafeInFlight > 0)) {
+                    connection.held = request;
+                    break;
+                }
+                connection.held = null;
+                Exchange exchange = new Exchange(request.isKeepAlive(), request.isSafe());
+                connection.inFlight.add(exchange);
+                if (!exchange.safe) connection.unsafeInFlight++;
+                connection.lastRequestRead = !request.isKeepAlive();
+                dispatch(connection, exchange, request);
+            }
+        } catch (http_request.Malformed e) {
+            Exchange exchange = new Exchange(false, true);
+            exchange.response = http_response.error(e.getStatus(), e.getMessage());
+            connection.inFlight.add(exchange);
+            connection.lastRequestRead = true;
+            completed.add(connection);
+        }
+        if (buffered == null) return;
+        buffered.compact();
+        if (buffered.position() == 0) {
+            connection.in = null;
+        } else if (buffered == scratch || (incomplete && !buffered.hasRemaining())) {
+            // Keep the partial request; a request larger than the buffer is
+            // bounded by the parser's size limits
+            int capacity = buffered.hasRemaining() ? READ_BUFFER_BYTES : buffered.capacity() * 2;
+            connection.in = ByteBuffer.allocate(capacity).put(buffered.flip());
+        }
+        scratch.clear();
+    }
+
+    private void dispatch(Connection connection, Exchange exchange, http_request request) {
+        http_response shed = admission.submit(request, () -> {
+            exchange.response = handle(request);
+            signal(connection);
+        }, response -> {
+            exchange.response = response;
+            signal(connection);
+        });
+        if (shed != null) {
+            exchange.response = shed;
+            completed.add(connection);
+        }
+    }
+
+    /**
+     * Queues a connection for onCompleted, waking the loop unless a wakeup is already pending
+     */
+    private void signal(Connection connection) {
+        completed.add(connection);
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    private http_response handle(http_request request) {
+        try {
+            return handler.apply(request);
+        } catch (RuntimeException e) {
+            return http_response.error(500, "Internal server error");
+        }
+    }
+
+    private void queueResponse(Connection connection, http_response response, boolean keepAlive) {
+        ByteBuffer encoded = response.encode(keepAlive, currentDate());
+        connection.out.add(encoded);
+        connection.queuedBytes += encoded.remaining();
+        if (!keepAlive) connection.closeAfterFlush = true;
+    }
+
+    /**
+     * Writes as much of the queued output as the socket takes, then picks the
+     * interest set: write while output is pending, read while the connection
+     * has room for more requests, nothing parsed is waiting and the client
+     * keeps up with the responses
+     */
+    private void flush(Connection connection) throws IOException {
+        while (!connection.out.isEmpty()) {
+            ByteBuffer[] pending = connection.out.toArray(new ByteBuffer[0]);
+            long written = connection.channel.write(pending);
+            connection.queuedBytes -= written;
+            while (!connection.out.isEmpty() && !connection.out.peek().hasRemaining()) {
+                connection.out.poll();
+            }
+            if (written == 0) break;
+        }
+        boolean finished = connection.closeAfterFlush
+            || (connection.inputClosed && connection.inFlight.isEmpty());
+        if (connection.out.isEmpty() && finished) {
+            close(connection);
+            return;
+        }
+        int interest = connection.out.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        if (connection.stream != null) {
+            if (!connection.inputClosed) interest |= SelectionKey.OP_READ;
+        } else if (!connection.lastRequestRead && !connection.inputClosed
+                && connection.inFlight.size() < MAX_IN_FLIGHT && connection.queuedBytes <= MAX_QUEUED_BYTES
+                && connection.held == null && (connection.in == null || connection.in.hasRemaining())) {
+            // A held request or a full buffer would make every read return 0 and spin the loop
+            interest |= SelectionKey.OP_READ;
+        }
+        connection.key.interestOps(interest);
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && connection.stream == null && connection.inFlight.isEmpty()
+                    && now - connection.lastActive > IDLE_TIMEOUT_MILLIS) {
+                close(connection);
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null) close(connection);
+        }
+        SocketChannel channel;
+        while ((channel = accepted.poll()) != null) {
+            closeQuietly(channel);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    private static void close(Connection connection) {
+        if (connection.stream != null) connection.stream.open = false;
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The peer is gone either way
+        }
+    }
+
+    /**
+     * Date header value, formatted at most once per second
+     */
+    private String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != dateSecond) {
+            dateSecond = second;
+            date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+        }
+        return date;
+    }
+}
@@ -0,0 +1,234 @@
+package java;
+
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HttpRequest is one parsed HTTP/1.1 request read by server's event loops
+ * Requests are parsed straight from a connection's read buffer. A request
+ * is only consumed once its headers and its Content-Length body have fully
+ * arrived, so pipelined requests are taken off the buffer one at a time and
+ * a partial one simply waits for the next read. Chunked request bodies are
+ * not supported; the front end always sends a length.
+ */
+final class http_request {
+    static final int MAX_HEADER_BYTES = 8192;
+    static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final String method;
+    private final String path;
+    private final Map<String, String> query;
+    private final Map<String, String> headers;
+    private final String body;
+    private final boolean keepAlive;
+
+    /**
+     * A request that cannot be served, carrying the status to answer it with
+     */
+    static final class Malformed extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        Malformed(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    private http_request(String method, String path, Map<String, String> query,
+                         Map<String, String> headers, String body, boolean keepAlive) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return boolean true for GET and HEAD, which may run alongside other requests
+     */
+    boolean isSafe() {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * @return String decoded path without the query string, e.g. "/api/tasks"
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return String decoded query parameter, null if absent
+     */
+    String getParameter(String name) {
+        return query.get(name);
+    }
+
+    /**
+     * @param name header name in lower case, e.g. "last-event-id"
+     * @return String the header's value, null if absent
+     */
+    String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return String request body decoded as UTF-8, empty if there is none
+     */
+    String getBody() {
+        return body;
+    }
+
+    /**
+     * @return boolean true if the connection stays open after the response
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Parses the request at the front of a heap buffer in read mode
+     * @return http_request the request, with its bytes consumed from the buffer,
+     *         or null if it has not fully arrived yet
+     * @throws Malformed if the request is invalid or too large
+     */
+    static http_request parse(ByteBuffer in) {
+        byte[] bytes = in.array();
+        int start = in.arrayOffset() + in.position();
+        int limit = in.arrayOffset() + in.limit();
+        int headerEnd = findHeaderEnd(bytes, start, limit);
+        if (headerEnd < 0) {
+            if (limit - start > MAX_HEADER_BYTES) throw new Malformed(431, "Request headers too large");
+            return null;
+        }
+        if (headerEnd - start > MAX_HEADER_BYTES) throw new Malformed(431, "Request headers too large");
+        String head = new String(bytes, start, headerEnd - start, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r?\n");
+
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || requestLine[0].isEmpty() || !requestLine[1].startsWith("/")) {
+            throw new Malformed(400, "Malformed request line");
+        }
+        boolean http11;
+        if ("HTTP/1.1".equals(requestLine[2])) {
+            http11 = true;
+        } else if ("HTTP/1.0".equals(requestLine[2])) {
+            http11 = false;
+        } else {
+            throw new Malformed(505, "Unsupported HTTP version");
+        }
+
+        HashMap<String, String> headers = new HashMap<>();
+        long contentLength = 0;
+        boolean close = false;
+        boolean keepAliveRequested = false;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0) throw new Malformed(400, "Malformed header");
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            headers.putIfAbsent(name, value);
+            switch (name) {
+                case "content-length":
+                    contentLength = parseContentLength(value);
+                    break;
+                case "transfer-encoding":
+                    throw new Malformed(501, "Transfer-Encoding is not supported");
+                case "connection":
+                    for (String token : value.toLowerCase(Locale.ROOT).split(",")) {
+                        if ("close".equals(token.trim())) close = true;
+                        if ("keep-alive".equals(token.trim())) keepAliveRequested = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (contentLength > MAX_BODY_BYTES) throw new Malformed(413, "Request body too large");
+
+        int bodyStart = skipHeaderEnd(bytes, headerEnd);
+        if (limit - bodyStart < contentLength) return null;
+        String body = contentLength == 0 ? ""
+            : new String(bytes, bodyStart, (int) contentLength, StandardCharsets.UTF_8);
+        in.position(bodyStart + (int) contentLength - in.arrayOffset());
+
+        String target = requestLine[1];
+        int question = target.indexOf('?');
+        String path = decode(question < 0 ? target : target.substring(0, question), true);
+        Map<String, String> query = question < 0 ? Collections.emptyMap()
+                                                 : parseQuery(target.substring(question + 1));
+        boolean keepAlive = http11 ? !close : keepAliveRequested && !close;
+        return new http_request(requestLine[0], path, query, headers, body, keepAlive);
+    }
+
+    /**
+     * Offset of the blank line ending the headers, -1 if it has not arrived
+     */
+    private static int findHeaderEnd(byte[] bytes, int start, int limit) {
+        for (int i = start; i < limit - 1; i++) {
+            if (bytes[i] == '\n' && (bytes[i + 1] == '\n'
+                    || (bytes[i + 1] == '\r' && i + 2 < limit && bytes[i + 2] == '\n'))) {
+                return i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipHeaderEnd(byte[] bytes, int headerEnd) {
+        int i = headerEnd;
+        for (int newlines = 0; newlines < 2; i++) {
+            if (bytes[i] == '\n') newlines++;
+        }
+        return i;
+    }
+
+    private static long parseContentLength(String value) {
+        if (value.isEmpty() || value.length() > 10) throw new Malformed(400, "Invalid Content-Length");
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                throw new Malformed(400, "Invalid Content-Length");
+            }
+        }
+        return Long.parseLong(value);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        HashMap<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int equals = pair.indexOf('=');
+            String name = decode(equals < 0 ? pair : pair.substring(0, equals), false);
+            String value = equals < 0 ? "" : decode(pair.substring(equals + 1), false);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    /**
+     * Percent-decodes a path or query component; '+' means a space only in queries
+     */
+    private static String decode(String value, boolean path) {
+        if (value.indexOf('%') < 0 && (path || value.indexOf('+') < 0)) return value;
+        try {
+            return URLDecoder.decode(path ? value.replace("+", "%2B") : value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new Malformed(400, "Malformed percent-encoding");
+        }
+    }
+}
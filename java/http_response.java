@@ -0,0 +1,113 @@
+package java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * HttpResponse is a complete response produced by server_api, encoded
+ * into a single buffer so pipelined responses can be written in one go,
+ * or the head of a Server-Sent Events stream that stays open
+ */
+final class http_response {
+    private final int status;
+    private final byte[] body;
+    private final Consumer<http_event_loop.EventStream> streamOpener;
+    private final int retryAfterSeconds;
+
+    private http_response(int status, byte[] body, Consumer<http_event_loop.EventStream> streamOpener,
+                          int retryAfterSeconds) {
+        this.status = status;
+        this.body = body;
+        this.streamOpener = streamOpener;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * A JSON response
+     */
+    static http_response json(int status, String json) {
+        return new http_response(status, json.getBytes(StandardCharsets.UTF_8), null, 0);
+    }
+
+    /**
+     * A text/event-stream response; the connection stays open and serves no further requests
+     * @param opener receives the stream once its headers are queued, on the event loop thread
+     */
+    static http_response eventStream(Consumer<http_event_loop.EventStream> opener) {
+        return new http_response(200, new byte[0], opener, 0);
+    }
+
+    /**
+     * A JSON error of the form {"error": message}
+     */
+    static http_response error(int status, String message) {
+        return json(status, json_codec.appendString(new StringBuilder("{\"error\":"), message)
+                                      .append('}').toString());
+    }
+
+    /**
+     * The same response telling the client when to try again, e.g. for a 429 or 503
+     */
+    http_response withRetryAfter(int seconds) {
+        return new http_response(status, body, streamOpener, seconds);
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    boolean isEventStream() {
+        return streamOpener != null;
+    }
+
+    void openStream(http_event_loop.EventStream stream) {
+        streamOpener.accept(stream);
+    }
+
+    /**
+     * @param date value of the Date header, in RFC 1123 format
+     * @return ByteBuffer status line, headers and body, ready to write
+     */
+    ByteBuffer encode(boolean keepAlive, String date) {
+        StringBuilder head = new StringBuilder(160);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+            .append("Date: ").append(date).append("\r\n");
+        if (isEventStream()) {
+            head.append("Content-Type: text/event-stream; charset=utf-8\r\n")
+                .append("Cache-Control: no-cache\r\n")
+                .append("X-Accel-Buffering: no\r\n");
+        } else {
+            head.append("Content-Type: application/json; charset=utf-8\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n");
+            if (!keepAlive) head.append("Connection: close\r\n");
+        }
+        if (retryAfterSeconds > 0) head.append("Retry-After: ").append(retryAfterSeconds).append("\r\n");
+        head.append("\r\n");
+        ByteBuffer out = ByteBuffer.allocate(head.length() + body.length);
+        for (int i = 0; i < head.length(); i++) {
+            out.put((byte) head.charAt(i));
+        }
+        return out.put(body).flip();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 505: return "HTTP Version Not Supported";
+            default: return "Unknown";
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package java;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdGenerator hands out compact 64-bit identifiers for tasks and events
+ * IDs are always positive; their string form is only built at the API edge
+ */
+public interface id_generator {
+
+    /**
+     * @return long a new identifier, never zero or negative
+     */
+    long nextId();
+
+    /**
+     * Single-node generator counting up from a starting value
+     */
+    final class Monotonic implements id_generator {
+        private final AtomicLong counter;
+
+        public Monotonic() {
+            this(0);
+        }
+
+        /**
+         * @param lastIssued the highest ID already in use, e.g. after recovery
+         */
+        public Monotonic(long lastIssued) {
+            if (lastIssued < 0) {
+                throw new IllegalArgumentException("Last issued ID cannot be negative");
+            }
+            this.counter = new AtomicLong(lastIssued);
+        }
+
+        @Override
+        public long nextId() {
+            long id = counter.incrementAndGet();
+            if (id <= 0) {
+                throw new IllegalStateException("ID space exhausted");
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Snowflake-style generator that stays collision-free across nodes
+     * Layout: 41 bits of milliseconds since 2024-01-01 UTC, 10 bits of node ID
+     * and 12 bits of per-millisecond sequence. Clock steps backwards are
+     * absorbed by continuing from the last issued timestamp.
+     */
+    final class Snowflake implements id_generator {
+        private static final long EPOCH_MILLIS = 1704067200000L;
+        private static final int NODE_BITS = 10;
+        private static final int SEQUENCE_BITS = 12;
+        private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+        private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+        private final long node;
+        private final AtomicLong lastState;
+
+        /**
+         * @param nodeId unique ID of this instance, 0 to 1023
+         * @throws IllegalArgumentException if the node ID is out of range
+         */
+        public Snowflake(int nodeId) {
+            if (nodeId < 0 || nodeId > MAX_NODE) {
+                throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE);
+            }
+            this.node = nodeId;
+            this.lastState = new AtomicLong();
+        }
+
+        @Override
+        public long nextId() {
+            while (true) {
+                long previous = lastState.get();
+                long previousMillis = previous >>> SEQUENCE_BITS;
+                long now = Math.max(System.currentTimeMillis() - EPOCH_MILLIS, previousMillis);
+                long next;
+                if (now == previousMillis) {
+                    long sequence = (previous & SEQUENCE_MASK) + 1;
+                    next = sequence > SEQUENCE_MASK
+                        ? (previousMillis + 1) << SEQUENCE_BITS
+                        : (now << SEQUENCE_BITS) | sequence;
+                } else {
+                    next = now << SEQUENCE_BITS;
+                }
+                if (lastState.compareAndSet(previous, next)) {
+                    long millis = next >>> SEQUENCE_BITS;
+                    long id = (millis << (NODE_BITS + SEQUENCE_BITS))
+                            | (node << SEQUENCE_BITS)
+                            | (next & SEQUENCE_MASK);
+                    return id != 0 ? id : nextId();
+                }
+            }
+        }
+    }
+}
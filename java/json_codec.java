@@ -0,0 +1,200 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * JsonCodec writes JSON string literals and reads the small request bodies
+ * sent by the web front end
+ * Objects are read as LinkedHashMap, arrays as ArrayList, numbers as Double,
+ * and true, false and null as Boolean and null.
+ */
+final class json_codec {
+    private static final int MAX_DEPTH = 32;
+
+    private final String text;
+    private int pos;
+
+    private json_codec(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Appends a value as a quoted, escaped JSON string, or null
+     */
+    static StringBuilder appendString(StringBuilder json, String value) {
+        if (value == null) return json.append("null");
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+
+    /**
+     * Parses one JSON document
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(String text) {
+        json_codec reader = new json_codec(text);
+        Object value = reader.readValue(0);
+        reader.skipWhitespace();
+        if (reader.pos != text.length()) throw reader.error("Unexpected trailing data");
+        return value;
+    }
+
+    private Object readValue(int depth) {
+        if (depth > MAX_DEPTH) throw error("Nesting too deep");
+        skipWhitespace();
+        if (pos >= text.length()) throw error("Unexpected end of input");
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{': return readObject(depth);
+            case '[': return readArray(depth);
+            case '"': return readString();
+            case 't': return readLiteral("true", Boolean.TRUE);
+            case 'f': return readLiteral("false", Boolean.FALSE);
+            case 'n': return readLiteral("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private LinkedHashMap<String, Object> readObject(int depth) {
+        LinkedHashMap<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw error("Expected a field name");
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(name, readValue(depth + 1));
+            skipWhitespace();
+            char c = next();
+            if (c == '}') return object;
+            if (c != ',') throw error("Expected ',' or '}'");
+        }
+    }
+
+    private ArrayList<Object> readArray(int depth) {
+        ArrayList<Object> array = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue(depth + 1));
+            skipWhitespace();
+            char c = next();
+            if (c == ']') return array;
+            if (c != ',') throw error("Expected ',' or ']'");
+        }
+    }
+
+    private String readString() {
+        pos++;
+        StringBuilder value = null;
+        int runStart = pos;
+        while (true) {
+            if (pos >= text.length()) throw error("Unterminated string");
+            char c = text.charAt(pos);
+            if (c == '"') {
+                String tail = text.substring(runStart, pos++);
+                return value == null ? tail : value.append(tail).toString();
+            }
+            if (c < 0x20) throw error("Control character in string");
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+            if (value == null) value = new StringBuilder();
+            value.append(text, runStart, pos++);
+            char escape = next();
+            switch (escape) {
+                case '"': case '\\': case '/': value.append(escape); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) throw error("Truncated unicode escape");
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + escape + "'");
+            }
+            runStart = pos;
+        }
+    }
+
+    private Double readNumber() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, pos)) throw error("Invalid literal");
+        pos += literal.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+            pos++;
+        }
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private char next() {
+        if (pos >= text.length()) throw error("Unexpected end of input");
+        return text.charAt(pos++);
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("Expected '" + c + "'");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+}
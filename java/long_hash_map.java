@@ -0,0 +1,296 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * LongHashMap is a concurrent map from primitive long keys to values
+ * Keys are spread over independent stripes, each an open-addressing table
+ * with linear probing held in two flat arrays, so an entry costs one long
+ * slot and one reference instead of a boxed key and a node object. Reads are
+ * optimistic and only fall back to the stripe's read lock when a writer
+ * raced them; writers lock only their own stripe.
+ * Key 0 is reserved as the empty-slot marker.
+ */
+final class long_hash_map<V> {
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int MIN_CAPACITY = 16;
+
+    private final Stripe<V>[] stripes;
+
+    /**
+     * Immutable pair of arrays so readers never see keys and values from
+     * different generations of a resize
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+
+    private static final class Stripe<V> {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(MIN_CAPACITY);
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        V find(long key, int hash) {
+            Table t = table;
+            long[] keys = t.keys;
+            int mask = keys.length - 1;
+            for (int probe = 0, i = hash & mask; probe < keys.length; probe++, i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) return (V) t.values[i];
+                if (k == 0) return null;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V insert(long key, int hash, V value, boolean onlyIfAbsent) {
+            long[] keys = table.keys;
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    V previous = (V) table.values[i];
+                    if (!onlyIfAbsent) table.values[i] = value;
+                    return previous;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            table.values[i] = value;
+            if (++size * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V delete(long key, int hash, Object expected) {
+            long[] keys = table.keys;
+            Object[] values = table.values;
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) return null;
+                i = (i + 1) & mask;
+            }
+            V previous = (V) values[i];
+            if (expected != null && previous != expected) return null;
+
+            // Backward-shift deletion keeps probe chains intact without tombstones
+            int gap = i;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == 0) break;
+                int home = spread(keys[j]) & mask;
+                boolean movable = gap <= j ? (home <= gap || home > j) : (home <= gap && home > j);
+                if (movable) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = null;
+            size--;
+            return previous;
+        }
+
+        private void resize(int capacity) {
+            Table old = table;
+            Table grown = new Table(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < old.keys.length; i++) {
+                long k = old.keys[i];
+                if (k == 0) continue;
+                int j = spread(k) & mask;
+                while (grown.keys[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                grown.keys[j] = k;
+                grown.values[j] = old.values[i];
+            }
+            table = grown;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    long_hash_map() {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
+    }
+
+    V get(long key) {
+        int hash = spread(key);
+        Stripe<V> stripe = stripeFor(hash);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                V value = stripe.find(key, hash);
+                if (stripe.lock.validate(stamp)) return value;
+            } catch (RuntimeException raced) {
+                // torn view of a table being rewritten, retry under the lock
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.find(key, hash);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return V the previous value, or null if there was none
+     */
+    V put(long key, V value) {
+        return write(key, value, false);
+    }
+
+    /**
+     * @return V the existing value, or null if the new value was stored
+     */
+    V putIfAbsent(long key, V value) {
+        return write(key, value, true);
+    }
+
+    /**
+     * Returns the value for a key, creating it under the stripe lock if absent
+     */
+    V computeIfAbsent(long key, LongFunction<V> factory) {
+        V existing = get(key);
+        if (existing != null) return existing;
+        int hash = spread(key);
+        Stripe<V> stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            V value = stripe.find(key, hash);
+            if (value == null) {
+                value = factory.apply(key);
+                stripe.insert(checkKey(key), hash, value, false);
+            }
+            return value;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    V remove(long key) {
+        return delete(key, null);
+    }
+
+    /**
+     * Removes the key only while it still maps to the given value
+     */
+    boolean remove(long key, V value) {
+        return value != null && delete(key, value) != null;
+    }
+
+    int size() {
+        int total = 0;
+        for (Stripe<V> stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                total += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Visits a per-stripe snapshot of the values, outside of any lock
+     */
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<? super V> action) {
+        for (Stripe<V> stripe : stripes) {
+            ArrayList<V> snapshot = new ArrayList<>();
+            long stamp = stripe.lock.readLock();
+            try {
+                Object[] values = stripe.table.values;
+                for (Object value : values) {
+                    if (value != null) snapshot.add((V) value);
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            snapshot.forEach(action);
+        }
+    }
+
+    /**
+     * @return ArrayList<V> a snapshot of all values
+     */
+    ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>();
+        forEachValue(result::add);
+        return result;
+    }
+
+    private V write(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values cannot be null");
+        }
+        int hash = spread(checkKey(key));
+        Stripe<V> stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.insert(key, hash, value, onlyIfAbsent);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private V delete(long key, Object expected) {
+        if (key == 0) return null;
+        int hash = spread(key);
+        Stripe<V> stripe = stripeFor(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.delete(key, hash, expected);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Stripe<V> stripeFor(int hash) {
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    private static long checkKey(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        return key;
+    }
+
+    /**
+     * 64-bit finalizer so sequential IDs spread across stripes and slots
+     */
+    private static int spread(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
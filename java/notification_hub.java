@@ -0,0 +1,466 @@
+package java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NotificationHub pushes task and event changes to users' Server-Sent Events
+ * streams, replacing the front end's polling
+ * One dispatcher thread follows the change streams of the task store and
+ * the calendar, works out which users each change concerns (a task's
+ * assignee, an event's organizer and attendees) and writes one shared frame
+ * to every open stream of those users. Each frame's id records the
+ * dispatcher's position in every change stream, so a client reconnecting
+ * with Last-Event-ID is first sent the changes for it that it missed and
+ * then continues live, without gaps or repeats. Replay sends each change to
+ * the users it was sent to live, so a reconnect does not see changes of a
+ * task reassigned away from it meanwhile, and it is done REPLAY_BUDGET
+ * changes per dispatcher pass, so a reconnect storm does not hold up live
+ * pushes. The dispatcher follows the streams as a durable subscriber, so
+ * writers wait rather than overrun it; only if it stalls beyond the stream's
+ * lag timeout is it released, and on the resulting Gap every client gets a
+ * "reset" event and should reload its data, as does a client too far behind
+ * for the retained changes or from before the hub started.
+ * A comment line is sent to every stream each HEARTBEAT_SECONDS, which keeps
+ * proxies from timing the stream out and finds dead connections.
+ */
+final class notification_hub {
+    private static final long POLL_MILLIS = 100;
+    private static final int BATCH_SIZE = 256;
+    private static final int REPLAY_BUDGET = 4 * BATCH_SIZE;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long RETRY_MILLIS = 3000;
+    private static final ByteBuffer HEARTBEAT = frame(null, null, null);
+
+    private final all_task tasks;
+    private final calendar_event calendar;
+    private final change_stream[] streams;
+    private final ConcurrentHashMap<String, Set<http_event_loop.EventStream>> sessions;
+    private final ConcurrentLinkedQueue<Pending> joining;
+    private final ConcurrentLinkedQueue<Pending> catchingUp;
+    private final ConcurrentHashMap<String, List<String>> recipients;
+    private final HashMap<change_stream.Change, List<String>> sentTo;
+    private ArrayDeque<change_stream.Change>[] sent;
+    private change_stream.Subscription[] positions;
+    private long[] recordedFrom;
+    private volatile Thread dispatcher;
+    private volatile boolean running;
+
+    /**
+     * A stream waiting to be caught up and added by the dispatcher, with how
+     * far its replay got
+     */
+    private static final class Pending {
+        private final String user;
+        private final http_event_loop.EventStream stream;
+        private final String lastEventId;
+        private long[] seen;
+        private change_stream.Subscription[] missed;
+
+        Pending(String user, http_event_loop.EventStream stream, String lastEventId) {
+            this.user = user;
+            this.stream = stream;
+            this.lastEventId = lastEventId;
+        }
+    }
+
+    notification_hub(all_task tasks, calendar_event calendar) {
+        this.tasks = tasks;
+        this.calendar = calendar;
+        change_stream taskChanges = tasks.getChangeStream();
+        change_stream eventChanges = calendar.getChangeStream();
+        this.streams = taskChanges == eventChanges ? new change_stream[] {taskChanges}
+                                                   : new change_stream[] {taskChanges, eventChanges};
+        this.sessions = new ConcurrentHashMap<>();
+        this.joining = new ConcurrentLinkedQueue<>();
+        this.catchingUp = new ConcurrentLinkedQueue<>();
+        this.recipients = new ConcurrentHashMap<>();
+        this.sentTo = new HashMap<>();
+    }
+
+    /**
+     * Starts following the change streams from their current end
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    synchronized void start() {
+        if (running) return;
+        positions = new change_stream.Subscription[streams.length];
+        recordedFrom = new long[streams.length];
+        sent = new ArrayDeque[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            sent[i] = new ArrayDeque<>();
+        }
+        sentTo.clear();
+        followFromNow();
+        running = true;
+        Thread thread = new Thread(this::dispatch, "notification-hub");
+        thread.setDaemon(true);
+        dispatcher = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher and closes every stream
+     */
+    synchronized void stop() {
+        if (!running) return;
+        running = false;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (change_stream.Subscription position : positions) {
+            position.close();
+        }
+        for (Set<http_event_loop.EventStream> open : sessions.values()) {
+            for (http_event_loop.EventStream stream : open) {
+                stream.close();
+            }
+        }
+        sessions.clear();
+        for (ConcurrentLinkedQueue<Pending> waiting : List.of(joining, catchingUp)) {
+            Pending pending;
+            while ((pending = waiting.poll()) != null) {
+                pending.stream.close();
+            }
+        }
+    }
+
+    /**
+     * Hands a newly opened stream to the dispatcher, callable from any thread
+     * @param lastEventId the client's Last-Event-ID, null for a fresh stream
+     */
+    void subscribe(String user, http_event_loop.EventStream stream, String lastEventId) {
+        stream.send(retryFrame());
+        joining.add(new Pending(user, stream, lastEventId));
+    }
+
+    /**
+     * Pushes a notification that is not a store change, e.g. a reminder
+     * Such notifications carry no id and are not replayed on reconnect
+     * @return int number of streams it was sent to
+     */
+    int push(String user, String event, String json) {
+        Set<http_event_loop.EventStream> open = sessions.get(user);
+        if (open == null) return 0;
+        ByteBuffer frame = frame(null, event, json);
+        int sent = 0;
+        for (http_event_loop.EventStream stream : open) {
+            if (stream.send(frame.duplicate())) sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * @return int number of open streams
+     */
+    int openStreams() {
+        int open = 0;
+        for (Set<http_event_loop.EventStream> streamsOfUser : sessions.values()) {
+            open += streamsOfUser.size();
+        }
+        return open;
+    }
+
+    private void dispatch() {
+        long nextHeartbeat = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS);
+        while (running) {
+            try {
+                boolean delivered = false;
+                for (int i = 0; i < positions.length; i++) {
+                    ArrayList<change_stream.Change> batch = positions[i].poll(BATCH_SIZE);
+                    for (change_stream.Change change : batch) {
+                        deliverLive(change);
+                    }
+                    delivered |= !batch.isEmpty();
+                }
+                Pending pending;
+                while ((pending = joining.poll()) != null) {
+                    catchingUp.add(pending);
+                }
+                catchUp();
+                forgetExpired();
+                long now = System.currentTimeMillis();
+                if (now >= nextHeartbeat) {
+                    heartbeat();
+                    nextHeartbeat = now + TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS);
+                }
+                if (!delivered && catchingUp.isEmpty()) {
+                    // Only the first stream is waited on; any others are picked up on the next pass
+                    for (change_stream.Change change : positions[0].poll(BATCH_SIZE, POLL_MILLIS,
+                                                                          TimeUnit.MILLISECONDS)) {
+                        deliverLive(change);
+                    }
+                }
+            } catch (change_stream.Gap e) {
+                // The dispatcher fell behind the retained changes; clients must reload
+                resync();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void deliverLive(change_stream.Change change) {
+        List<String> users = recipientsOf(change);
+        if (users.isEmpty()) return;
+        sentTo.put(change, users);
+        sent[indexOf(change)].add(change);
+        ByteBuffer frame = frame(idOf(change), eventName(change), changeJson(change));
+        for (String user : users) {
+            Set<http_event_loop.EventStream> open = sessions.get(user);
+            if (open == null) continue;
+            for (http_event_loop.EventStream stream : open) {
+                if (!stream.send(frame.duplicate())) remove(user, stream);
+            }
+        }
+    }
+
+    /**
+     * Replays missed changes to the reconnecting streams in arrival order,
+     * at most REPLAY_BUDGET changes per pass; a stream that has caught up
+     * with the dispatcher is added to the live sessions
+     */
+    private void catchUp() {
+        int budget = REPLAY_BUDGET;
+        Pending pending;
+        while (budget > 0 && (pending = catchingUp.peek()) != null) {
+            if (pending.stream.isOpen()) {
+                try {
+                    budget = replay(pending, budget);
+                    if (budget < 0) return;
+                } catch (change_stream.Gap e) {
+                    pending.stream.send(frame(currentId(), "reset", "{}"));
+                }
+                sessions.computeIfAbsent(pending.user, k -> ConcurrentHashMap.newKeySet()).add(pending.stream);
+            }
+            catchingUp.poll();
+        }
+    }
+
+    /**
+     * Sends a stream the changes for its user between its Last-Event-ID and
+     * the dispatcher's position, continuing where the last pass stopped
+     * Every change stream is checked again on each pass, since live delivery
+     * moved the dispatcher on in those already replayed; the stream has caught
+     * up only once one pass finds it at the dispatcher's position in all of them
+     * @return int budget left, negative if it ran out before the stream caught up
+     */
+    private int replay(Pending pending, int budget) {
+        if (pending.seen == null) {
+            pending.seen = parseId(pending.lastEventId);
+            if (pending.seen == null) return budget;
+            pending.missed = new change_stream.Subscription[streams.length];
+        }
+        long[] seen = pending.seen;
+        change_stream.Subscription[] missed = pending.missed;
+        for (int i = 0; i < streams.length; i++) {
+            if (seen[i] < recordedFrom[i]) {
+                // Sent before the hub followed the stream, so who it went to is not known
+                throw new change_stream.Gap(seen[i] + 1, recordedFrom[i] + 1);
+            }
+            long target = positions[i].getPosition();
+            if (missed[i] == null) {
+                if (seen[i] >= target) continue;
+                missed[i] = streams[i].subscribe(seen[i]);
+            }
+            while (missed[i].getPosition() < target) {
+                if (budget <= 0) return -1;
+                int limit = (int) Math.min(budget, target - missed[i].getPosition());
+                ArrayList<change_stream.Change> batch = missed[i].poll(limit);
+                if (batch.isEmpty()) break;
+                budget -= batch.size();
+                for (change_stream.Change change : batch) {
+                    List<String> users = sentTo.get(change);
+                    if (users == null || !users.contains(pending.user)) continue;
+                    seen[i] = change.getSequence();
+                    pending.stream.send(frame(formatId(seen), eventName(change), changeJson(change)));
+                }
+            }
+            seen[i] = target;
+            missed[i] = null;
+        }
+        return budget;
+    }
+
+    private void heartbeat() {
+        for (String user : sessions.keySet()) {
+            Set<http_event_loop.EventStream> open = sessions.get(user);
+            if (open == null) continue;
+            for (http_event_loop.EventStream stream : open) {
+                if (!stream.send(HEARTBEAT.duplicate())) remove(user, stream);
+            }
+        }
+    }
+
+    /**
+     * Drops the users of changes the streams no longer retain, which can no longer be replayed
+     */
+    private void forgetExpired() {
+        for (int i = 0; i < streams.length; i++) {
+            long oldest = streams[i].oldestSequence();
+            change_stream.Change change;
+            while ((change = sent[i].peek()) != null && change.getSequence() < oldest) {
+                sentTo.remove(sent[i].poll());
+            }
+        }
+    }
+
+    private int indexOf(change_stream.Change change) {
+        return streams.length == 1 || change.getSource() == change_stream.Source.TASK ? 0 : 1;
+    }
+
+    private void resync() {
+        followFromNow();
+        ByteBuffer reset = frame(currentId(), "reset", "{}");
+        for (Set<http_event_loop.EventStream> open : sessions.values()) {
+            for (http_event_loop.EventStream stream : open) {
+                stream.send(reset.duplicate());
+            }
+        }
+    }
+
+    /**
+     * Moves the dispatcher to the end of every stream; changes before it were
+     * not delivered here and cannot be replayed
+     */
+    private void followFromNow() {
+        for (int i = 0; i < streams.length; i++) {
+            if (positions[i] != null) positions[i].close();
+            positions[i] = streams[i].subscribeDurable();
+            recordedFrom[i] = positions[i].getPosition();
+        }
+    }
+
+    private void remove(String user, http_event_loop.EventStream stream) {
+        sessions.computeIfPresent(user, (key, open) -> {
+            open.remove(stream);
+            return open.isEmpty() ? null : open;
+        });
+    }
+
+    /**
+     * Users a change concerns, including those it no longer does, e.g. a
+     * task's previous assignee; remembered per entity so a delete can still be
+     * routed
+     */
+    private List<String> recipientsOf(change_stream.Change change) {
+        String entityId = change.getEntityId();
+        if (change.getType() == change_stream.ChangeType.DELETE) {
+            List<String> users = recipients.remove(entityId);
+            return users == null ? Collections.emptyList() : users;
+        }
+        List<String> previous = recipients.get(entityId);
+        ArrayList<String> users = new ArrayList<>();
+        if (change.getSource() == change_stream.Source.TASK) {
+            all_task.TaskSummary task = tasks.summarizeTask(entityId);
+            if (task != null && task.getAssignedTo() != null) users.add(task.getAssignedTo());
+        } else {
+            users.addAll(calendar.participantsOf(entityId));
+        }
+        if (!users.isEmpty()) recipients.put(entityId, new ArrayList<>(users));
+        if (previous != null) {
+            for (String user : previous) {
+                if (!users.contains(user)) users.add(user);
+            }
+        }
+        return users;
+    }
+
+    private String currentId() {
+        return formatId(currentPosition());
+    }
+
+    /**
+     * Id of a change being delivered live; a poll moves the subscription past
+     * its whole batch, so the change's own stream is at its sequence
+     */
+    private String idOf(change_stream.Change change) {
+        long[] position = currentPosition();
+        position[indexOf(change)] = change.getSequence();
+        return formatId(position);
+    }
+
+    private long[] currentPosition() {
+        long[] position = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            position[i] = positions[i].getPosition();
+        }
+        return position;
+    }
+
+    /**
+     * Event ids are the positions in each change stream joined by '-'
+     */
+    private static String formatId(long[] position) {
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < position.length; i++) {
+            if (i > 0) id.append('-');
+            id.append(position[i]);
+        }
+        return id.toString();
+    }
+
+    /**
+     * @return long[] positions from a Last-Event-ID, null if absent or not one of ours
+     */
+    private long[] parseId(String id) {
+        if (id == null || id.isEmpty()) return null;
+        String[] parts = id.split("-");
+        if (parts.length != streams.length) return null;
+        long[] position = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                position[i] = Long.parseLong(parts[i]);
+                if (position[i] < 0) return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return position;
+    }
+
+    private static String eventName(change_stream.Change change) {
+        return change.getSource() == change_stream.Source.TASK ? "task" : "event";
+    }
+
+    private static String changeJson(change_stream.Change change) {
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"type\":");
+        json_codec.appendString(json, change.getType().name()).append(",\"id\":");
+        json_codec.appendString(json, change.getEntityId()).append(",\"actor\":");
+        json_codec.appendString(json, change.getActor()).append(",\"detail\":");
+        json_codec.appendString(json, change.getDetail()).append(",\"timestamp\":");
+        return json.append(change.getTimestampMillis()).append('}').toString();
+    }
+
+    private static ByteBuffer retryFrame() {
+        return ByteBuffer.wrap(("retry: " + RETRY_MILLIS + "\n\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes one SSE frame; without an event it is a heartbeat comment
+     */
+    private static ByteBuffer frame(String id, String event, String data) {
+        StringBuilder frame = new StringBuilder(64 + (data == null ? 0 : data.length()));
+        if (event == null) {
+            frame.append(":\n\n");
+        } else {
+            if (id != null) frame.append("id: ").append(id).append('\n');
+            frame.append("event: ").append(event).append('\n');
+            frame.append("data: ").append(data).append("\n\n");
+        }
+        return ByteBuffer.wrap(frame.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,227 @@
+package java;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PresenceRegistry tracks which users are connected to a server
+ * Users are spread over SHARDS concurrent maps, each with its own online
+ * counter, so joins and leaves are O(1) and logins of different users
+ * rarely touch the same counter; the online count sums the shards.
+ * Timestamps come from a clock cached by the maintenance thread, which also
+ * evicts users idle for longer than the timeout one shard per tick, so a
+ * sweep never scans the whole registry at once, and writes the log
+ * messages queued by joins and leaves.
+ */
+final class presence_registry {
+    private static final int SHARDS = 64;
+    private static final long TICK_MILLIS = 100;
+    private static final int LOG_QUEUE_CAPACITY = 8192;
+
+    private final String name;
+    private final Shard[] shards;
+    private final long idleTimeoutMillis;
+    private final ArrayBlockingQueue<String> log;
+    private final LongAdder droppedLogMessages;
+    private volatile long clock;
+    private ScheduledExecutorService maintenance;
+    private int nextSweep;
+
+    /**
+     * One slice of the registry and the number of users in it
+     */
+    private static final class Shard {
+        private final ConcurrentHashMap<String, Session> users = new ConcurrentHashMap<>();
+        private final AtomicInteger online = new AtomicInteger();
+    }
+
+    private static final class Session {
+        private final long connectedAt;
+        private volatile long lastSeen;
+
+        Session(long now) {
+            this.connectedAt = now;
+            this.lastSeen = now;
+        }
+    }
+
+    /**
+     * @param name prefix for log messages, e.g. the server name
+     * @param idleTimeout how long a user stays without activity before being dropped
+     */
+    presence_registry(String name, long idleTimeout, TimeUnit unit) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        this.name = name;
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        this.log = new ArrayBlockingQueue<>(LOG_QUEUE_CAPACITY);
+        this.droppedLogMessages = new LongAdder();
+        this.clock = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts the clock, eviction and logging thread
+     */
+    synchronized void start() {
+        if (maintenance != null) return;
+        clock = System.currentTimeMillis();
+        maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name + "-presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the maintenance thread after writing the pending log messages
+     * Users stay registered; their clock resumes on the next start
+     */
+    synchronized void stop() {
+        if (maintenance == null) return;
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        maintenance = null;
+        flushLog();
+    }
+
+    /**
+     * Registers a user, or refreshes their last-seen time if already present
+     * @return boolean true if the user was not connected before
+     */
+    boolean join(String user) {
+        Shard shard = shardOf(user);
+        long now = clock;
+        Session existing = shard.users.putIfAbsent(user, new Session(now));
+        if (existing != null) {
+            existing.lastSeen = now;
+            log("User " + user + " is already connected");
+            return false;
+        }
+        shard.online.incrementAndGet();
+        log(user + " connected to " + name);
+        return true;
+    }
+
+    /**
+     * @return boolean true if the user was connected
+     */
+    boolean leave(String user) {
+        Shard shard = shardOf(user);
+        if (shard.users.remove(user) == null) {
+            log("User " + user + " was not connected");
+            return false;
+        }
+        shard.online.decrementAndGet();
+        log(user + " disconnected from " + name);
+        return true;
+    }
+
+    /**
+     * Records activity of a connected user, keeping them from being evicted
+     * @return boolean true if the user is connected
+     */
+    boolean touch(String user) {
+        Session session = shardOf(user).users.get(user);
+        if (session == null) return false;
+        session.lastSeen = clock;
+        return true;
+    }
+
+    boolean isOnline(String user) {
+        return shardOf(user).users.containsKey(user);
+    }
+
+    /**
+     * @return LocalDateTime last join or activity of a connected user, null if not connected
+     */
+    LocalDateTime lastSeen(String user) {
+        Session session = shardOf(user).users.get(user);
+        return session == null ? null : toLocalTime(session.lastSeen);
+    }
+
+    /**
+     * @return LocalDateTime when a connected user joined, null if not connected
+     */
+    LocalDateTime connectedSince(String user) {
+        Session session = shardOf(user).users.get(user);
+        return session == null ? null : toLocalTime(session.connectedAt);
+    }
+
+    int onlineCount() {
+        int online = 0;
+        for (Shard shard : shards) {
+            online += shard.online.get();
+        }
+        return online;
+    }
+
+    private void tick() {
+        clock = System.currentTimeMillis();
+        evictIdle(shards[nextSweep]);
+        nextSweep = (nextSweep + 1) % SHARDS;
+        flushLog();
+    }
+
+    private void evictIdle(Shard shard) {
+        long cutoff = clock - idleTimeoutMillis;
+        for (Map.Entry<String, Session> entry : shard.users.entrySet()) {
+            Session session = entry.getValue();
+            if (session.lastSeen < cutoff && shard.users.remove(entry.getKey(), session)) {
+                shard.online.decrementAndGet();
+                log(entry.getKey() + " timed out on " + name);
+            }
+        }
+    }
+
+    /**
+     * Queues a log message; when the writer falls behind messages are dropped and counted
+     */
+    private void log(String message) {
+        if (!log.offer(message)) {
+            droppedLogMessages.increment();
+        }
+    }
+
+    private void flushLog() {
+        StringBuilder out = new StringBuilder();
+        String message;
+        while ((message = log.poll()) != null) {
+            out.append(message).append(System.lineSeparator());
+        }
+        long dropped = droppedLogMessages.sumThenReset();
+        if (dropped > 0) {
+            out.append(dropped).append(" presence messages dropped").append(System.lineSeparator());
+        }
+        if (out.length() > 0) {
+            System.out.print(out);
+        }
+    }
+
+    private Shard shardOf(String user) {
+        int hash = user.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static LocalDateTime toLocalTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -1,14 +1,39 @@
 package java;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * A server class that manages user connections and server status.
  * Provides functionality for user management and server monitoring.
+ * While running it serves the task and event JSON API (see server_api) over
+ * HTTP/1.1 on its port. An acceptor thread hands new connections round-robin
+ * to one non-blocking http_event_loop per core; keep-alive and pipelined
+ * requests are supported. Handlers run either on one virtual thread per
+ * request or on a bounded platform thread pool, see ExecutionMode.
+ * Under load an admission_control sheds requests early: each user is
+ * rate limited, and requests beyond the running handlers wait in bounded
+ * queues where reads go before bulk writes.
+ * Connected users are tracked in a presence_registry, so logins are O(1)
+ * and users idle for USER_IDLE_TIMEOUT_MINUTES are dropped.
+ * Task and event changes are pushed to users' open /api/notifications
+ * streams by a notification_hub instead of being polled for.
  * 
  * @author TaskMatrix
  * @version 1.0
@@ -16,11 +41,36 @@ import java.time.LocalDateTime;
 public class server {
     private String serverName;
     private int port;
-    private List<String> connectedUsers;
-    private Map<String, LocalDateTime> userConnectionTimes;
-    private boolean isRunning;
+    private final presence_registry presence;
+    private volatile boolean isRunning;
+    private final server_api api;
+    private final Function<http_request, http_response> handler;
+    private final notification_hub notifications;
+    private ServerSocketChannel listener;
+    private http_event_loop[] loops;
+    private ExecutionMode executionMode;
+    private int virtualThreadHandlers;
+    private ExecutorService handlers;
+    private volatile admission_control admission;
+    private virtual_thread_pinning_monitor pinningMonitor;
     private static final int MIN_PORT = 1024;
     private static final int MAX_PORT = 65535;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int USER_IDLE_TIMEOUT_MINUTES = 30;
+    private static final int PLATFORM_POOL_THREADS = 200;
+    private static final int PLATFORM_POOL_QUEUE = 10_000;
+    private static final int DEFAULT_VIRTUAL_THREAD_HANDLERS = 10_000;
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+    
+    /**
+     * How request handlers are run
+     */
+    public enum ExecutionMode {
+        /** Up to getVirtualThreadHandlers() virtual threads; falls back to PLATFORM_POOL before Java 21 */
+        VIRTUAL_THREADS,
+        /** PLATFORM_POOL_THREADS platform threads */
+        PLATFORM_POOL
+    }
     
     /**
      * Constructor initializes the server with specified name and port.
@@ -30,38 +80,288 @@ public class server {
      * @throws IllegalArgumentException if port is invalid
      */
     public server(String name, int port) {
+        this(name, port, new change_stream());
+    }
+    
+    /**
+     * Constructor initializes the server over new stores sharing one change stream.
+     */
+    private server(String name, int port, change_stream changes) {
+        this(name, port, new all_task(new id_generator.Monotonic(), changes),
+             new calendar_event(new id_generator.Monotonic(), changes));
+    }
+    
+    /**
+     * Constructor initializes the server over existing task and event stores.
+     * 
+     * @param name the server name
+     * @param port the server port number
+     * @param tasks the task store served under /api/tasks
+     * @param calendar the calendar served under /api/events
+     * @throws IllegalArgumentException if port is invalid
+     */
+    public server(String name, int port, all_task tasks, calendar_event calendar) {
+        this(name, port, tasks, calendar, UnaryOperator.identity());
+    }
+    
+    /**
+     * Constructor initializes the server with a wrapper around its API, e.g.
+     * one that adds latency to compare execution modes under blocking handlers.
+     * 
+     * @param wrapHandler receives the API handler and returns the one requests go to
+     */
+    server(String name, int port, all_task tasks, calendar_event calendar,
+           UnaryOperator<Function<http_request, http_response>> wrapHandler) {
         validateServerName(name);
         validatePort(port);
         
         this.serverName = name;
         this.port = port;
-        this.connectedUsers = new ArrayList<>();
-        this.userConnectionTimes = new HashMap<>();
+        this.presence = new presence_registry(name, USER_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
         this.isRunning = false;
+        this.notifications = new notification_hub(tasks, calendar);
+        this.api = new server_api(tasks, calendar, notifications);
+        this.handler = wrapHandler.apply(api);
+        this.executionMode = ExecutionMode.VIRTUAL_THREADS;
+        this.virtualThreadHandlers = DEFAULT_VIRTUAL_THREAD_HANDLERS;
     }
     
     /**
      * Starts the server if it's not already running.
+     * Binds the port and starts the acceptor and event loop threads.
      * 
      * @throws RuntimeException if server fails to start
      */
-    public void startServer() {
+    public synchronized void startServer() {
+        if (isRunning) {
+            System.out.println("Server is already running");
+            return;
+        }
+        try {
+            listener = ServerSocketChannel.open();
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listener.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        } catch (IOException e) {
+            closeListener();
+            throw new UncheckedIOException("Failed to start server: " + e.getMessage(), e);
+        }
+        presence.start();
+        notifications.start();
+        handlers = newHandlerExecutor();
+        admission = new admission_control(handlers, getExecutionMode() == ExecutionMode.VIRTUAL_THREADS
+                                                    ? virtualThreadHandlers : PLATFORM_POOL_THREADS,
+                                          server_api::userOf, server_api::priorityOf);
+        admission.start(serverName);
+        loops = new http_event_loop[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new http_event_loop(handler, admission);
+            startThread(loops[i], serverName + "-io-" + i);
+        }
+        startThread(this::acceptConnections, serverName + "-acceptor");
+        this.isRunning = true;
+        System.out.println("Server " + serverName + " started on port " + port
+                           + " (" + getExecutionMode() + ")");
+    }
+    
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public synchronized void stopServer() {
         if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        closeListener();
+        notifications.stop();
+        for (http_event_loop loop : loops) {
+            loop.shutdown();
+        }
+        handlers.shutdown();
+        admission.stop();
+        presence.stop();
+        if (pinningMonitor != null) {
+            pinningMonitor.close();
+            pinningMonitor = null;
+        }
+        System.out.println("Server " + serverName + " stopped");
+    }
+    
+    /**
+     * Selects how request handlers are run from the next start on.
+     * 
+     * @param mode the execution mode
+     * @throws IllegalStateException if the server is running
+     */
+    public synchronized void setExecutionMode(ExecutionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Execution mode cannot be null");
+        }
+        if (isRunning) {
+            throw new IllegalStateException("Stop the server before changing its execution mode");
+        }
+        this.executionMode = mode;
+    }
+    
+    /**
+     * Sets how many handlers may run at once on virtual threads, from the next start on.
+     * Virtual threads are cheap, so the limit protects what blocked handlers
+     * wait on rather than the server: every running handler may hold a lock
+     * of the task store or calendar or a connection to the PHP backend.
+     * Requests beyond the limit wait in the admission queues and are shed
+     * when those fill up, so a limit below the expected concurrency turns
+     * slow requests into 503 responses. The default of 10,000 matches the
+     * concurrency the mode is meant for; lower it when a dependency cannot
+     * take that many callers. The platform pool is always limited to its
+     * PLATFORM_POOL_THREADS threads.
+     * 
+     * @param limit the most handlers running at once
+     * @throws IllegalStateException if the server is running
+     */
+    public synchronized void setVirtualThreadHandlers(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Handler limit must be positive");
+        }
+        if (isRunning) {
+            throw new IllegalStateException("Stop the server before changing its handler limit");
+        }
+        this.virtualThreadHandlers = limit;
+    }
+    
+    /**
+     * Returns how many handlers may run at once on virtual threads.
+     * 
+     * @return int the handler limit of VIRTUAL_THREADS
+     */
+    public int getVirtualThreadHandlers() {
+        return virtualThreadHandlers;
+    }
+    
+    /**
+     * Returns the execution mode in effect, after any fallback.
+     * 
+     * @return ExecutionMode how request handlers are run
+     */
+    public ExecutionMode getExecutionMode() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR == null ? ExecutionMode.PLATFORM_POOL : executionMode;
+    }
+    
+    /**
+     * Returns how often a handler blocked while pinned to its carrier thread.
+     * Only counted while running on virtual threads; a non-zero value points
+     * at blocking I/O under a synchronized block, which the log names.
+     * 
+     * @return long number of pinned blocking operations since start
+     */
+    public long getPinnedThreadCount() {
+        virtual_thread_pinning_monitor monitor = pinningMonitor;
+        return monitor == null ? 0 : monitor.pinnedCount();
+    }
+    
+    /**
+     * Returns the admission counters, e.g. to tune the limits: requests
+     * admitted and shed since the last start, and the current queue depth.
+     * 
+     * @return admission_control.Stats counters, or null before the first start
+     */
+    public admission_control.Stats getAdmissionStats() {
+        admission_control current = admission;
+        return current == null ? null : current.stats();
+    }
+    
+    /**
+     * Creates the executor for the mode in effect and, for virtual threads, the pinning monitor.
+     */
+    private ExecutorService newHandlerExecutor() {
+        if (getExecutionMode() == ExecutionMode.VIRTUAL_THREADS) {
             try {
-                // Simulated server startup logic
-                Thread.sleep(100);
-                this.isRunning = true;
-                System.out.println("Server " + serverName + " started on port " + port);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Failed to start server: " + e.getMessage());
+                ExecutorService executor = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+                startPinningMonitor();
+                return executor;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                System.out.println("Server " + serverName + " cannot use virtual threads: " + e);
+                executionMode = ExecutionMode.PLATFORM_POOL;
             }
-        } else {
-            System.out.println("Server is already running");
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            PLATFORM_POOL_THREADS, PLATFORM_POOL_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(PLATFORM_POOL_QUEUE), task -> {
+                Thread thread = new Thread(task, serverName + "-handler-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    private void startPinningMonitor() {
+        try {
+            pinningMonitor = new virtual_thread_pinning_monitor("Server " + serverName);
+        } catch (IllegalStateException | SecurityException e) {
+            System.out.println("Server " + serverName + " runs without pinning detection: " + e.getMessage());
         }
     }
     
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists from Java 21 on.
+     */
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Accepts connections until the listener is closed, spreading them over the loops.
+     */
+    private void acceptConnections() {
+        ServerSocketChannel channel = listener;
+        http_event_loop[] targets = loops;
+        int next = 0;
+        while (true) {
+            SocketChannel accepted = null;
+            try {
+                accepted = channel.accept();
+                accepted.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                targets[next].register(accepted);
+                next = (next + 1) % targets.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // A connection that failed while being accepted, keep serving the others
+                System.out.println("Server " + serverName + " failed to accept a connection: " + e.getMessage());
+                closeQuietly(accepted);
+            }
+        }
+    }
+    
+    private void closeListener() {
+        try {
+            if (listener != null) listener.close();
+        } catch (IOException e) {
+            // Closing is best effort
+        }
+    }
+    
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // The peer is gone either way
+        }
+    }
+    
+    private static void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * Adds a user to the server and records connection time.
+     * Adding a connected user again refreshes their last-seen time.
      * 
      * @param username the username to add
      * @throws IllegalStateException if server is not running
@@ -72,14 +372,7 @@ public class server {
             throw new IllegalStateException("Server must be running to add users");
         }
         validateUsername(username);
-        
-        if (!connectedUsers.contains(username)) {
-            connectedUsers.add(username);
-            userConnectionTimes.put(username, LocalDateTime.now());
-            System.out.println(username + " connected to " + serverName);
-        } else {
-            System.out.println("User " + username + " is already connected");
-        }
+        presence.join(username);
     }
     
     /**
@@ -88,12 +381,71 @@ public class server {
      * @param username the username to remove
      */
     public void removeUser(String username) {
-        if (connectedUsers.remove(username)) {
-            userConnectionTimes.remove(username);
-            System.out.println(username + " disconnected from " + serverName);
-        } else {
-            System.out.println("User " + username + " was not connected");
+        if (username != null) {
+            presence.leave(username);
+        }
+    }
+    
+    /**
+     * Records activity of a connected user, e.g. a heartbeat from their page.
+     * Users without activity for USER_IDLE_TIMEOUT_MINUTES are removed.
+     * 
+     * @param username the active user
+     * @return boolean true if the user is connected
+     */
+    public boolean touchUser(String username) {
+        return username != null && presence.touch(username);
+    }
+    
+    /**
+     * Checks if a user is connected.
+     * 
+     * @param username the username to check
+     * @return boolean true if the user is connected
+     */
+    public boolean isUserConnected(String username) {
+        return username != null && presence.isOnline(username);
+    }
+    
+    /**
+     * Returns when a connected user was last active.
+     * 
+     * @param username the username to look up
+     * @return LocalDateTime last activity, or null if the user is not connected
+     */
+    public LocalDateTime getUserLastSeen(String username) {
+        return username == null ? null : presence.lastSeen(username);
+    }
+    
+    /**
+     * Returns when a connected user joined.
+     * 
+     * @param username the username to look up
+     * @return LocalDateTime connection time, or null if the user is not connected
+     */
+    public LocalDateTime getUserConnectionTime(String username) {
+        return username == null ? null : presence.connectedSince(username);
+    }
+    
+    /**
+     * Pushes a notification that is not a task or event change, such as a
+     * reminder, to every open notification stream of a user. Unlike changes
+     * it is not replayed to a stream that reconnects later.
+     * 
+     * @param username the user to notify
+     * @param event the SSE event name, e.g. "reminder"
+     * @param jsonData the event's data, a single line of JSON
+     * @return int number of streams it was sent to
+     */
+    public int pushNotification(String username, String event, String jsonData) {
+        if (username == null || event == null || jsonData == null) {
+            throw new IllegalArgumentException("User, event and data are required");
+        }
+        if (event.indexOf('\n') >= 0 || event.indexOf('\r') >= 0
+                || jsonData.indexOf('\n') >= 0 || jsonData.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Event and data must be a single line");
         }
+        return notifications.push(username, event, jsonData);
     }
     
     /**
@@ -140,7 +492,7 @@ public class server {
      * @return int number of connected users
      */
     public int getConnectedUserCount() {
-        return connectedUsers.size();
+        return presence.onlineCount();
     }
     
     /**
@@ -0,0 +1,295 @@
+package java;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * ServerApi maps HTTP requests onto all_task and calendar_event
+ * The endpoints answer like the PHP and Node handlers they replace:
+ *   GET    /api/tasks?user={userId}     tasks assigned to a user, newest first (php/get_tasks.php)
+ *   GET    /api/events/{userId}         a user's events, optionally ?from=...&to=...
+ *   POST   /api/events/save             {"userId": ..., "event": {...}}
+ *   DELETE /api/events/delete           {"userId": ..., "eventId": ...}
+ *   POST   /api/events/import?user={userId}  an iCalendar feed as the body, added to the user's calendar
+ *   GET    /api/notifications?user={userId}  Server-Sent Events stream of the user's task and event changes
+ * Times are read as ISO-8601; values with an offset, such as the front end's
+ * toISOString() output, are converted to UTC like the rest of the calendar.
+ */
+final class server_api implements Function<http_request, http_response> {
+    private static final String TASKS_PATH = "/api/tasks";
+    private static final String EVENTS_PREFIX = "/api/events/";
+    private static final String SAVE_PATH = "/api/events/save";
+    private static final String DELETE_PATH = "/api/events/delete";
+    private static final String IMPORT_PATH = "/api/events/import";
+    private static final String NOTIFICATIONS_PATH = "/api/notifications";
+    private static final int DEFAULT_VIEW_MONTHS = 12;
+    private static final DateTimeFormatter TASK_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final all_task tasks;
+    private final calendar_event calendar;
+    private final notification_hub notifications;
+
+    server_api(all_task tasks, calendar_event calendar, notification_hub notifications) {
+        this.tasks = tasks;
+        this.calendar = calendar;
+        this.notifications = notifications;
+    }
+
+    /**
+     * The user a request is made for: the ?user= parameter, the user in the
+     * path of GET /api/events/{userId}, or the userId of a save or delete body
+     * @return String the user id, null if the request names none
+     */
+    static String userOf(http_request request) {
+        String user = request.getParameter("user");
+        if (user != null) return user.isEmpty() ? null : user;
+        String path = request.getPath();
+        if (SAVE_PATH.equals(path) || DELETE_PATH.equals(path)) {
+            Map<String, Object> body = parseBody(request);
+            return body == null ? null : stringField(body, "userId");
+        }
+        if (path.startsWith(EVENTS_PREFIX) && path.indexOf('/', EVENTS_PREFIX.length()) < 0
+                && path.length() > EVENTS_PREFIX.length() && !IMPORT_PATH.equals(path)) {
+            return path.substring(EVENTS_PREFIX.length());
+        }
+        return null;
+    }
+
+    /**
+     * Reads are interactive, imports are bulk and every other write is standard
+     */
+    static admission_control.Priority priorityOf(http_request request) {
+        if (request.isSafe()) return admission_control.Priority.INTERACTIVE;
+        return IMPORT_PATH.equals(request.getPath()) ? admission_control.Priority.BULK
+                                                     : admission_control.Priority.STANDARD;
+    }
+
+    @Override
+    public http_response apply(http_request request) {
+        String path = request.getPath();
+        String method = request.getMethod();
+        if (TASKS_PATH.equals(path)) {
+            return "GET".equals(method) ? getTasks(request) : methodNotAllowed();
+        }
+        if (NOTIFICATIONS_PATH.equals(path)) {
+            return "GET".equals(method) ? openNotifications(request) : methodNotAllowed();
+        }
+        if (SAVE_PATH.equals(path)) {
+            return "POST".equals(method) ? saveEvent(request) : methodNotAllowed();
+        }
+        if (DELETE_PATH.equals(path)) {
+            return "DELETE".equals(method) ? deleteEvent(request) : methodNotAllowed();
+        }
+        if (IMPORT_PATH.equals(path)) {
+            return "POST".equals(method) ? importEvents(request) : methodNotAllowed();
+        }
+        if (path.startsWith(EVENTS_PREFIX) && path.indexOf('/', EVENTS_PREFIX.length()) < 0
+                && path.length() > EVENTS_PREFIX.length()) {
+            return "GET".equals(method) ? getEvents(request, path.substring(EVENTS_PREFIX.length()))
+                                        : methodNotAllowed();
+        }
+        return http_response.error(404, "Not found");
+    }
+
+    /**
+     * Same shape as php/get_tasks.php: {"success": true, "tasks": [...]}
+     */
+    private http_response getTasks(http_request request) {
+        String userId = request.getParameter("user");
+        if (userId == null || userId.trim().isEmpty()) {
+            return http_response.json(400, "{\"success\":false,\"message\":\"Failed to load tasks: User not logged in\"}");
+        }
+        ArrayList<all_task.TaskSummary> assigned = tasks.getTasksAssignedTo(userId);
+        StringBuilder json = new StringBuilder(32 + assigned.size() * 160);
+        json.append("{\"success\":true,\"tasks\":[");
+        for (int i = 0; i < assigned.size(); i++) {
+            all_task.TaskSummary task = assigned.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":");
+            json_codec.appendString(json, task.getTaskId()).append(",\"title\":");
+            json_codec.appendString(json, task.getTitle()).append(",\"description\":");
+            json_codec.appendString(json, task.getDescription()).append(",\"deadline\":");
+            json_codec.appendString(json, formatTaskTime(task.getDueDate())).append(",\"status\":");
+            json_codec.appendString(json, task.getStatus()).append(",\"created_at\":");
+            json_codec.appendString(json, formatTaskTime(task.getCreationDate())).append('}');
+        }
+        return http_response.json(200, json.append("]}").toString());
+    }
+
+    /**
+     * Opens a user's notification stream; an EventSource resuming after a
+     * dropped connection sends Last-Event-ID, other clients may pass ?lastEventId=
+     */
+    private http_response openNotifications(http_request request) {
+        String userId = request.getParameter("user");
+        if (userId == null || userId.trim().isEmpty()) {
+            return http_response.error(400, "Missing user");
+        }
+        String lastEventId = request.getHeader("last-event-id");
+        if (lastEventId == null) lastEventId = request.getParameter("lastEventId");
+        String resumeFrom = lastEventId;
+        return http_response.eventStream(stream -> notifications.subscribe(userId, stream, resumeFrom));
+    }
+
+    /**
+     * A user's events in the calendar's compact row format, by default from
+     * the start of the current month for DEFAULT_VIEW_MONTHS months
+     */
+    private http_response getEvents(http_request request, String userId) {
+        LocalDateTime from;
+        LocalDateTime to;
+        try {
+            String fromParameter = request.getParameter("from");
+            String toParameter = request.getParameter("to");
+            from = fromParameter != null ? parseTime(fromParameter)
+                                         : LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1).atStartOfDay();
+            to = toParameter != null ? parseTime(toParameter) : from.plusMonths(DEFAULT_VIEW_MONTHS);
+        } catch (DateTimeParseException e) {
+            return http_response.error(400, "Invalid time: " + e.getParsedString());
+        }
+        if (!from.isBefore(to)) {
+            return http_response.error(400, "'from' must be before 'to'");
+        }
+        return http_response.json(200, calendar.getEventsInRangeJson(userId, from, to));
+    }
+
+    private http_response saveEvent(http_request request) {
+        Map<String, Object> body = parseBody(request);
+        Object event = body == null ? null : body.get("event");
+        String userId = body == null ? null : stringField(body, "userId");
+        if (userId == null || !(event instanceof Map)) {
+            return http_response.error(400, "Expected {\"userId\": ..., \"event\": {...}}");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> fields = (Map<String, Object>) event;
+        String name = stringField(fields, "title");
+        if (name == null) name = stringField(fields, "name");
+        String description = stringField(fields, "description");
+        String location = stringField(fields, "location");
+        String priorityName = stringField(fields, "priority");
+        LocalDateTime start;
+        LocalDateTime end;
+        calendar_event.EventPriority priority;
+        try {
+            start = parseTime(stringField(fields, "start"));
+            end = parseTime(stringField(fields, "end"));
+            priority = priorityName == null ? calendar_event.EventPriority.MEDIUM
+                : calendar_event.EventPriority.valueOf(priorityName.toUpperCase(Locale.ROOT));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return http_response.error(400, "Event needs a name, ISO-8601 start and end, and a valid priority");
+        }
+        if (name == null || !start.isBefore(end)) {
+            return http_response.error(400, "Event needs a name and must end after it starts");
+        }
+        String eventId = calendar.createEvent(name, description == null ? "" : description,
+                                              start, end, priority, userId, location);
+        if (eventId == null) {
+            return http_response.error(409, "Failed to save event");
+        }
+        StringBuilder json = new StringBuilder(192);
+        json.append("{\"id\":");
+        json_codec.appendString(json, eventId).append(",\"userId\":");
+        json_codec.appendString(json, userId).append(",\"title\":");
+        json_codec.appendString(json, name).append(",\"description\":");
+        json_codec.appendString(json, description).append(",\"start\":");
+        json_codec.appendString(json, start.toString()).append(",\"end\":");
+        json_codec.appendString(json, end.toString()).append(",\"priority\":");
+        json_codec.appendString(json, priority.name()).append(",\"location\":");
+        json_codec.appendString(json, location).append(",\"createdAt\":");
+        json_codec.appendString(json, Instant.now().toString()).append('}');
+        return http_response.json(200, json.toString());
+    }
+
+    /**
+     * Cancels an event; only its organizer may delete it
+     */
+    private http_response deleteEvent(http_request request) {
+        Map<String, Object> body = parseBody(request);
+        String userId = body == null ? null : stringField(body, "userId");
+        String eventId = body == null ? null : stringField(body, "eventId");
+        if (userId == null || eventId == null) {
+            return http_response.error(400, "Expected {\"userId\": ..., \"eventId\": ...}");
+        }
+        ArrayList<calendar_event.CalendarEntry> entries = calendar.entriesOf(eventId, null, null);
+        if (entries.isEmpty() || !userId.equals(entries.get(0).getOrganizer())) {
+            return http_response.error(404, "Event not found");
+        }
+        if (!calendar.cancelEvent(eventId)) {
+            return http_response.error(409, "Failed to delete event");
+        }
+        return http_response.json(200, "{\"message\":\"Event deleted successfully\"}");
+    }
+
+    /**
+     * Adds the events of an iCalendar body to the user's calendar; clashing
+     * and unsupported events are counted, not imported
+     */
+    private http_response importEvents(http_request request) {
+        String userId = request.getParameter("user");
+        if (userId == null || userId.trim().isEmpty()) {
+            return http_response.error(400, "Expected ?user=... and an iCalendar body");
+        }
+        byte[] feed = request.getBody().getBytes(StandardCharsets.UTF_8);
+        calendar_event.ImportResult result =
+            calendar.importICalendar(Channels.newChannel(new ByteArrayInputStream(feed)), userId);
+        if (result == null) {
+            return http_response.error(409, "Calendar is frozen");
+        }
+        return http_response.json(200, "{\"imported\":" + result.getImported()
+                                       + ",\"conflicts\":" + result.getConflicts()
+                                       + ",\"skipped\":" + result.getSkipped() + "}");
+    }
+
+    /**
+     * @return Map<String, Object> the body as a JSON object, null if it is not one
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseBody(http_request request) {
+        try {
+            Object body = json_codec.parse(request.getBody());
+            return body instanceof Map ? (Map<String, Object>) body : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A string field, with numbers such as numeric user IDs converted to their integer text
+     */
+    private static String stringField(Map<String, Object> object, String name) {
+        Object value = object.get(name);
+        if (value instanceof String) return (String) value;
+        if (value instanceof Double && (Double) value == Math.rint((Double) value)) {
+            return Long.toString(((Double) value).longValue());
+        }
+        return null;
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        if (value == null) throw new DateTimeParseException("Missing time", "", 0);
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.ofInstant(Instant.parse(value), ZoneOffset.UTC);
+        }
+    }
+
+    private static String formatTaskTime(LocalDateTime time) {
+        return time == null ? null : time.format(TASK_TIME_FORMAT);
+    }
+
+    private static http_response methodNotAllowed() {
+        return http_response.error(405, "Method not allowed");
+    }
+}
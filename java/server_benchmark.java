@@ -0,0 +1,149 @@
+package java;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerBenchmark compares the execution modes of server under handlers
+ * that block, as they do when they wait on the PHP bridge or send mail
+ * Every handler sleeps HANDLER_MILLIS before answering. CONNECTIONS clients
+ * each pipeline REQUESTS_PER_CONNECTION requests at the same moment, so
+ * 10k requests are outstanding at once. For each mode it prints the
+ * throughput of answered requests, their p50/p99 latency, and how many
+ * admission_control shed. Before Java 21 VIRTUAL_THREADS falls back to
+ * the platform pool, which the mode printed after the name shows.
+ * Run with: java java.server_benchmark [handlerMillis] [port]
+ */
+final class server_benchmark {
+    private static final int CONNECTIONS = 200;
+    private static final int REQUESTS_PER_CONNECTION = 50;
+
+    private server_benchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long handlerMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 18_090;
+        for (server.ExecutionMode mode : server.ExecutionMode.values()) {
+            server target = new server("bench", port, new all_task(), new calendar_event(), api -> request -> {
+                try {
+                    Thread.sleep(handlerMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return api.apply(request);
+            });
+            target.setExecutionMode(mode);
+            target.startServer();
+            try {
+                run(mode + " (" + target.getExecutionMode() + ")", port);
+                System.out.println("  admission: " + target.getAdmissionStats()
+                                   + ", pinned: " + target.getPinnedThreadCount());
+            } finally {
+                target.stopServer();
+            }
+        }
+    }
+
+    private static void run(String name, int port) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CONNECTIONS);
+        CyclicBarrier start = new CyclicBarrier(CONNECTIONS);
+        AtomicInteger shed = new AtomicInteger();
+        List<Future<long[]>> results = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int c = 0; c < CONNECTIONS; c++) {
+            int connection = c;
+            results.add(clients.submit(() -> runConnection(port, connection, start, shed)));
+        }
+        long[] latencies = new long[0];
+        for (Future<long[]> result : results) {
+            long[] served = result.get();
+            int end = latencies.length;
+            latencies = Arrays.copyOf(latencies, end + served.length);
+            System.arraycopy(served, 0, latencies, end, served.length);
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        clients.shutdown();
+        Arrays.sort(latencies);
+        System.out.printf("%s: %d concurrent requests in %.2fs, %d answered (%.0f req/s, p50 %d ms,"
+                          + " p99 %d ms), %d shed%n",
+                          name, CONNECTIONS * REQUESTS_PER_CONNECTION, elapsed, latencies.length,
+                          latencies.length / elapsed, millisAt(latencies, 50), millisAt(latencies, 99),
+                          shed.get());
+    }
+
+    /**
+     * Sends all of a connection's requests at once and times each response
+     * @return long[] nanoseconds until each 200 response, shed responses are only counted
+     */
+    private static long[] runConnection(int port, int connection, CyclicBarrier start, AtomicInteger shed)
+            throws Exception {
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < REQUESTS_PER_CONNECTION; i++) {
+            // One user per request keeps the per-user rate limit out of the measurement
+            batch.append("GET /api/tasks?user=b").append(connection).append('_').append(i)
+                 .append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        }
+        long[] latencies = new long[REQUESTS_PER_CONNECTION];
+        int served = 0;
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout((int) TimeUnit.MINUTES.toMillis(2));
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            start.await();
+            long sent = System.nanoTime();
+            out.write(batch.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            byte[] buffer = new byte[16 * 1024];
+            StringBuilder pending = new StringBuilder();
+            int answered = 0;
+            while (answered < REQUESTS_PER_CONNECTION) {
+                int n = in.read(buffer);
+                if (n < 0) throw new EOFException("Server closed the connection");
+                pending.append(new String(buffer, 0, n, StandardCharsets.ISO_8859_1));
+                while (answered < REQUESTS_PER_CONNECTION) {
+                    int headEnd = pending.indexOf("\r\n\r\n");
+                    if (headEnd < 0) break;
+                    String head = pending.substring(0, headEnd);
+                    int length = contentLength(head);
+                    if (pending.length() < headEnd + 4 + length) break;
+                    if (head.startsWith("HTTP/1.1 200")) {
+                        latencies[served++] = System.nanoTime() - sent;
+                    } else {
+                        shed.incrementAndGet();
+                    }
+                    pending.delete(0, headEnd + 4 + length);
+                    answered++;
+                }
+            }
+        }
+        return Arrays.copyOf(latencies, served);
+    }
+
+    private static int contentLength(String head) throws IOException {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        throw new IOException("Response without Content-Length: " + head);
+    }
+
+    private static long millisAt(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)]);
+    }
+}
@@ -0,0 +1,152 @@
+package java;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ServerLoadTest measures how many API requests per second a server answers
+ * on loopback
+ * Each client keeps one keep-alive connection and sends PIPELINE_DEPTH
+ * pipelined GET /api/tasks requests at a time, waiting for all responses
+ * before the next batch. Every client asks for its own users so the per
+ * user rate limit of admission_control does not kick in. Prints requests
+ * per second and the p50/p99 latency of a batch.
+ * Run with: java java.server_load_test [clients] [seconds] [port]
+ */
+final class server_load_test {
+    private static final int PIPELINE_DEPTH = 16;
+    private static final int USERS_PER_CLIENT = 100_000;
+
+    private server_load_test() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18_080;
+        all_task tasks = new all_task();
+        for (int i = 0; i < 20; i++) {
+            tasks.createTask("Task " + i, "Load test task", "MEDIUM", LocalDateTime.now().plusDays(i),
+                             "load", "load");
+        }
+        server target = new server("load-test", port, tasks, new calendar_event());
+        target.startServer();
+        try {
+            run(port, clients, seconds);
+            System.out.println("Admission: " + target.getAdmissionStats());
+        } finally {
+            target.stopServer();
+        }
+    }
+
+    private static void run(int port, int clients, int seconds) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong answered = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            results.add(pool.submit(() -> runClient(port, client, stop, answered, failed)));
+        }
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        long[] latencies = new long[0];
+        for (Future<long[]> result : results) {
+            long[] client = result.get();
+            int end = latencies.length;
+            latencies = Arrays.copyOf(latencies, end + client.length);
+            System.arraycopy(client, 0, latencies, end, client.length);
+        }
+        pool.shutdown();
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        Arrays.sort(latencies);
+        System.out.printf("%d clients x %d pipelined for %.1fs: %.0f req/s, %d non-200 responses,"
+                          + " batch p50 %.2f ms p99 %.2f ms%n",
+                          clients, PIPELINE_DEPTH, elapsed, answered.get() / elapsed, failed.get(),
+                          percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6);
+    }
+
+    /**
+     * Sends batches until stopped
+     * @return long[] nanoseconds each batch took
+     */
+    private static long[] runClient(int port, int client, AtomicBoolean stop, AtomicLong answered,
+                                    AtomicLong failed) throws IOException {
+        long[] latencies = new long[1024];
+        int batches = 0;
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long request = 0;
+            while (!stop.get()) {
+                StringBuilder batch = new StringBuilder();
+                for (int i = 0; i < PIPELINE_DEPTH; i++) {
+                    batch.append("GET /api/tasks?user=c").append(client).append('_')
+                         .append(request++ % USERS_PER_CLIENT).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                }
+                long sent = System.nanoTime();
+                out.write(batch.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                readResponses(in, buffer, PIPELINE_DEPTH, failed);
+                if (batches == latencies.length) latencies = Arrays.copyOf(latencies, batches * 2);
+                latencies[batches++] = System.nanoTime() - sent;
+                answered.addAndGet(PIPELINE_DEPTH);
+            }
+        }
+        return Arrays.copyOf(latencies, batches);
+    }
+
+    /**
+     * Reads whole responses, using their Content-Length to find where each ends
+     */
+    private static void readResponses(InputStream in, byte[] buffer, int count, AtomicLong failed)
+            throws IOException {
+        StringBuilder pending = new StringBuilder();
+        int read = 0;
+        while (read < count) {
+            int n = in.read(buffer);
+            if (n < 0) throw new EOFException("Server closed the connection");
+            pending.append(new String(buffer, 0, n, StandardCharsets.ISO_8859_1));
+            while (read < count) {
+                int headEnd = pending.indexOf("\r\n\r\n");
+                if (headEnd < 0) break;
+                String head = pending.substring(0, headEnd);
+                int length = contentLength(head);
+                if (pending.length() < headEnd + 4 + length) break;
+                if (!head.startsWith("HTTP/1.1 200")) failed.incrementAndGet();
+                pending.delete(0, headEnd + 4 + length);
+                read++;
+            }
+        }
+    }
+
+    private static int contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        return 0;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
@@ -0,0 +1,200 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TaskAuditLog stores audit entries in one time-ordered chain per task
+ * Reading a task's history only touches that task's chain, and entries are
+ * formatted only when they are actually returned
+ * Appends are lock-free, so any number of request threads can log at once
+ */
+public class task_audit_log {
+    private ConcurrentHashMap<String, AuditChain> chains;
+
+    /**
+     * Audit trail entry, kept unformatted until it is read
+     */
+    static class TaskAudit {
+        private LocalDateTime timestamp;
+        private String taskId;
+        private String action;
+        private String performedBy;
+        private String details;
+
+        public TaskAudit(String taskId, String action, String performedBy, String details) {
+            this.timestamp = LocalDateTime.now();
+            this.taskId = taskId;
+            this.action = action;
+            this.performedBy = performedBy;
+            this.details = details;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s] Task: %s - Action: %s - By: %s - Details: %s",
+                timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                taskId, action, performedBy, details);
+        }
+    }
+
+    /**
+     * Lock-free, append-only chain of entries for one task
+     * Slots live in chunks that double in size, so a position maps to its chunk
+     * in constant time and existing chunks never move. Writers claim a position
+     * with one atomic increment; readers see the published prefix up to the
+     * first slot that is still being filled.
+     */
+    private static final class AuditChain {
+        private static final int FIRST_CHUNK_BITS = 4;
+        private static final int FIRST_CHUNK_SIZE = 1 << FIRST_CHUNK_BITS;
+        private static final int MAX_CHUNKS = 32 - FIRST_CHUNK_BITS;
+
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicReferenceArray<AtomicReferenceArray<TaskAudit>> chunks =
+            new AtomicReferenceArray<>(MAX_CHUNKS);
+
+        void append(TaskAudit audit) {
+            int position = reserved.getAndIncrement();
+            if (position < 0 || position > Integer.MAX_VALUE - FIRST_CHUNK_SIZE) {
+                throw new IllegalStateException("Audit chain is full for task " + audit.taskId);
+            }
+            int slot = position + FIRST_CHUNK_SIZE;
+            int chunkIndex = 31 - Integer.numberOfLeadingZeros(slot) - FIRST_CHUNK_BITS;
+            chunk(chunkIndex).set(slot - Integer.highestOneBit(slot), audit);
+        }
+
+        /**
+         * Entry at a position, or null if it has not been published yet
+         */
+        TaskAudit get(int position) {
+            int slot = position + FIRST_CHUNK_SIZE;
+            int chunkIndex = 31 - Integer.numberOfLeadingZeros(slot) - FIRST_CHUNK_BITS;
+            AtomicReferenceArray<TaskAudit> chunk = chunks.get(chunkIndex);
+            return chunk == null ? null : chunk.get(slot - Integer.highestOneBit(slot));
+        }
+
+        /**
+         * Upper bound on the published entries, readers stop at the first gap
+         */
+        int reservedSize() {
+            return reserved.get();
+        }
+
+        private AtomicReferenceArray<TaskAudit> chunk(int chunkIndex) {
+            AtomicReferenceArray<TaskAudit> chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                chunks.compareAndSet(chunkIndex, null,
+                                     new AtomicReferenceArray<>(FIRST_CHUNK_SIZE << chunkIndex));
+                chunk = chunks.get(chunkIndex);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * One page of a task's audit history
+     */
+    public static class AuditPage {
+        private final List<String> entries;
+        private final long nextCursor;
+        private final boolean hasMore;
+
+        AuditPage(List<String> entries, long nextCursor, boolean hasMore) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * @return List<String> formatted entries, oldest first
+         */
+        public List<String> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return long cursor to pass back for the following page
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return boolean indicating if more entries follow this page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    task_audit_log() {
+        this.chains = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Appends an entry to the chain of its task
+     */
+    void append(String taskId, String action, String performedBy, String details) {
+        TaskAudit audit = new TaskAudit(taskId, action, performedBy, details);
+        AuditChain chain = chains.get(taskId);
+        if (chain == null) {
+            chain = chains.computeIfAbsent(taskId, k -> new AuditChain());
+        }
+        chain.append(audit);
+    }
+
+    /**
+     * Formats the whole history of one task, oldest first
+     */
+    ArrayList<String> history(String taskId) {
+        ArrayList<String> result = new ArrayList<>();
+        AuditChain chain = chains.get(taskId);
+        if (chain == null) return result;
+        int size = chain.reservedSize();
+        for (int i = 0; i < size; i++) {
+            TaskAudit audit = chain.get(i);
+            if (audit == null) break;
+            result.add(audit.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Returns up to {@code limit} entries of one task starting at {@code cursor}
+     * @param cursor 0 for the first page, otherwise the cursor of the previous page
+     */
+    AuditPage page(String taskId, long cursor, int limit) {
+        if (cursor < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Cursor must be non-negative and limit positive");
+        }
+        AuditChain chain = chains.get(taskId);
+        int size = chain == null ? 0 : chain.reservedSize();
+        int from = (int) Math.min(cursor, size);
+        int to = (int) Math.min(size, (long) from + limit);
+
+        ArrayList<String> entries = new ArrayList<>(to - from);
+        int next = from;
+        while (next < to) {
+            TaskAudit audit = chain.get(next);
+            if (audit == null) break;
+            entries.add(audit.toString());
+            next++;
+        }
+        return new AuditPage(entries, next, next < size);
+    }
+
+    /**
+     * Number of entries recorded for a task
+     */
+    int count(String taskId) {
+        AuditChain chain = chains.get(taskId);
+        return chain == null ? 0 : chain.reservedSize();
+    }
+}
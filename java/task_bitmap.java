@@ -0,0 +1,399 @@
+package java;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * TaskBitmap is a compressed set of non-negative int ordinals
+ * Values are grouped by their high 16 bits; each group is stored as a sorted
+ * array while sparse and switches to a 65536-bit bitset once it holds more
+ * than 4096 values, so memory stays proportional to the data in both cases.
+ * Set operations work group by group and always return new bitmaps.
+ * Instances are not thread-safe, callers guard them.
+ */
+final class task_bitmap {
+    private static final int INITIAL_GROUPS = 4;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    /**
+     * Values sharing one high 16-bit key, either a sorted array or a bitset
+     */
+    private static final class Container {
+        private static final int ARRAY_LIMIT = 4096;
+        private static final int WORDS = 1024;
+
+        private char[] array;
+        private long[] bits;
+        private int cardinality;
+
+        static Container ofArray(char[] array, int cardinality) {
+            Container c = new Container();
+            c.array = array;
+            c.cardinality = cardinality;
+            return c;
+        }
+
+        /**
+         * Builds the smaller representation for the given bitset words
+         */
+        static Container ofWords(long[] words) {
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            Container c = new Container();
+            c.cardinality = cardinality;
+            if (cardinality > ARRAY_LIMIT) {
+                c.bits = words;
+                return c;
+            }
+            c.array = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    c.array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return c;
+        }
+
+        boolean contains(char value) {
+            if (bits != null) {
+                return (bits[value >>> 6] & (1L << value)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+        }
+
+        boolean add(char value) {
+            if (bits != null) {
+                long before = bits[value >>> 6];
+                long after = before | (1L << value);
+                bits[value >>> 6] = after;
+                if (before == after) return false;
+                cardinality++;
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, value);
+            if (at >= 0) return false;
+            if (cardinality == ARRAY_LIMIT) {
+                bits = toWords();
+                array = null;
+                return add(value);
+            }
+            int insert = -at - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, array.length * 2));
+            }
+            System.arraycopy(array, insert, array, insert + 1, cardinality - insert);
+            array[insert] = value;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char value) {
+            if (bits != null) {
+                long before = bits[value >>> 6];
+                long after = before & ~(1L << value);
+                if (before == after) return false;
+                bits[value >>> 6] = after;
+                cardinality--;
+                if (cardinality <= ARRAY_LIMIT / 2) {
+                    Container shrunk = ofWords(bits);
+                    array = shrunk.array;
+                    bits = null;
+                }
+                return true;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, value);
+            if (at < 0) return false;
+            System.arraycopy(array, at + 1, array, at, cardinality - at - 1);
+            cardinality--;
+            return true;
+        }
+
+        long[] toWords() {
+            if (bits != null) return bits.clone();
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[array[i] >>> 6] |= 1L << array[i];
+            }
+            return words;
+        }
+
+        Container copy() {
+            Container c = new Container();
+            c.cardinality = cardinality;
+            if (bits != null) {
+                c.bits = bits.clone();
+            } else {
+                c.array = Arrays.copyOf(array, Math.max(cardinality, 1));
+            }
+            return c;
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.bits != null && b.bits != null) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = a.bits[w] & b.bits[w];
+                }
+                return ofWords(words);
+            }
+            if (a.bits != null) {
+                Container swap = a;
+                a = b;
+                b = swap;
+            }
+            char[] result = new char[Math.max(1, Math.min(a.cardinality, b.cardinality))];
+            int n = 0;
+            if (b.bits != null) {
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (b.contains(a.array[i])) result[n++] = a.array[i];
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality && j < b.cardinality) {
+                    char x = a.array[i];
+                    char y = b.array[j];
+                    if (x == y) {
+                        result[n++] = x;
+                        i++;
+                        j++;
+                    } else if (x < y) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+            }
+            return ofArray(result, n);
+        }
+
+        static Container or(Container a, Container b) {
+            if (a.bits == null && b.bits == null && a.cardinality + b.cardinality <= ARRAY_LIMIT) {
+                char[] result = new char[Math.max(1, a.cardinality + b.cardinality)];
+                int i = 0;
+                int j = 0;
+                int n = 0;
+                while (i < a.cardinality || j < b.cardinality) {
+                    if (j >= b.cardinality || (i < a.cardinality && a.array[i] < b.array[j])) {
+                        result[n++] = a.array[i++];
+                    } else if (i >= a.cardinality || b.array[j] < a.array[i]) {
+                        result[n++] = b.array[j++];
+                    } else {
+                        result[n++] = a.array[i++];
+                        j++;
+                    }
+                }
+                return ofArray(result, n);
+            }
+            long[] words = a.toWords();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] |= b.bits[w];
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    words[b.array[i] >>> 6] |= 1L << b.array[i];
+                }
+            }
+            return ofWords(words);
+        }
+
+        static Container andNot(Container a, Container b) {
+            if (a.bits == null) {
+                char[] result = new char[Math.max(1, a.cardinality)];
+                int n = 0;
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (!b.contains(a.array[i])) result[n++] = a.array[i];
+                }
+                return ofArray(result, n);
+            }
+            long[] words = a.bits.clone();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] &= ~b.bits[w];
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    words[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+                }
+            }
+            return ofWords(words);
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | array[i]);
+                }
+            }
+        }
+    }
+
+    task_bitmap() {
+        this.keys = new char[INITIAL_GROUPS];
+        this.containers = new Container[INITIAL_GROUPS];
+        this.size = 0;
+    }
+
+    boolean add(int value) {
+        checkValue(value);
+        char key = (char) (value >>> 16);
+        int at = indexOf(key);
+        if (at < 0) {
+            at = -at - 1;
+            insertContainer(at, key, Container.ofArray(new char[4], 0));
+        }
+        return containers[at].add((char) value);
+    }
+
+    boolean remove(int value) {
+        if (value < 0) return false;
+        int at = indexOf((char) (value >>> 16));
+        if (at < 0) return false;
+        boolean removed = containers[at].remove((char) value);
+        if (removed && containers[at].cardinality == 0) {
+            System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+            System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+            containers[--size] = null;
+        }
+        return removed;
+    }
+
+    boolean contains(int value) {
+        if (value < 0) return false;
+        int at = indexOf((char) (value >>> 16));
+        return at >= 0 && containers[at].contains((char) value);
+    }
+
+    int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality;
+        }
+        return total;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    task_bitmap copy() {
+        task_bitmap result = new task_bitmap();
+        for (int i = 0; i < size; i++) {
+            result.appendContainer(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    task_bitmap and(task_bitmap other) {
+        task_bitmap result = new task_bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] == other.keys[j]) {
+                Container c = Container.and(containers[i], other.containers[j]);
+                if (c.cardinality > 0) result.appendContainer(keys[i], c);
+                i++;
+                j++;
+            } else if (keys[i] < other.keys[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    task_bitmap or(task_bitmap other) {
+        task_bitmap result = new task_bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendContainer(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || other.keys[j] < keys[i]) {
+                result.appendContainer(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendContainer(keys[i], Container.or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    task_bitmap andNot(task_bitmap other) {
+        task_bitmap result = new task_bitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container c = j < other.size && other.keys[j] == keys[i]
+                ? Container.andNot(containers[i], other.containers[j])
+                : containers[i].copy();
+            if (c.cardinality > 0) result.appendContainer(keys[i], c);
+        }
+        return result;
+    }
+
+    /**
+     * Visits every value in ascending order
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int at, char key, Container container) {
+        ensureCapacity();
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = container;
+        size++;
+    }
+
+    private void appendContainer(char key, Container container) {
+        ensureCapacity();
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private void ensureCapacity() {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Bitmap values must be non-negative: " + value);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * TaskDeadlineIndex keeps open tasks ordered by their due date
+ * Range, overdue and next-due lookups only visit the tasks they return
+ */
+class task_deadline_index {
+    private final ConcurrentSkipListSet<DeadlineKey> deadlines;
+    private final long_hash_map<DeadlineKey> keysByTask;
+
+    /**
+     * Sort key ordering tasks by due date, ties broken by task ID
+     */
+    private static final class DeadlineKey implements Comparable<DeadlineKey> {
+        private final LocalDateTime dueDate;
+        private final long taskId;
+
+        DeadlineKey(LocalDateTime dueDate, long taskId) {
+            this.dueDate = dueDate;
+            this.taskId = taskId;
+        }
+
+        /**
+         * Lowest possible key for an instant, sorts before every task due at it
+         */
+        static DeadlineKey floorOf(LocalDateTime instant) {
+            return new DeadlineKey(instant, Long.MIN_VALUE);
+        }
+
+        @Override
+        public int compareTo(DeadlineKey other) {
+            int byDate = dueDate.compareTo(other.dueDate);
+            return byDate != 0 ? byDate : Long.compare(taskId, other.taskId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DeadlineKey)) return false;
+            DeadlineKey other = (DeadlineKey) o;
+            return dueDate.equals(other.dueDate) && taskId == other.taskId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * dueDate.hashCode() + Long.hashCode(taskId);
+        }
+    }
+
+    task_deadline_index() {
+        this.deadlines = new ConcurrentSkipListSet<>();
+        this.keysByTask = new long_hash_map<>();
+    }
+
+    /**
+     * Adds or moves a task in the index, tasks without a due date are ignored
+     */
+    void put(long taskId, LocalDateTime dueDate) {
+        if (dueDate == null) {
+            remove(taskId);
+            return;
+        }
+        DeadlineKey key = new DeadlineKey(dueDate, taskId);
+        DeadlineKey previous = keysByTask.put(taskId, key);
+        if (previous != null && !previous.equals(key)) {
+            deadlines.remove(previous);
+        }
+        deadlines.add(key);
+    }
+
+    /**
+     * Drops a task from the index
+     */
+    void remove(long taskId) {
+        DeadlineKey key = keysByTask.remove(taskId);
+        if (key != null) {
+            deadlines.remove(key);
+        }
+    }
+
+    /**
+     * Task IDs due in [from, to), earliest first
+     */
+    long[] dueBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) return new long[0];
+        return toTaskIds(deadlines.subSet(DeadlineKey.floorOf(from), true,
+                                          DeadlineKey.floorOf(to), false), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Task IDs due strictly before the given instant, earliest first
+     */
+    long[] dueBefore(LocalDateTime instant) {
+        return toTaskIds(deadlines.headSet(DeadlineKey.floorOf(instant), false), Integer.MAX_VALUE);
+    }
+
+    /**
+     * The next {@code limit} task IDs due at or after the given instant
+     */
+    long[] nextDue(LocalDateTime from, int limit) {
+        if (limit <= 0) return new long[0];
+        return toTaskIds(deadlines.tailSet(DeadlineKey.floorOf(from), true), limit);
+    }
+
+    int size() {
+        return keysByTask.size();
+    }
+
+    private static long[] toTaskIds(Collection<DeadlineKey> keys, int limit) {
+        long[] taskIds = new long[16];
+        int count = 0;
+        for (DeadlineKey key : keys) {
+            if (count == limit) break;
+            if (count == taskIds.length) {
+                taskIds = Arrays.copyOf(taskIds, count * 2);
+            }
+            taskIds[count++] = key.taskId;
+        }
+        return Arrays.copyOf(taskIds, count);
+    }
+}
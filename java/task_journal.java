@@ -0,0 +1,602 @@
+package java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * TaskJournal makes the task store durable with a write-ahead log and snapshots
+ *
+ * Every mutation (create, progress, details, tag, delete) is framed as
+ * [length][crc32][payload] and appended to the current log segment. A single
+ * writer thread drains all pending records, writes them in one pass and
+ * issues one fsync for the whole group before releasing the callers. A checkpoint rotates to a fresh segment, writes a
+ * compact snapshot of the live state and deletes the segments it covers, so
+ * recovery reads one snapshot plus a short log tail. Replay is idempotent,
+ * which lets the snapshot be taken while mutations continue. Records replayed
+ * on startup count towards the next checkpoint, so the tail stays bounded
+ * however often the process restarts. A group whose write or fsync fails is
+ * cut off the segment again, so later records never follow a partial frame.
+ */
+class task_journal {
+    private static final String SNAPSHOT_FILE = "tasks.snapshot";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x544D534E;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int MAX_RECORD_BYTES = 16 << 20;
+    private static final int MAX_GROUP_RECORDS = 4096;
+    private static final long RECORDS_PER_SNAPSHOT = 50_000;
+
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_PROGRESS = 2;
+    private static final byte OP_TAG = 3;
+    private static final byte OP_DELETE = 4;
+    private static final byte OP_DETAILS = 5;
+
+    private final Path directory;
+    private final StateHandler handler;
+    private final LinkedBlockingQueue<PendingRecord> pending;
+    private final AtomicBoolean checkpointRunning;
+    private final Thread writerThread;
+    private volatile boolean running;
+    private FileChannel segment;
+    private long segmentId;
+    private long recordsSinceSnapshot;
+
+    /**
+     * Bridge to the task store for snapshots and replay
+     * Replay methods must be idempotent and must not write back to the journal
+     */
+    interface StateHandler {
+        /**
+         * @return long highest ID ever issued, kept in the snapshot header so the
+         *         IDs of tasks deleted before it are not issued again
+         */
+        long highestIssuedId();
+
+        void restoreHighestIssuedId(long id);
+
+        void writeSnapshot(DataOutputStream out) throws IOException;
+
+        void readSnapshot(DataInputStream in) throws IOException;
+
+        void replayCreate(String taskId, String title, String description, String priority,
+                          LocalDateTime creationDate, LocalDateTime dueDate,
+                          String assignedTo, String category);
+
+        void replayProgress(String taskId, int progress);
+
+        void replayDetails(String taskId, String title, String description);
+
+        void replayTag(String taskId, String tag);
+
+        void replayDelete(String taskId);
+    }
+
+    /**
+     * Encoded record waiting for the writer thread, or a segment rotation marker
+     */
+    private static final class PendingRecord {
+        private final byte[] frame;
+        private final CompletableFuture<Long> durable;
+
+        PendingRecord(byte[] frame) {
+            this.frame = frame;
+            this.durable = new CompletableFuture<>();
+        }
+
+        boolean isRotation() {
+            return frame == null;
+        }
+    }
+
+    private task_journal(Path directory, StateHandler handler) {
+        this.directory = directory;
+        this.handler = handler;
+        this.pending = new LinkedBlockingQueue<>();
+        this.checkpointRunning = new AtomicBoolean(false);
+        this.writerThread = new Thread(this::writeLoop, "task-journal-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Recovers state from the latest snapshot and log tail, then opens a new
+     * segment for appends
+     * @throws UncheckedIOException if the directory cannot be read or written
+     */
+    static task_journal open(Path directory, StateHandler handler) {
+        task_journal journal = new task_journal(directory, handler);
+        try {
+            Files.createDirectories(directory);
+            long segment = journal.recover();
+            journal.openSegment(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open task journal in " + directory, e);
+        }
+        journal.running = true;
+        journal.writerThread.start();
+        if (journal.recordsSinceSnapshot >= RECORDS_PER_SNAPSHOT) {
+            journal.checkpoint();
+        }
+        return journal;
+    }
+
+    CompletableFuture<Long> logCreate(String taskId, String title, String description,
+                                      String priority, LocalDateTime creationDate,
+                                      LocalDateTime dueDate, String assignedTo, String category) {
+        return enqueue(out -> {
+            out.writeByte(OP_CREATE);
+            writeString(out, taskId);
+            writeString(out, title);
+            writeString(out, description);
+            writeString(out, priority);
+            writeDateTime(out, creationDate);
+            writeDateTime(out, dueDate);
+            writeString(out, assignedTo);
+            writeString(out, category);
+        });
+    }
+
+    CompletableFuture<Long> logProgress(String taskId, int progress) {
+        return enqueue(out -> {
+            out.writeByte(OP_PROGRESS);
+            writeString(out, taskId);
+            out.writeInt(progress);
+        });
+    }
+
+    CompletableFuture<Long> logDetails(String taskId, String title, String description) {
+        return enqueue(out -> {
+            out.writeByte(OP_DETAILS);
+            writeString(out, taskId);
+            writeString(out, title);
+            writeString(out, description);
+        });
+    }
+
+    CompletableFuture<Long> logTag(String taskId, String tag) {
+        return enqueue(out -> {
+            out.writeByte(OP_TAG);
+            writeString(out, taskId);
+            writeString(out, tag);
+        });
+    }
+
+    CompletableFuture<Long> logDelete(String taskId) {
+        return enqueue(out -> {
+            out.writeByte(OP_DELETE);
+            writeString(out, taskId);
+        });
+    }
+
+    /**
+     * Writes a snapshot of the current state and drops the log it covers
+     * Concurrent callers share the run that is already in progress
+     */
+    void checkpoint() {
+        if (!running) {
+            throw new IllegalStateException("Task journal is closed");
+        }
+        if (!checkpointRunning.compareAndSet(false, true)) return;
+        try {
+            PendingRecord rotation = new PendingRecord(null);
+            pending.add(rotation);
+            long replayFrom = rotation.durable.join();
+            writeSnapshot(replayFrom);
+            deleteSegmentsBefore(replayFrom);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write task snapshot", e);
+        } finally {
+            checkpointRunning.set(false);
+        }
+    }
+
+    /**
+     * Flushes pending records and stops the writer thread
+     */
+    void close() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingRecord record;
+        while ((record = pending.poll()) != null) {
+            record.durable.completeExceptionally(new IllegalStateException("Task journal is closed"));
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private CompletableFuture<Long> enqueue(RecordWriter writer) {
+        if (!running) {
+            throw new IllegalStateException("Task journal is closed");
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            writer.write(out);
+            byte[] frame = bytes.toByteArray();
+
+            int length = frame.length - 8;
+            CRC32 crc = new CRC32();
+            crc.update(frame, 8, length);
+            ByteBuffer.wrap(frame).putInt(length).putInt((int) crc.getValue());
+
+            PendingRecord record = new PendingRecord(frame);
+            pending.add(record);
+            // close() may have let the writer exit after the check above; a
+            // record it can no longer take is failed instead of left waiting
+            if (!running && pending.remove(record)) {
+                throw new IllegalStateException("Task journal is closed");
+            }
+            return record.durable;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Group commit loop: one write and one fsync per drained batch
+     */
+    private void writeLoop() {
+        ArrayList<PendingRecord> group = new ArrayList<>();
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingRecord first = pending.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                pending.drainTo(group, MAX_GROUP_RECORDS - 1);
+                commitGroup(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                for (PendingRecord record : group) {
+                    record.durable.completeExceptionally(e);
+                }
+            } finally {
+                group.clear();
+            }
+        }
+        try {
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close task journal: " + e.getMessage());
+        }
+    }
+
+    private void commitGroup(ArrayList<PendingRecord> group) throws IOException {
+        int start = 0;
+        while (start < group.size()) {
+            int end = start;
+            int bytes = 0;
+            while (end < group.size() && !group.get(end).isRotation()) {
+                bytes += group.get(end).frame.length;
+                end++;
+            }
+            if (end > start) {
+                ByteBuffer buffer = ByteBuffer.allocate(bytes);
+                for (int i = start; i < end; i++) {
+                    buffer.put(group.get(i).frame);
+                }
+                buffer.flip();
+                long committedBytes = segment.size();
+                try {
+                    while (buffer.hasRemaining()) {
+                        segment.write(buffer);
+                    }
+                    segment.force(false);
+                } catch (IOException e) {
+                    discardFailedWrite(committedBytes);
+                    throw e;
+                }
+                for (int i = start; i < end; i++) {
+                    group.get(i).durable.complete(segmentId);
+                }
+                recordsSinceSnapshot += end - start;
+            }
+            if (end < group.size()) {
+                segment.force(false);
+                segment.close();
+                openSegment(segmentId + 1);
+                recordsSinceSnapshot = 0;
+                group.get(end).durable.complete(segmentId);
+                end++;
+            }
+            start = end;
+        }
+        if (recordsSinceSnapshot >= RECORDS_PER_SNAPSHOT && !checkpointRunning.get()) {
+            recordsSinceSnapshot = 0;
+            Thread snapshotThread = new Thread(this::checkpoint, "task-journal-snapshot");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        }
+    }
+
+    /**
+     * Cuts a failed group off the segment, so the records after it do not
+     * follow a partial frame; if that fails too, appends move to a new
+     * segment and recovery cuts the torn tail off the old one
+     */
+    private void discardFailedWrite(long committedBytes) {
+        try {
+            segment.truncate(committedBytes);
+            segment.force(false);
+        } catch (IOException e) {
+            try {
+                segment.close();
+            } catch (IOException ignored) {
+                // The channel is being replaced either way
+            }
+            try {
+                openSegment(segmentId + 1);
+            } catch (IOException reopen) {
+                System.err.println("Failed to open a new task journal segment: " + reopen.getMessage());
+            }
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        this.segmentId = id;
+        this.segment = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void writeSnapshot(long replayFrom) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16),
+                new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(replayFrom);
+            out.writeLong(handler.highestIssuedId());
+            handler.writeSnapshot(out);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteSegmentsBefore(long segmentId) throws IOException {
+        for (long id : listSegments()) {
+            if (id < segmentId) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+        }
+    }
+
+    private ArrayList<Long> listSegments() throws IOException {
+        ArrayList<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                                          name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected journal file: " + name);
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Loads the snapshot, replays the segments after it and returns the ID of
+     * the segment to append to: the newest one, whose torn tail has been cut
+     * off, so restarts do not leave a trail of near-empty segments
+     */
+    private long recover() throws IOException {
+        long replayFrom = readSnapshot();
+        ArrayList<Long> segments = listSegments();
+        long appendTo = replayFrom;
+        for (int i = 0; i < segments.size(); i++) {
+            long id = segments.get(i);
+            if (id < replayFrom) {
+                Files.deleteIfExists(segmentPath(id));
+                continue;
+            }
+            appendTo = id;
+            recordsSinceSnapshot += replaySegment(segmentPath(id), i == segments.size() - 1);
+        }
+        return appendTo;
+    }
+
+    private long readSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) return 0;
+
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 24) {
+            throw new IOException("Task snapshot is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+            throw new IOException("Task snapshot checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Unsupported task snapshot format");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported task snapshot version " + version);
+        }
+        long replayFrom = in.readLong();
+        // Version 1 snapshots predate the header field and only know their live tasks
+        if (version >= 2) {
+            handler.restoreHighestIssuedId(in.readLong());
+        }
+        handler.readSnapshot(in);
+        return replayFrom;
+    }
+
+    /**
+     * Replays every intact record in a segment
+     * A bad record at the end of the newest segment is a torn write from a
+     * crash and is cut off. In an older segment only a bad last record is,
+     * left by a failed write that moved appends on; anything else means real
+     * corruption
+     * @return long number of records replayed
+     */
+    private long replaySegment(Path file, boolean isNewest) throws IOException {
+        long validBytes = 0;
+        long records = 0;
+        int badLength;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    if (validBytes == Files.size(file)) return records;
+                    // Part of a length prefix, which appends must not follow
+                    badLength = 0;
+                    break;
+                }
+                byte[] payload = readPayload(in, length);
+                if (payload == null) {
+                    badLength = length;
+                    break;
+                }
+                replayRecord(payload);
+                validBytes += 8 + length;
+                records++;
+            }
+        }
+        boolean lastRecord = badLength >= 0 && badLength <= MAX_RECORD_BYTES
+            && validBytes + 8 + badLength >= Files.size(file);
+        if (!isNewest && !lastRecord) {
+            throw new IOException("Corrupt record in task journal segment " + file.getFileName());
+        }
+        System.err.println("Truncating torn record at offset " + validBytes + " in " + file.getFileName());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(validBytes);
+            channel.force(true);
+        }
+        return records;
+    }
+
+    /**
+     * Reads and verifies one payload, or returns null if it is incomplete or damaged
+     */
+    private byte[] readPayload(DataInputStream in, int length) throws IOException {
+        if (length <= 0 || length > MAX_RECORD_BYTES) return null;
+        try {
+            int expectedCrc = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == expectedCrc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void replayRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        switch (op) {
+            case OP_CREATE:
+                handler.replayCreate(readString(in), readString(in), readString(in), readString(in),
+                                     readDateTime(in), readDateTime(in), readString(in), readString(in));
+                break;
+            case OP_PROGRESS:
+                handler.replayProgress(readString(in), in.readInt());
+                break;
+            case OP_TAG:
+                handler.replayTag(readString(in), readString(in));
+                break;
+            case OP_DELETE:
+                handler.replayDelete(readString(in));
+                break;
+            case OP_DETAILS:
+                handler.replayDetails(readString(in), readString(in), readString(in));
+                break;
+            default:
+                throw new IOException("Unknown task journal operation: " + op);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeDateTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        long seconds = in.readLong();
+        return LocalDateTime.ofEpochSecond(seconds, in.readInt(), ZoneOffset.UTC);
+    }
+}
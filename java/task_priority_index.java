@@ -0,0 +1,117 @@
+package java;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * TaskPriorityIndex keeps each assignee's open tasks in priority order
+ * Tasks are sorted by priority weight (highest first), then due date
+ * (earliest first, undated last), so the top K of an assignee are read off
+ * the head of a skip list in O(K + log n) without sorting anything.
+ */
+class task_priority_index {
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<PriorityKey>> byAssignee;
+    private final long_hash_map<PriorityKey> keysByTask;
+
+    /**
+     * Sort key for one task inside its assignee's view
+     */
+    private static final class PriorityKey implements Comparable<PriorityKey> {
+        private final String assignee;
+        private final int weight;
+        private final LocalDateTime dueDate;
+        private final long taskId;
+
+        PriorityKey(String assignee, int weight, LocalDateTime dueDate, long taskId) {
+            this.assignee = assignee;
+            this.weight = weight;
+            this.dueDate = dueDate;
+            this.taskId = taskId;
+        }
+
+        @Override
+        public int compareTo(PriorityKey other) {
+            if (weight != other.weight) {
+                return Integer.compare(other.weight, weight);
+            }
+            if (dueDate == null || other.dueDate == null) {
+                if (dueDate != other.dueDate) return dueDate == null ? 1 : -1;
+            } else {
+                int byDate = dueDate.compareTo(other.dueDate);
+                if (byDate != 0) return byDate;
+            }
+            return Long.compare(taskId, other.taskId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PriorityKey)) return false;
+            PriorityKey other = (PriorityKey) o;
+            return compareTo(other) == 0 && assignee.equals(other.assignee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(taskId) * 31 + weight;
+        }
+    }
+
+    task_priority_index() {
+        this.byAssignee = new ConcurrentHashMap<>();
+        this.keysByTask = new long_hash_map<>();
+    }
+
+    /**
+     * Adds a task to its assignee's view or moves it after a change
+     * Callers serialize updates per task
+     */
+    void put(long taskId, String assignee, int weight, LocalDateTime dueDate) {
+        PriorityKey key = new PriorityKey(normalize(assignee), weight, dueDate, taskId);
+        PriorityKey previous = keysByTask.put(taskId, key);
+        if (previous != null && !previous.equals(key)) {
+            detach(previous);
+        }
+        byAssignee.computeIfAbsent(key.assignee, k -> new ConcurrentSkipListSet<>()).add(key);
+    }
+
+    /**
+     * Drops a task from the view, e.g. once it is completed or deleted
+     */
+    void remove(long taskId) {
+        PriorityKey key = keysByTask.remove(taskId);
+        if (key != null) {
+            detach(key);
+        }
+    }
+
+    /**
+     * The assignee's {@code limit} most important open task IDs
+     */
+    long[] top(String assignee, int limit) {
+        ConcurrentSkipListSet<PriorityKey> view = byAssignee.get(normalize(assignee));
+        if (view == null || limit <= 0) return new long[0];
+        long[] taskIds = new long[Math.min(limit, 64)];
+        int count = 0;
+        for (PriorityKey key : view) {
+            if (count == limit) break;
+            if (count == taskIds.length) {
+                taskIds = Arrays.copyOf(taskIds, Math.min(limit, count * 2));
+            }
+            taskIds[count++] = key.taskId;
+        }
+        return Arrays.copyOf(taskIds, count);
+    }
+
+    private void detach(PriorityKey key) {
+        ConcurrentSkipListSet<PriorityKey> view = byAssignee.get(key.assignee);
+        if (view != null) {
+            view.remove(key);
+        }
+    }
+
+    private static String normalize(String assignee) {
+        return assignee == null ? "" : assignee;
+    }
+}
@@ -0,0 +1,226 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * TaskTagIndex maps each tag to the set of tasks carrying it
+ * Tasks get a dense internal ordinal so every tag's posting list is a
+ * compressed task_bitmap, and tag queries become bitmap AND/OR/ANDNOT work
+ * that never visits a task outside the result. Each posting list has its own
+ * read/write lock, so tagging different tags never contends.
+ */
+class task_tag_index {
+    private static final int ORDINAL_CHUNK_BITS = 12;
+    private static final int ORDINAL_CHUNK_SIZE = 1 << ORDINAL_CHUNK_BITS;
+
+    private final ConcurrentHashMap<String, Postings> postings;
+    private final Postings liveTasks;
+    private final long_hash_map<Integer> ordinals;
+    private final AtomicInteger nextOrdinal;
+    private final Object directoryLock;
+    private volatile long[][] taskIdsByOrdinal;
+
+    /**
+     * Bitmap of task ordinals guarded by its own lock
+     */
+    private static final class Postings {
+        private final task_bitmap bitmap = new task_bitmap();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void add(int ordinal) {
+            lock.writeLock().lock();
+            try {
+                bitmap.add(ordinal);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(int ordinal) {
+            lock.writeLock().lock();
+            try {
+                bitmap.remove(ordinal);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Combining step applied to the running result of a query
+     */
+    private interface Combiner {
+        task_bitmap apply(task_bitmap acc, task_bitmap term);
+    }
+
+    task_tag_index() {
+        this.postings = new ConcurrentHashMap<>();
+        this.liveTasks = new Postings();
+        this.ordinals = new long_hash_map<>();
+        this.nextOrdinal = new AtomicInteger();
+        this.directoryLock = new Object();
+        this.taskIdsByOrdinal = new long[16][];
+    }
+
+    /**
+     * Registers a task so that NOT queries can see it
+     */
+    void addTask(long taskId) {
+        liveTasks.add(ordinalOf(taskId));
+    }
+
+    void addTag(long taskId, String tag) {
+        postings.computeIfAbsent(tag, k -> new Postings()).add(ordinalOf(taskId));
+    }
+
+    /**
+     * Clears a task from the live set and from every tag it carried
+     */
+    void removeTask(long taskId, Collection<String> tags) {
+        Integer ordinal = ordinals.remove(taskId);
+        if (ordinal == null) return;
+        liveTasks.remove(ordinal);
+        for (String tag : tags) {
+            Postings list = postings.get(tag);
+            if (list != null) {
+                list.remove(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Tasks carrying every tag in allOf, at least one in anyOf (when given)
+     * and none in noneOf
+     */
+    long[] find(Collection<String> allOf, Collection<String> anyOf,
+                           Collection<String> noneOf) {
+        task_bitmap result = null;
+        for (String tag : allOf == null ? new ArrayList<String>() : allOf) {
+            result = combine(result, tag, task_bitmap::and);
+            if (result.isEmpty()) return new long[0];
+        }
+        if (anyOf != null && !anyOf.isEmpty()) {
+            task_bitmap any = new task_bitmap();
+            for (String tag : anyOf) {
+                any = combine(any, tag, task_bitmap::or);
+            }
+            result = result == null ? any : result.and(any);
+        }
+        if (result == null) {
+            result = read(liveTasks, null, (acc, live) -> live.copy());
+        }
+        for (String tag : noneOf == null ? new ArrayList<String>() : noneOf) {
+            result = combine(result, tag, task_bitmap::andNot);
+        }
+        return toTaskIds(result);
+    }
+
+    /**
+     * Evaluates a left-to-right tag expression such as "urgent AND exam NOT done"
+     * Terms are joined with AND, OR or NOT (AND NOT); adjacent terms default to AND
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    long[] query(String expression) {
+        String[] tokens = expression == null ? new String[0] : expression.trim().split("\\s+");
+        task_bitmap result = null;
+        boolean or = false;
+        boolean negate = false;
+        boolean expectTerm = true;
+
+        for (String token : tokens) {
+            if (token.isEmpty()) continue;
+            String keyword = token.toUpperCase();
+            if (keyword.equals("AND") || keyword.equals("OR")) {
+                if (expectTerm) {
+                    throw new IllegalArgumentException("Operator without a preceding tag: " + token);
+                }
+                or = keyword.equals("OR");
+                expectTerm = true;
+            } else if (keyword.equals("NOT")) {
+                negate = !negate;
+                expectTerm = true;
+            } else {
+                result = applyTerm(result, token, or, negate);
+                or = false;
+                negate = false;
+                expectTerm = false;
+            }
+        }
+        if (result == null || expectTerm) {
+            throw new IllegalArgumentException("Incomplete tag query: " + expression);
+        }
+        return toTaskIds(result);
+    }
+
+    int tagCount() {
+        return postings.size();
+    }
+
+    private task_bitmap applyTerm(task_bitmap acc, String tag, boolean or, boolean negate) {
+        if (!negate) {
+            if (acc == null) return combine(null, tag, task_bitmap::and);
+            return combine(acc, tag, or ? task_bitmap::or : task_bitmap::and);
+        }
+        if (acc == null || or) {
+            task_bitmap live = read(liveTasks, null, (ignored, all) -> all.copy());
+            task_bitmap excluded = combine(live, tag, task_bitmap::andNot);
+            return acc == null ? excluded : acc.or(excluded);
+        }
+        return combine(acc, tag, task_bitmap::andNot);
+    }
+
+    /**
+     * Combines the running result with one tag's postings under that tag's read lock
+     * A null accumulator means the tag's postings start the result
+     */
+    private task_bitmap combine(task_bitmap acc, String tag, Combiner combiner) {
+        Postings list = postings.get(tag);
+        if (list == null) {
+            task_bitmap empty = new task_bitmap();
+            return acc == null ? empty : combiner.apply(acc, empty);
+        }
+        return read(list, acc, acc == null ? (ignored, term) -> term.copy() : combiner);
+    }
+
+    private task_bitmap read(Postings list, task_bitmap acc, Combiner combiner) {
+        list.lock.readLock().lock();
+        try {
+            return combiner.apply(acc, list.bitmap);
+        } finally {
+            list.lock.readLock().unlock();
+        }
+    }
+
+    private int ordinalOf(long taskId) {
+        return ordinals.computeIfAbsent(taskId, id -> {
+            int ordinal = nextOrdinal.getAndIncrement();
+            int chunkIndex = ordinal >>> ORDINAL_CHUNK_BITS;
+            synchronized (directoryLock) {
+                long[][] directory = taskIdsByOrdinal;
+                if (chunkIndex >= directory.length) {
+                    directory = Arrays.copyOf(directory, Math.max(directory.length * 2, chunkIndex + 1));
+                }
+                if (directory[chunkIndex] == null) {
+                    directory[chunkIndex] = new long[ORDINAL_CHUNK_SIZE];
+                }
+                directory[chunkIndex][ordinal & (ORDINAL_CHUNK_SIZE - 1)] = id;
+                taskIdsByOrdinal = directory;
+            }
+            return ordinal;
+        });
+    }
+
+    private long[] toTaskIds(task_bitmap bitmap) {
+        long[] taskIds = new long[bitmap.cardinality()];
+        long[][] directory = taskIdsByOrdinal;
+        int[] count = new int[1];
+        bitmap.forEach(ordinal -> taskIds[count[0]++] =
+            directory[ordinal >>> ORDINAL_CHUNK_BITS][ordinal & (ORDINAL_CHUNK_SIZE - 1)]);
+        return taskIds;
+    }
+}
@@ -0,0 +1,717 @@
+package java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TaskTextIndex is an in-process inverted index over task titles and descriptions
+ * Text is lower-cased and split on anything that is not a letter or digit.
+ * The term dictionary is sorted, so the last query word can be matched as a
+ * prefix for type-ahead. Results are ranked with BM25, counting title words
+ * twice. Updates replace a task's postings in place; each term's postings
+ * have their own lock so indexing different words never contends.
+ * Searches score an immutable snapshot of each term's postings instead,
+ * plus a copy of the few entries changed since it was taken. They walk the
+ * postings best-scoring tasks first and stop once no task still unseen can
+ * make the results, so common words and short prefixes do not scan every task.
+ */
+class task_text_index {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TITLE_WEIGHT = 2;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    private final ConcurrentSkipListMap<String, TermPostings> terms;
+    private final long_hash_map<IndexedDoc> documents;
+    private final AtomicLong documentCount;
+    private final AtomicLong totalLength;
+
+    /**
+     * Terms and weighted length of one indexed task, kept for removal
+     */
+    private static final class IndexedDoc {
+        private final String[] terms;
+        private final int length;
+
+        IndexedDoc(String[] terms, int length) {
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Task ID to term frequency and task length map for one term, open
+     * addressing on flat arrays
+     */
+    private static final class TermPostings {
+        private long[] docs = new long[4];
+        private int[] frequencies = new int[4];
+        private int[] lengths = new int[4];
+        private int size;
+        private boolean retired;
+        private PostingsSnapshot base;
+        private long[] changed = new long[16];
+        private int changedCount;
+        private volatile int version;
+        private volatile PostingsView view;
+
+        /**
+         * @return boolean false if these postings were retired and the caller must retry
+         */
+        synchronized boolean put(long doc, int frequency, int length) {
+            if (retired) return false;
+            if ((size + 1) * 4 > docs.length * 3) {
+                rehash(docs.length * 2);
+            }
+            int mask = docs.length - 1;
+            int i = slot(doc, mask);
+            while (docs[i] != 0 && docs[i] != doc) {
+                i = (i + 1) & mask;
+            }
+            if (docs[i] == 0) size++;
+            docs[i] = doc;
+            frequencies[i] = frequency;
+            lengths[i] = length;
+            changed(doc);
+            return true;
+        }
+
+        synchronized void remove(long doc) {
+            int mask = docs.length - 1;
+            int i = slot(doc, mask);
+            while (docs[i] != doc) {
+                if (docs[i] == 0) return;
+                i = (i + 1) & mask;
+            }
+            int gap = i;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (docs[j] == 0) break;
+                int home = slot(docs[j], mask);
+                boolean movable = gap <= j ? (home <= gap || home > j) : (home <= gap && home > j);
+                if (movable) {
+                    docs[gap] = docs[j];
+                    frequencies[gap] = frequencies[j];
+                    lengths[gap] = lengths[j];
+                    gap = j;
+                }
+            }
+            docs[gap] = 0;
+            frequencies[gap] = 0;
+            lengths[gap] = 0;
+            size--;
+            changed(doc);
+        }
+
+        /**
+         * Drops empty postings from the dictionary so prefix scans skip dead terms
+         */
+        synchronized void retireIfEmpty(String term, Map<String, TermPostings> dictionary) {
+            if (size == 0 && !retired) {
+                retired = true;
+                dictionary.remove(term, this);
+            }
+        }
+
+        /**
+         * Gets what a query scores for this term, rebuilt only after the
+         * postings changed; the lock is held just long enough to copy arrays
+         */
+        PostingsView view() {
+            PostingsView current = view;
+            if (current != null && current.version == version) return current;
+            PostingsSnapshot snapshot;
+            PostingsSnapshot changes;
+            int currentSize;
+            int currentVersion;
+            synchronized (this) {
+                if (base == null) {
+                    base = new PostingsSnapshot(docs.clone(), frequencies.clone(), lengths.clone());
+                    changedCount = 0;
+                }
+                snapshot = base;
+                changes = changedCount == 0 ? null : changes();
+                currentSize = size;
+                currentVersion = version;
+            }
+            snapshot.group();
+            if (changes != null) changes.group();
+            current = new PostingsView(currentVersion, currentSize, snapshot, changes);
+            view = current;
+            return current;
+        }
+
+        /**
+         * Records a task changed since the base snapshot was taken; once more
+         * than a small share of the postings changed, the base is dropped and
+         * the next query copies the postings again
+         */
+        private void changed(long doc) {
+            version = version + 1;
+            if (base == null) return;
+            if (changedCount == changed.length) {
+                if (changed.length > size / 32 + 64) {
+                    base = null;
+                    changedCount = 0;
+                    return;
+                }
+                changed = Arrays.copyOf(changed, changedCount * 2);
+            }
+            changed[changedCount++] = doc;
+        }
+
+        /**
+         * Copies the current entries of the changed tasks; frequency 0 marks a removal
+         */
+        private PostingsSnapshot changes() {
+            int capacity = 4;
+            while (capacity < changedCount * 2) {
+                capacity <<= 1;
+            }
+            long[] changedDocs = new long[capacity];
+            int[] changedFrequencies = new int[capacity];
+            int[] changedLengths = new int[capacity];
+            int mask = capacity - 1;
+            for (int c = 0; c < changedCount; c++) {
+                long doc = changed[c];
+                int i = slot(doc, mask);
+                while (changedDocs[i] != 0 && changedDocs[i] != doc) {
+                    i = (i + 1) & mask;
+                }
+                int live = find(docs, doc);
+                changedDocs[i] = doc;
+                changedFrequencies[i] = live < 0 ? 0 : frequencies[live];
+                changedLengths[i] = live < 0 ? 0 : lengths[live];
+            }
+            return new PostingsSnapshot(changedDocs, changedFrequencies, changedLengths);
+        }
+
+        private void rehash(int capacity) {
+            long[] oldDocs = docs;
+            int[] oldFrequencies = frequencies;
+            int[] oldLengths = lengths;
+            docs = new long[capacity];
+            frequencies = new int[capacity];
+            lengths = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldDocs.length; i++) {
+                if (oldDocs[i] == 0) continue;
+                int j = slot(oldDocs[i], mask);
+                while (docs[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                docs[j] = oldDocs[i];
+                frequencies[j] = oldFrequencies[i];
+                lengths[j] = oldLengths[i];
+            }
+        }
+
+        private static int slot(long doc, int mask) {
+            return (int) ((doc * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        }
+
+        /**
+         * @return int the task's slot in an open-addressing table, or -1 if it is not there
+         */
+        static int find(long[] docs, long doc) {
+            int mask = docs.length - 1;
+            int i = slot(doc, mask);
+            while (docs[i] != doc) {
+                if (docs[i] == 0) return -1;
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * What a query scores for one term: a snapshot of its postings and, if
+     * any changed since, the current entries of the changed tasks
+     */
+    private static final class PostingsView {
+        private final int version;
+        private final int size;
+        private final PostingsSnapshot base;
+        private final PostingsSnapshot changes;
+
+        PostingsView(int version, int size, PostingsSnapshot base, PostingsSnapshot changes) {
+            this.version = version;
+            this.size = size;
+            this.base = base;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Immutable copy of one term's postings
+     * Besides the hash table used to look tasks up, the slots of tasks that
+     * contain the term are listed group by group, one group per distinct term
+     * frequency and task length, since every task of a group gets the same score.
+     */
+    private static final class PostingsSnapshot {
+        private final long[] docs;
+        private final int[] frequencies;
+        private final int[] lengths;
+        private int[] order;
+        private int[] groupStart;
+        private int[] groupFrequency;
+        private int[] groupLength;
+
+        PostingsSnapshot(long[] docs, int[] frequencies, int[] lengths) {
+            this.docs = docs;
+            this.frequencies = frequencies;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Lists the slots by group; the first query to use the snapshot does it
+         */
+        synchronized void group() {
+            if (order != null) return;
+            GroupNumbers numbers = new GroupNumbers();
+            int[] groupOf = new int[docs.length];
+            int[] counts = new int[16];
+            groupFrequency = new int[16];
+            groupLength = new int[16];
+            int size = 0;
+            for (int i = 0; i < docs.length; i++) {
+                if (frequencies[i] == 0) continue;
+                int group = numbers.numberOf(frequencies[i], lengths[i]);
+                if (group == counts.length) {
+                    counts = Arrays.copyOf(counts, group * 2);
+                    groupFrequency = Arrays.copyOf(groupFrequency, group * 2);
+                    groupLength = Arrays.copyOf(groupLength, group * 2);
+                }
+                groupFrequency[group] = frequencies[i];
+                groupLength[group] = lengths[i];
+                counts[group]++;
+                groupOf[i] = group;
+                size++;
+            }
+            groupStart = new int[numbers.size + 1];
+            for (int g = 0; g < numbers.size; g++) {
+                groupStart[g + 1] = groupStart[g] + counts[g];
+            }
+            int[] next = Arrays.copyOf(groupStart, numbers.size);
+            order = new int[size];
+            for (int i = 0; i < docs.length; i++) {
+                if (frequencies[i] != 0) order[next[groupOf[i]]++] = i;
+            }
+        }
+
+        int groupCount() {
+            return groupStart.length - 1;
+        }
+    }
+
+    /**
+     * Numbers the distinct term frequency and task length pairs of a snapshot
+     */
+    private static final class GroupNumbers {
+        private long[] keys = new long[16];
+        private int[] numbers = new int[16];
+        private int size;
+
+        /**
+         * @return int the pair's group number, a new one the first time it is seen
+         */
+        int numberOf(int frequency, int length) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            // frequencies are at least 1, so a key is never the empty marker 0
+            long key = (long) frequency << 32 | length;
+            int mask = keys.length - 1;
+            int i = TermPostings.slot(key, mask);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                numbers[i] = size++;
+            }
+            return numbers[i];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldNumbers = numbers;
+            keys = new long[oldKeys.length * 2];
+            numbers = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int j = TermPostings.slot(oldKeys[i], mask);
+                while (keys[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                numbers[j] = oldNumbers[i];
+            }
+        }
+    }
+
+    /**
+     * One term of a query, walking a snapshot best-scoring group first
+     */
+    private static final class TermCursor {
+        private final PostingsSnapshot postings;
+        private final PostingsSnapshot overridden;
+        private final double idf;
+        private final double averageLength;
+        private final double[] groupScores;
+        private final int[] groups;
+        private int group;
+        private int position;
+
+        /**
+         * @param overridden entries changed since {@code postings} was taken, which this cursor
+         *                   then scores 0 since another cursor walks them, or null
+         */
+        TermCursor(PostingsSnapshot postings, PostingsSnapshot overridden, double idf, double averageLength) {
+            this.postings = postings;
+            this.overridden = overridden;
+            this.idf = idf;
+            this.averageLength = averageLength;
+            int count = postings.groupCount();
+            this.groupScores = new double[count];
+            Integer[] byScore = new Integer[count];
+            for (int g = 0; g < count; g++) {
+                groupScores[g] = score(postings.groupFrequency[g], postings.groupLength[g]);
+                byScore[g] = g;
+            }
+            Arrays.sort(byScore, (a, b) -> Double.compare(groupScores[b], groupScores[a]));
+            this.groups = new int[count];
+            for (int g = 0; g < count; g++) {
+                groups[g] = byScore[g];
+            }
+            this.position = count == 0 ? 0 : postings.groupStart[groups[0]];
+        }
+
+        boolean exhausted() {
+            return group == groups.length;
+        }
+
+        /**
+         * @return double the highest score of any task this cursor has not handed out yet
+         */
+        double bound() {
+            return groupScores[groups[group]];
+        }
+
+        /**
+         * Hands out the next task, moving on to the next group after the last one of a group
+         * @return long the task ID
+         */
+        long next() {
+            long doc = postings.docs[postings.order[position++]];
+            if (position == postings.groupStart[groups[group] + 1] && ++group < groups.length) {
+                position = postings.groupStart[groups[group]];
+            }
+            return doc;
+        }
+
+        /**
+         * @return double the BM25 contribution of this term to a task, 0 if the task lacks it
+         */
+        double scoreOf(long doc) {
+            if (overridden != null && TermPostings.find(overridden.docs, doc) >= 0) return 0;
+            int slot = TermPostings.find(postings.docs, doc);
+            return slot < 0 ? 0 : score(postings.frequencies[slot], postings.lengths[slot]);
+        }
+
+        private double score(int frequency, int length) {
+            double tf = frequency;
+            return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+        }
+    }
+
+    /**
+     * Primitive set of the tasks a query has already scored
+     */
+    private static final class DocSet {
+        private long[] docs = new long[64];
+        private int size;
+
+        /**
+         * @return boolean false if the task was already in the set
+         */
+        boolean add(long doc) {
+            if ((size + 1) * 2 > docs.length) {
+                grow();
+            }
+            int mask = docs.length - 1;
+            int i = TermPostings.slot(doc, mask);
+            while (docs[i] != 0) {
+                if (docs[i] == doc) return false;
+                i = (i + 1) & mask;
+            }
+            docs[i] = doc;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldDocs = docs;
+            docs = new long[oldDocs.length * 2];
+            size = 0;
+            for (long doc : oldDocs) {
+                if (doc != 0) add(doc);
+            }
+        }
+    }
+
+    /**
+     * Bounded min-heap of the best scores of a query, on primitive arrays
+     */
+    private static final class TopScores {
+        private final int limit;
+        private long[] docs;
+        private double[] scores;
+        private int size;
+
+        TopScores(int limit) {
+            this.limit = limit;
+            this.docs = new long[Math.min(limit, 1024)];
+            this.scores = new double[docs.length];
+        }
+
+        boolean isFull() {
+            return size == limit;
+        }
+
+        double lowest() {
+            return scores[0];
+        }
+
+        void offer(long doc, double score) {
+            if (size < limit) {
+                if (size == docs.length) {
+                    int capacity = (int) Math.min(limit, docs.length * 2L);
+                    docs = Arrays.copyOf(docs, capacity);
+                    scores = Arrays.copyOf(scores, capacity);
+                }
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (scores[parent] <= score) break;
+                    docs[i] = docs[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                docs[i] = doc;
+                scores[i] = score;
+            } else if (score > scores[0]) {
+                siftDown(doc, score);
+            }
+        }
+
+        /**
+         * Empties the heap
+         * @return long[] the task IDs, best first
+         */
+        long[] drain() {
+            long[] result = new long[size];
+            for (int i = result.length - 1; i >= 0; i--) {
+                result[i] = docs[0];
+                size--;
+                if (size > 0) siftDown(docs[size], scores[size]);
+            }
+            return result;
+        }
+
+        /**
+         * Puts a task at the root in place of the lowest one and restores the heap
+         */
+        private void siftDown(long doc, double score) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+                if (score <= scores[child]) break;
+                docs[i] = docs[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            docs[i] = doc;
+            scores[i] = score;
+        }
+    }
+
+    task_text_index() {
+        this.terms = new ConcurrentSkipListMap<>();
+        this.documents = new long_hash_map<>();
+        this.documentCount = new AtomicLong();
+        this.totalLength = new AtomicLong();
+    }
+
+    /**
+     * Indexes a task or replaces its previous text
+     * Callers serialize updates per task
+     */
+    void index(long taskId, String title, String description) {
+        remove(taskId);
+        HashMap<String, Integer> frequencies = new HashMap<>();
+        int length = countTokens(title, TITLE_WEIGHT, frequencies)
+                   + countTokens(description, 1, frequencies);
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            while (!terms.computeIfAbsent(entry.getKey(), k -> new TermPostings())
+                         .put(taskId, entry.getValue(), length)) {
+                // postings were retired concurrently, a fresh entry is created on retry
+            }
+        }
+        documents.put(taskId, new IndexedDoc(frequencies.keySet().toArray(new String[0]), length));
+        documentCount.incrementAndGet();
+        totalLength.addAndGet(length);
+    }
+
+    /**
+     * Removes a task from the index
+     */
+    void remove(long taskId) {
+        IndexedDoc doc = documents.remove(taskId);
+        if (doc == null) return;
+        for (String term : doc.terms) {
+            TermPostings postings = terms.get(term);
+            if (postings != null) {
+                postings.remove(taskId);
+                postings.retireIfEmpty(term, terms);
+            }
+        }
+        documentCount.decrementAndGet();
+        totalLength.addAndGet(-doc.length);
+    }
+
+    /**
+     * Ranks tasks against a free-text query
+     * Words match terms exactly, except the last word which also matches as
+     * a prefix so results follow the user while typing
+     * @return long[] up to {@code limit} task IDs, best match first
+     */
+    long[] search(String query, int limit) {
+        ArrayList<String> words = tokenize(query);
+        if (words.isEmpty() || limit <= 0) return new long[0];
+
+        long docs = Math.max(1, documentCount.get());
+        double averageLength = Math.max(1.0, (double) totalLength.get() / docs);
+        TermCursor[][] cursors = new TermCursor[words.size()][];
+        for (int w = 0; w < words.size(); w++) {
+            String word = words.get(w);
+            boolean prefix = w == words.size() - 1;
+            Map<String, TermPostings> matches = prefix
+                ? terms.subMap(word, true, word + Character.MAX_VALUE, false)
+                : singleTerm(word);
+            ArrayList<TermCursor> expansions = new ArrayList<>();
+            int expanded = 0;
+            for (TermPostings postings : matches.values()) {
+                if (expanded++ == MAX_PREFIX_EXPANSIONS) break;
+                PostingsView view = postings.view();
+                double idf = Math.log(1 + (docs - view.size + 0.5) / (view.size + 0.5));
+                expansions.add(new TermCursor(view.base, view.changes, idf, averageLength));
+                if (view.changes != null) {
+                    expansions.add(new TermCursor(view.changes, null, idf, averageLength));
+                }
+            }
+            cursors[w] = expansions.toArray(new TermCursor[0]);
+        }
+        return topK(cursors, limit);
+    }
+
+    private Map<String, TermPostings> singleTerm(String word) {
+        TermPostings postings = terms.get(word);
+        HashMap<String, TermPostings> match = new HashMap<>();
+        if (postings != null) match.put(word, postings);
+        return match;
+    }
+
+    /**
+     * Selects the best {@code limit} tasks, threshold-algorithm style
+     * Tasks are taken from whichever term promises the highest score and
+     * scored in full when first seen: the sum over the words of their best
+     * matching expansion. A task not seen yet can score at most the sum of
+     * each word's highest remaining bound, so the walk stops once the results
+     * are full and their lowest score reaches that.
+     */
+    private static long[] topK(TermCursor[][] words, int limit) {
+        TopScores top = new TopScores(limit);
+        DocSet seen = new DocSet();
+        while (true) {
+            TermCursor best = null;
+            double reachable = 0;
+            for (TermCursor[] word : words) {
+                double wordBound = 0;
+                for (TermCursor cursor : word) {
+                    if (cursor.exhausted()) continue;
+                    wordBound = Math.max(wordBound, cursor.bound());
+                    if (best == null || cursor.bound() > best.bound()) best = cursor;
+                }
+                reachable += wordBound;
+            }
+            if (best == null || top.isFull() && top.lowest() >= reachable) break;
+            // the other bounds stay put while this cursor stays in groups with the same score
+            double bound = best.bound();
+            do {
+                long doc = best.next();
+                if (!seen.add(doc)) continue;
+                double score = scoreOf(words, doc);
+                // 0 when the task was changed or removed since the snapshot and no longer matches
+                if (score > 0) top.offer(doc, score);
+            } while (!best.exhausted() && best.bound() == bound && !(top.isFull() && top.lowest() >= reachable));
+        }
+        return top.drain();
+    }
+
+    /**
+     * Scores a task against every word; for prefix expansions a task keeps
+     * only its best-matching expansion
+     */
+    private static double scoreOf(TermCursor[][] words, long doc) {
+        double score = 0;
+        for (TermCursor[] word : words) {
+            double best = 0;
+            for (TermCursor cursor : word) {
+                best = Math.max(best, cursor.scoreOf(doc));
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Counts tokens into the frequency map and returns the weighted length
+     */
+    private static int countTokens(String text, int weight, HashMap<String, Integer> frequencies) {
+        int length = 0;
+        for (String token : tokenize(text)) {
+            frequencies.merge(token, weight, Integer::sum);
+            length += weight;
+        }
+        return length;
+    }
+
+    static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    int termCount() {
+        return terms.size();
+    }
+}
@@ -0,0 +1,117 @@
+package java;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TaskTextIndexBenchmark measures search latency of task_text_index at the
+ * size of a large deployment
+ * It indexes TASKS generated tasks whose words follow a skewed distribution,
+ * so a few words such as "task" appear in most of them, then times every
+ * query in QUERIES: common words, one and two letter prefixes, several words
+ * and a rare word. Each query runs RUNS times and its p50/p99 are printed,
+ * first on a quiet index and then while a writer keeps re-indexing tasks,
+ * so queries also score the entries changed since each term's snapshot.
+ * Run with: java -Xmx3g java.task_text_index_benchmark [tasks]
+ */
+final class task_text_index_benchmark {
+    private static final int TASKS = 1_000_000;
+    private static final int RUNS = 300;
+    private static final int LIMIT = 20;
+    private static final String[] COMMON = {"task", "update", "report", "review", "fix", "meeting", "plan", "design"};
+    private static final String[] QUERIES = {"task", "report", "t", "re", "fix the", "review design plan", "zqx"};
+
+    private task_text_index_benchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : TASKS;
+        Random random = new Random(42);
+        String[] vocabulary = vocabulary(random, 20_000);
+        task_text_index index = new task_text_index();
+        long started = System.nanoTime();
+        for (long id = 1; id <= tasks; id++) {
+            index.index(id, text(random, vocabulary, 4), text(random, vocabulary, 6));
+        }
+        System.out.printf("Indexed %d tasks, %d terms in %.1fs%n", tasks, index.termCount(),
+                          (System.nanoTime() - started) / 1e9);
+        run("quiet", index);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reindexed = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            Random writes = new Random(7);
+            while (running.get()) {
+                long id = 1 + writes.nextInt(tasks);
+                index.index(id, text(writes, vocabulary, 4), text(writes, vocabulary, 6));
+                reindexed.incrementAndGet();
+            }
+        }, "text-index-writer");
+        writer.start();
+        try {
+            run("while re-indexing", index);
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        System.out.println("Re-indexed " + reindexed.get() + " tasks during the second run");
+    }
+
+    private static void run(String name, task_text_index index) {
+        long[] all = new long[QUERIES.length * RUNS];
+        int n = 0;
+        System.out.println("Search, " + name + ":");
+        for (String query : QUERIES) {
+            for (int i = 0; i < RUNS / 10; i++) {
+                index.search(query, LIMIT);
+            }
+            long[] latencies = new long[RUNS];
+            int found = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                found = index.search(query, LIMIT).length;
+                latencies[i] = System.nanoTime() - start;
+                all[n++] = latencies[i];
+            }
+            Arrays.sort(latencies);
+            System.out.printf("  %-22s %2d results  p50 %7.3f ms  p99 %7.3f ms%n", '"' + query + '"', found,
+                              millisAt(latencies, 50), millisAt(latencies, 99));
+        }
+        Arrays.sort(all);
+        System.out.printf("  all queries: p50 %.3f ms, p99 %.3f ms%n", millisAt(all, 50), millisAt(all, 99));
+    }
+
+    private static String[] vocabulary(Random random, int size) {
+        String[] words = new String[size];
+        System.arraycopy(COMMON, 0, words, 0, COMMON.length);
+        for (int i = COMMON.length; i < size; i++) {
+            char[] word = new char[3 + random.nextInt(7)];
+            for (int c = 0; c < word.length; c++) {
+                word[c] = (char) ('a' + random.nextInt(25));
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+
+    /**
+     * Picks words with a steep skew, so the first words of the vocabulary are
+     * in most texts and the last ones in very few
+     */
+    private static String text(Random random, String[] vocabulary, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            double r = random.nextDouble();
+            if (i > 0) text.append(' ');
+            text.append(vocabulary[(int) (vocabulary.length * r * r * r * r)]);
+        }
+        return text.toString();
+    }
+
+    private static double millisAt(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,76 @@
+package java;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * VirtualThreadPinningMonitor reports request handlers that block while
+ * pinned to their carrier thread, e.g. waiting on I/O inside a synchronized
+ * block, which silently turns a virtual thread back into a platform thread
+ * It streams the JDK's jdk.VirtualThreadPinned flight recorder event. Each
+ * distinct blocking site is logged once with its stack and later ones are
+ * only counted. On a JDK without virtual threads the event never fires.
+ */
+final class virtual_thread_pinning_monitor {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final Duration THRESHOLD = Duration.ofMillis(20);
+    private static final int REPORTED_FRAMES = 8;
+
+    private final String name;
+    private final RecordingStream stream;
+    private final LongAdder pinned;
+    private final Set<String> reportedSites;
+
+    /**
+     * Starts streaming pinning events
+     * @param name prefix for log lines, e.g. the server name
+     * @throws IllegalStateException if the flight recorder is unavailable
+     */
+    virtual_thread_pinning_monitor(String name) {
+        this.name = name;
+        this.pinned = new LongAdder();
+        this.reportedSites = ConcurrentHashMap.newKeySet();
+        this.stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(THRESHOLD).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+    }
+
+    /**
+     * @return long number of times a virtual thread blocked while pinned for
+     *         longer than THRESHOLD
+     */
+    long pinnedCount() {
+        return pinned.sum();
+    }
+
+    void close() {
+        stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.increment();
+        StringBuilder site = new StringBuilder();
+        RecordedStackTrace trace = event.getStackTrace();
+        if (trace != null) {
+            List<RecordedFrame> frames = trace.getFrames();
+            for (int i = 0; i < Math.min(frames.size(), REPORTED_FRAMES); i++) {
+                RecordedFrame frame = frames.get(i);
+                site.append("\n    at ").append(frame.getMethod().getType().getName())
+                    .append('.').append(frame.getMethod().getName())
+                    .append(':').append(frame.getLineNumber());
+            }
+        }
+        if (reportedSites.add(site.toString())) {
+            System.out.println(name + ": virtual thread pinned for " + event.getDuration().toMillis()
+                               + " ms" + site);
+        }
+    }
+}